@@ -0,0 +1,72 @@
+package cz.cvut.fel.bulkodav.node;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link CodecBenchmark} class measures how fast the messages of every {@link MessageShape} are encoded
+ * and decoded, and how fast the json in their content is decoded after the message. It gives a baseline
+ * to changes of the codec of {@link cz.cvut.fel.bulkodav.communication.CommunicationLink}.
+ * <p>
+ * Usage: {@code java -jar target/benchmarks.jar -prof gc}, the gc profiler adds the bytes allocated
+ * per operation as gc.alloc.rate.norm. The encoded sizes are printed by {@link MessageShape}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodecBenchmark
+{
+    @Param({"CHAT", "RELAY_CHAT", "GREETINGS", "TOPOLOGY_CHANGED", "WALK", "TOPOLOGY", "USER_CHANGE", "USER_STATE"})
+    public MessageShape shape;
+
+    private Object value;
+    private byte[] encoded;
+    private Object decoded;
+
+    /**
+     * Creates the value of the shape and encodes it.
+     *
+     * @throws IOException if the value cannot be serialized.
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        value = shape.create();
+        encoded = shape.encode(value);
+        decoded = shape.decode(encoded);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException
+    {
+        return shape.encode(value);
+    }
+
+    @Benchmark
+    public Object decode() throws IOException
+    {
+        return shape.decode(encoded);
+    }
+
+    @Benchmark
+    public List<Object> unpack() throws IOException
+    {
+        return shape.unpack(decoded);
+    }
+}
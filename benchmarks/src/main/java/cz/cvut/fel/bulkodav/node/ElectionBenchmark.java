@@ -0,0 +1,190 @@
+package cz.cvut.fel.bulkodav.node;
+
+import cz.cvut.fel.bulkodav.communication.NodeInfo;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link ElectionBenchmark} class compares the algorithms of the election on simulated rings.
+ * The nodes of a simulated ring run the real {@link ElectionStrategy} of each algorithm, but their messages
+ * are delivered by a {@link VirtualNetwork} instead of the sockets. A message takes one unit of time with a random
+ * jitter. All the nodes find out that the king is dead within the first unit of time.
+ * <p>
+ * For every algorithm, size of the ring and order of the ids it reports the number of messages, their bytes,
+ * the virtual time until the new king is elected, the number of elected kings and whether the node with
+ * the biggest id was elected.
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar cz.cvut.fel.bulkodav.node.ElectionBenchmark [seed] [sizes...]}
+ */
+public class ElectionBenchmark
+{
+    private final static String KING = "king";
+    private final static double JITTER = 0.5;
+
+    /**
+     * The order of the election ids along the ring.
+     */
+    enum IdOrder
+    {
+        RANDOM, ASCENDING, DESCENDING
+    }
+
+    private final VirtualNetwork network;
+    private final Map<String, SimulatedNode> nodes = new HashMap<>();
+    private final List<SimulatedNode> kings = new ArrayList<>();
+    private double convergence;
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.ElectionBenchmark} class, which simulates one election.
+     *
+     * @param election The algorithm of the election.
+     * @param size     The number of the nodes in the ring, without the dead king.
+     * @param idOrder  The order of the election ids along the ring.
+     * @param seed     The seed of the scheduler.
+     */
+    private ElectionBenchmark(Election election, int size, IdOrder idOrder, long seed)
+    {
+        network = new VirtualNetwork(seed, 1, JITTER);
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < size; i++) ids.add(i);
+        if (idOrder == IdOrder.RANDOM) Collections.shuffle(ids, network.getRandom());
+        if (idOrder == IdOrder.DESCENDING) Collections.reverse(ids);
+        for (int i = 0; i < size; i++)
+        {
+            String left = i == 0 ? KING : "node-" + (i - 1);
+            String right = i == size - 1 ? KING : "node-" + (i + 1);
+            SimulatedNode node = new SimulatedNode("node-" + i, ids.get(i), left, right);
+            node.election = election.create(node);
+            nodes.put(node.name, node);
+        }
+    }
+
+    /**
+     * Runs the election until no message is left.
+     */
+    private void run()
+    {
+        for (SimulatedNode node : nodes.values())
+        {
+            network.schedule(network.getRandom().nextDouble(), () ->
+            {
+                if (!node.isKing) node.election.startElection();
+            });
+        }
+        network.run();
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args The seed followed by the sizes of the rings, 42 and 10 100 1000 10000 by default.
+     */
+    public static void main(String[] args)
+    {
+        Logger.getRootLogger().setLevel(Level.OFF);
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42;
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) sizes.add(Integer.parseInt(args[i]));
+        if (sizes.isEmpty()) Collections.addAll(sizes, 10, 100, 1000, 10000);
+
+        System.out.printf("%-20s %6s %-10s %10s %8s %12s %10s %6s %6s %8s%n", "election", "nodes", "ids",
+                "messages", "per node", "bytes", "time", "kings", "max", "wall ms");
+        for (int size : sizes)
+        {
+            for (IdOrder idOrder : IdOrder.values())
+            {
+                for (Election election : Election.values())
+                {
+                    long start = System.nanoTime();
+                    ElectionBenchmark benchmark = new ElectionBenchmark(election, size, idOrder, seed);
+                    benchmark.run();
+                    long wall = (System.nanoTime() - start) / 1_000_000;
+                    boolean maxElected = benchmark.kings.stream().anyMatch(king -> king.id == size - 1);
+                    long messages = benchmark.network.getMessages();
+                    System.out.printf("%-20s %6d %-10s %10d %8.1f %12d %10.1f %6d %6s %8d%n",
+                            election.name().toLowerCase(), size, idOrder.name().toLowerCase(), messages,
+                            (double) messages / size, benchmark.network.getBytes(), benchmark.convergence,
+                            benchmark.kings.size(), maxElected ? "yes" : "no", wall);
+                }
+            }
+        }
+    }
+
+    /**
+     * The {@link SimulatedNode} class represents a node of the simulated ring.
+     */
+    private class SimulatedNode implements ElectionRing
+    {
+        private final String name;
+        private final int id;
+        private final String left;
+        private final String right;
+        private final NodeInfo info;
+        private ElectionStrategy election;
+        private boolean isKing;
+
+        private SimulatedNode(String name, int id, String left, String right)
+        {
+            this.name = name;
+            this.id = id;
+            this.left = left;
+            this.right = right;
+            this.info = new NodeInfo("127.0.0.1", 0, name);
+        }
+
+        @Override
+        public NodeInfo getMyInfo()
+        {
+            return info;
+        }
+
+        @Override
+        public long getMyKey()
+        {
+            return id;
+        }
+
+        @Override
+        public String getKingsName()
+        {
+            return KING;
+        }
+
+        @Override
+        public String getLeftName()
+        {
+            return left;
+        }
+
+        @Override
+        public String getNextHop(String previousHopName)
+        {
+            return previousHopName.equals(left) ? right : left;
+        }
+
+        @Override
+        public void send(String hopName, String content)
+        {
+            SimulatedNode hop = nodes.get(hopName);
+            network.send(name, hopName, content.getBytes(StandardCharsets.UTF_8).length, hop == null ? null : () ->
+            {
+                if (!hop.isKing) hop.election.handleElectionMessage(content, name, false);
+            });
+        }
+
+        @Override
+        public void win()
+        {
+            if (kings.isEmpty()) convergence = network.getTime();
+            isKing = true;
+            kings.add(this);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package cz.cvut.fel.bulkodav.node;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.cvut.fel.bulkodav.communication.CommunicationLink;
+import cz.cvut.fel.bulkodav.communication.Message;
+import cz.cvut.fel.bulkodav.communication.MessageType;
+import cz.cvut.fel.bulkodav.communication.NodeInfo;
+import cz.cvut.fel.bulkodav.communication.TopologyInfo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@link MessageShape} enum lists the shapes of the messages the nodes send, with the contents they have
+ * in a ring of {@link #RING_SIZE} nodes. The messages are encoded by {@link CommunicationLink#encode(Message)}
+ * and decoded the way {@link CommunicationLink} decodes them, the ids and the topology infos in the content
+ * of a message are json strings inside the json of the message, as the nodes send them.
+ * <p>
+ * Running the class prints the encoded size of every shape and how many of its bytes escape the json
+ * inside the content.
+ */
+public enum MessageShape
+{
+    /**
+     * A chat message numbered by the king.
+     */
+    CHAT(Message.class, null),
+    /**
+     * A chat message which the recipient relays to the next nodes of the tree.
+     */
+    RELAY_CHAT(Message.class, null),
+    /**
+     * The greetings of a new node, with its id, its capacity and the frames token.
+     */
+    GREETINGS(Message.class, NodeInfo.class),
+    /**
+     * A change of the topology after a death, with the ids of the dead node and of its substitute.
+     */
+    TOPOLOGY_CHANGED(Message.class, NodeInfo.class),
+    /**
+     * The answer to a {@link MessageType#LONG_LIVE_THE_KING} message, with the ids of all the nodes of the ring.
+     */
+    WALK(Message.class, NodeInfo.class),
+    /**
+     * The answer to a {@link MessageType#MAP_TOPOLOGY} request, with the epoch and the topology of the ring.
+     */
+    TOPOLOGY(Message.class, TopologyInfo.class),
+    /**
+     * A change of a user which only carries the change.
+     */
+    USER_CHANGE(UserStateChange.class, null),
+    /**
+     * A change of a user which carries the whole topology, as a new node gets it.
+     */
+    USER_STATE(UserStateChange.class, null);
+
+    /**
+     * The number of the nodes of the ring the messages are taken from.
+     */
+    public final static int RING_SIZE = 100;
+
+    private final static ObjectMapper mapper = new ObjectMapper();
+    private final Class<?> type;
+    private final Class<?> nestedType;
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.MessageShape} enum.
+     *
+     * @param type       The class of the encoded value.
+     * @param nestedType The class of the values encoded in the content of a message, or null if there are none.
+     */
+    MessageShape(Class<?> type, Class<?> nestedType)
+    {
+        this.type = type;
+        this.nestedType = nestedType;
+    }
+
+    /**
+     * Creates a value of this shape.
+     *
+     * @return The message or the change of a user.
+     * @throws IOException if an id cannot be serialized.
+     */
+    public Object create() throws IOException
+    {
+        NodeInfo king = node(0);
+        NodeInfo peasant = node(1);
+        StringBuilder content = new StringBuilder();
+        switch (this)
+        {
+            case CHAT:
+                return new Message(text(80), null, peasant, MessageType.CHAT, 4711, null);
+            case RELAY_CHAT:
+                List<NodeInfo> relay = new ArrayList<>();
+                for (int i = 2; i < 6; i++) relay.add(node(i));
+                return new Message(text(80), peasant, king, MessageType.RELAY_CHAT, 4711, relay);
+            case GREETINGS:
+                content.append(mapper.writeValueAsString(peasant)).append(' ').append(NodeCapacity.TOKEN).append(1234)
+                        .append(' ').append(CommunicationLink.FRAMES_TOKEN);
+                return new Message(content.toString(), king, peasant, MessageType.GREETINGS);
+            case TOPOLOGY_CHANGED:
+                content.append(mapper.writeValueAsString(node(2))).append(' ').append(mapper.writeValueAsString(node(3)));
+                return new Message(content.toString(), peasant, king, MessageType.TOPOLOGY_CHANGED);
+            case WALK:
+                for (int i = 1; i < RING_SIZE; i++) content.append(mapper.writeValueAsString(node(i))).append(' ');
+                return new Message(content.toString().trim(), king, peasant, MessageType.CONFIRM);
+            case TOPOLOGY:
+                content.append(RING_SIZE);
+                for (TopologyInfo info : topology()) content.append(' ').append(mapper.writeValueAsString(info));
+                return new Message(content.toString(), peasant, king, MessageType.CONFIRM);
+            case USER_CHANGE:
+                return new UserStateChange(peasant.getName(), ConnectionState.online, king.getName(), node(2).getName(),
+                        RING_SIZE, true);
+            default:
+                return new UserStateChange(peasant.getName(), ConnectionState.online, topology(), RING_SIZE, true);
+        }
+    }
+
+    /**
+     * Encodes a value of this shape the way a link sends it.
+     *
+     * @param value The value.
+     * @return The encoded value.
+     * @throws IOException if the value cannot be serialized.
+     */
+    public byte[] encode(Object value) throws IOException
+    {
+        return type == Message.class ? CommunicationLink.encode((Message) value) : mapper.writeValueAsBytes(value);
+    }
+
+    /**
+     * Decodes a value of this shape the way a link receives it.
+     *
+     * @param encoded The encoded value.
+     * @return The value.
+     * @throws IOException if the value cannot be deserialized.
+     */
+    public Object decode(byte[] encoded) throws IOException
+    {
+        return mapper.readValue(encoded, type);
+    }
+
+    /**
+     * Decodes the values encoded in the content of a decoded message, as the handlers of the nodes do.
+     *
+     * @param value The decoded value.
+     * @return The values from the content, empty if there are none.
+     * @throws IOException if a value cannot be deserialized.
+     */
+    public List<Object> unpack(Object value) throws IOException
+    {
+        List<Object> values = new ArrayList<>();
+        if (nestedType == null) return values;
+        for (String part : ((Message) value).getContent().split(" "))
+        {
+            if (part.startsWith("{")) values.add(mapper.readValue(part, nestedType));
+        }
+        return values;
+    }
+
+    /**
+     * Gets the info about a node of the ring.
+     *
+     * @param index The index of the node.
+     * @return The info about the node.
+     */
+    private static NodeInfo node(int index)
+    {
+        return new NodeInfo("192.168.1." + (index % 250 + 1), 5000 + index, "user-" + index);
+    }
+
+    /**
+     * Gets the topology of the ring, where the king is the node 0.
+     *
+     * @return The topology infos of all the nodes.
+     */
+    private static List<TopologyInfo> topology()
+    {
+        List<TopologyInfo> infos = new ArrayList<>();
+        for (int i = 0; i < RING_SIZE; i++)
+        {
+            infos.add(new TopologyInfo(node(i).getName(), node((i + 1) % RING_SIZE).getName(),
+                    node((i + RING_SIZE - 1) % RING_SIZE).getName()));
+        }
+        return infos;
+    }
+
+    /**
+     * Gets a chat text.
+     *
+     * @param length The length of the text.
+     * @return The text.
+     */
+    private static String text(int length)
+    {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < length) builder.append("Hello, everyone in the ring! ");
+        return builder.substring(0, length);
+    }
+
+    /**
+     * Prints the encoded size of every shape.
+     *
+     * @param args Not used.
+     * @throws IOException if a value cannot be serialized.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        System.out.printf("%-20s %10s %10s%n", "shape", "bytes", "escapes");
+        for (MessageShape shape : values())
+        {
+            byte[] encoded = shape.encode(shape.create());
+            String json = new String(encoded, StandardCharsets.UTF_8);
+            long escapes = json.chars().filter(c -> c == '\\').count();
+            System.out.printf("%-20s %10d %10d%n", shape.name().toLowerCase(), encoded.length, escapes);
+        }
+    }
+}
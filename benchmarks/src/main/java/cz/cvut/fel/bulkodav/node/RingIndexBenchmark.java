@@ -0,0 +1,114 @@
+package cz.cvut.fel.bulkodav.node;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link RingIndexBenchmark} class measures the operations of the {@link RingIndex} the king runs on every
+ * change of the ring: filling the index with all the members, finding the neighbours of a member, finding a member
+ * by its name and the churn of a member which leaves and joins again at the end of the ring. The ids are random,
+ * so the table of the index sees the same collisions as with the hashes of real nodes. The members are visited
+ * in a random order, so the lookups do not walk the table in the order it was filled.
+ * <p>
+ * Usage: {@code java -jar target/benchmarks.jar RingIndexBenchmark}. That the index agrees with a plain list model
+ * is checked by the tests of the chat.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RingIndexBenchmark
+{
+    @Param({"100", "1000", "10000"})
+    public int size;
+
+    private int[] ids;
+    private String[] names;
+    private int[] order;
+    private RingIndex<Integer> index;
+    private int next;
+
+    /**
+     * Creates the ids and the names of the members and fills the index with them.
+     */
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(42);
+        ids = new int[size];
+        names = new String[size];
+        order = new int[size];
+        Set<Integer> used = new HashSet<>();
+        for (int i = 0; i < size; i++)
+        {
+            int id;
+            do id = random.nextInt(); while (!used.add(id));
+            ids[i] = id;
+            names[i] = "node-" + i;
+            order[i] = i;
+        }
+        for (int i = size - 1; i > 0; i--)
+        {
+            int other = random.nextInt(i + 1);
+            int member = order[i];
+            order[i] = order[other];
+            order[other] = member;
+        }
+        index = fill();
+    }
+
+    @Benchmark
+    public RingIndex<Integer> fill()
+    {
+        RingIndex<Integer> index = new RingIndex<>();
+        for (int i = 0; i < size; i++) index.add(ids[i], names[i], i);
+        return index;
+    }
+
+    @Benchmark
+    public void neighbours(Blackhole blackhole)
+    {
+        int member = nextMember();
+        blackhole.consume(index.getBefore(ids[member]));
+        blackhole.consume(index.getAfter(ids[member]));
+    }
+
+    @Benchmark
+    public Integer name()
+    {
+        return index.getByName(names[nextMember()]);
+    }
+
+    @Benchmark
+    public boolean churn()
+    {
+        // the member joins again at the end of the ring, so the size of the index stays the same
+        int member = nextMember();
+        index.remove(ids[member]);
+        return index.add(ids[member], names[member], member);
+    }
+
+    private int nextMember()
+    {
+        int member = order[next];
+        next = next == size - 1 ? 0 : next + 1;
+        return member;
+    }
+}
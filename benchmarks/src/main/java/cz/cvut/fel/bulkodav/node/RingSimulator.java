@@ -0,0 +1,590 @@
+package cz.cvut.fel.bulkodav.node;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.cvut.fel.bulkodav.communication.CommunicationLink;
+import cz.cvut.fel.bulkodav.communication.Message;
+import cz.cvut.fel.bulkodav.communication.MessageType;
+import cz.cvut.fel.bulkodav.communication.NodeInfo;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.Random;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static cz.cvut.fel.bulkodav.communication.MessageType.CONFIRM;
+import static cz.cvut.fel.bulkodav.communication.MessageType.KING_IS_DEAD;
+import static cz.cvut.fel.bulkodav.communication.MessageType.LONG_LIVE_THE_KING;
+import static cz.cvut.fel.bulkodav.communication.MessageType.TOPOLOGY_CHANGED;
+
+/**
+ * The {@link RingSimulator} class runs the repair of the ring after the death of the king on virtual time, so that
+ * the election and the promotion of the new king can be tried on big rings in seconds, without sockets and without
+ * sleeping. The messages are delivered by a {@link VirtualNetwork} on a LAN with the latency of 1 ms, so a run
+ * with the same seed always gives the same result.
+ * <p>
+ * The nodes run the real {@link ElectionStrategy} of the configured election and compete by the real election keys,
+ * the bytes are counted by the real {@link CommunicationLink#encode(Message)}. The real {@link Node} blocks its
+ * handlers on the answers of the other nodes, runs its own threads and reads the wall clock, so it cannot run
+ * on virtual time. Only what the real nodes cannot show in a test on one machine is modelled here: the walk
+ * of the new king around a big ring, after {@link Node#promoteToKing()}, and the joining of the ends of the ring.
+ * The takeover of the deputy, the joining and leaving of the nodes and the chat are left to the real nodes,
+ * e.g. in the {@link LoadGenerator}. The model also leaves out:
+ * <ul>
+ * <li>A node watches its king. A crashed king is suspected two to three heartbeat intervals after its last
+ * heartbeat, the heartbeats themselves are not simulated.</li>
+ * <li>A request to a crashed node fails after the request timeout, a message to it is lost.</li>
+ * </ul>
+ * <p>
+ * The scenarios are the crash of the king, and the crash of the king together with 1 % of the nodes. For every
+ * scenario and size of the ring it reports the number of messages, their bytes, the virtual time of the last change
+ * of the ring, the longest promotion of a new king, the number of kings, the nodes in the ring of the king out
+ * of the living nodes and whether all the nodes agree on the ring.
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar cz.cvut.fel.bulkodav.node.RingSimulator [seed] [sizes...]}, the settings
+ * are read from the "ringchat." system properties as for a real node.
+ */
+public class RingSimulator
+{
+    private final static double LATENCY = 1;
+    private final static double JITTER = 0.5;
+    private final static int SUSPICION_INTERVALS = 2;
+    private final static Logger logger = Logger.getLogger(RingSimulator.class);
+
+    /**
+     * The failures the ring is repaired from.
+     */
+    enum Scenario
+    {
+        ELECTION, SIMULTANEOUS_CRASHES
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final NodeSettings settings;
+    private final VirtualNetwork network;
+    private final Random random;
+    private final Map<String, SimulatedNode> nodes = new LinkedHashMap<>();
+    private int nextNumber;
+    private double lastChange;
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.RingSimulator} class, which builds a settled ring.
+     *
+     * @param settings The settings of the nodes.
+     * @param size     The number of the nodes in the ring, with the king.
+     * @param seed     The seed of the scheduler.
+     */
+    private RingSimulator(NodeSettings settings, int size, long seed)
+    {
+        this.settings = settings;
+        network = new VirtualNetwork(seed, LATENCY, JITTER);
+        random = network.getRandom();
+        SimulatedNode king = createNode();
+        king.members = new ArrayList<>();
+        for (int i = 1; i < size; i++)
+        {
+            SimulatedNode node = createNode();
+            node.kingName = king.name;
+            king.members.add(node);
+        }
+        // the left node of a node is the next one in the ring of the king, the right node the previous one
+        List<SimulatedNode> members = king.members;
+        for (int i = 0; i < members.size(); i++)
+        {
+            members.get(i).left = i == members.size() - 1 ? king.name : members.get(i + 1).name;
+            members.get(i).right = i == 0 ? king.name : members.get(i - 1).name;
+        }
+    }
+
+    /**
+     * Creates a new node, which is not in the ring yet.
+     *
+     * @return The new node.
+     */
+    private SimulatedNode createNode()
+    {
+        int number = nextNumber++;
+        SimulatedNode node = new SimulatedNode(new NodeInfo("10.0." + (number >> 8) + "." + (number & 255), 5000,
+                "node-" + number));
+        nodes.put(node.name, node);
+        return node;
+    }
+
+    /**
+     * Plans the failures of the scenario.
+     *
+     * @param scenario The scenario.
+     */
+    private void plan(Scenario scenario)
+    {
+        SimulatedNode king = findKing();
+        List<SimulatedNode> victims = new ArrayList<>();
+        if (scenario == Scenario.SIMULTANEOUS_CRASHES)
+        {
+            victims.addAll(king.members);
+            Collections.shuffle(victims, random);
+            victims = victims.subList(0, Math.min(victims.size(), Math.max(2, nodes.size() / 100)));
+        }
+        victims.add(king);
+        for (SimulatedNode victim : victims) network.schedule(0, () -> crash(victim));
+    }
+
+    /**
+     * Notes that the ring changed now.
+     */
+    private void changed()
+    {
+        lastChange = network.getTime();
+    }
+
+    /**
+     * Finds a living king which is not taking over the ring.
+     *
+     * @return The living king, or null if there is none.
+     */
+    private SimulatedNode findKing()
+    {
+        for (SimulatedNode node : nodes.values())
+        {
+            if (node.alive && node.isKing() && !node.promoting) return node;
+        }
+        return null;
+    }
+
+    /**
+     * Crashes a node. The nodes which have it as their king suspect it after a few heartbeat intervals.
+     *
+     * @param node The node.
+     */
+    private void crash(SimulatedNode node)
+    {
+        if (!node.alive) return;
+        node.alive = false;
+        changed();
+        long interval = settings.getHeartbeatInterval();
+        for (SimulatedNode watcher : nodes.values())
+        {
+            if (!watcher.alive || !node.name.equals(watcher.kingName)) continue;
+            double delay = interval <= 0 ? LATENCY : (SUSPICION_INTERVALS + random.nextDouble()) * interval;
+            network.schedule(delay, () -> watcher.handleKingDeath(node));
+        }
+    }
+
+    /**
+     * Sends a message from a node to another node.
+     *
+     * @param sender        The node which sends the message.
+     * @param recipientName The name of the node the message is sent to.
+     * @param type          The type of the message.
+     * @param content       The content of the message.
+     * @param delivery      What the recipient does with the message.
+     */
+    private void sendMessage(SimulatedNode sender, String recipientName, MessageType type, String content,
+                             Consumer<SimulatedNode> delivery)
+    {
+        sendMessage(sender, recipientName, type, content, delivery, null);
+    }
+
+    /**
+     * Sends a message from a node to another node.
+     *
+     * @param sender        The node which sends the message.
+     * @param recipientName The name of the node the message is sent to.
+     * @param type          The type of the message.
+     * @param content       The content of the message.
+     * @param delivery      What the recipient does with the message.
+     * @param lost          What happens when the recipient is dead, or null if nothing happens.
+     */
+    private void sendMessage(SimulatedNode sender, String recipientName, MessageType type, String content,
+                             Consumer<SimulatedNode> delivery, Runnable lost)
+    {
+        SimulatedNode recipient = recipientName == null ? null : nodes.get(recipientName);
+        byte[] encoded = CommunicationLink.encode(new Message(content, recipient == null ? null : recipient.info,
+                sender.info, type));
+        network.send(sender.name, String.valueOf(recipientName), encoded == null ? 0 : encoded.length, () ->
+        {
+            if (recipient != null && recipient.alive) delivery.accept(recipient);
+            else if (lost != null) lost.run();
+        });
+    }
+
+    /**
+     * Sends a request from a node to another node, which answers it by a confirmation.
+     *
+     * @param sender        The node which sends the request.
+     * @param recipientName The name of the node the request is sent to.
+     * @param type          The type of the request.
+     * @param content       The content of the request.
+     * @param handler       What the recipient does with the request, it is given the way to answer.
+     * @param answered      What the sender does with the content of the answer.
+     * @param failed        What the sender does when the recipient is dead.
+     */
+    private void request(SimulatedNode sender, String recipientName, MessageType type, String content,
+                         BiConsumer<SimulatedNode, Consumer<String>> handler, Consumer<String> answered,
+                         Runnable failed)
+    {
+        Runnable failure = () -> network.schedule(settings.getRequestTimeout(), () ->
+        {
+            if (sender.alive) failed.run();
+        });
+        sendMessage(sender, recipientName, type, content, node -> handler.accept(node, answer ->
+        {
+            if (!node.alive) failure.run();
+            else sendMessage(node, sender.name, CONFIRM, answer, ignored -> answered.accept(answer));
+        }), failure);
+    }
+
+    /**
+     * Gets whether the living nodes agree on one ring, i.e. there is one king, every living node is in its ring,
+     * knows it as the king and has the same neighbours as the king thinks.
+     *
+     * @return true if the ring is repaired, otherwise false.
+     */
+    private boolean isRepaired()
+    {
+        SimulatedNode king = findKing();
+        if (king == null || countKings() != 1 || king.members.size() != countAlive() - 1) return false;
+        List<SimulatedNode> members = king.members;
+        for (int i = 0; i < members.size(); i++)
+        {
+            SimulatedNode node = members.get(i);
+            String left = i == members.size() - 1 ? king.name : members.get(i + 1).name;
+            String right = i == 0 ? king.name : members.get(i - 1).name;
+            if (!node.alive || !king.name.equals(node.kingName) || !left.equals(node.left) || !right.equals(node.right))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts the living kings.
+     *
+     * @return The number of the living kings.
+     */
+    private int countKings()
+    {
+        return (int) nodes.values().stream().filter(node -> node.alive && node.isKing()).count();
+    }
+
+    /**
+     * Finds the longest promotion of a new king, see {@link PromotionTimes}.
+     *
+     * @return The virtual milliseconds of the longest promotion, or a dash if no node was promoted.
+     */
+    private String getLongestPromotion()
+    {
+        OptionalDouble longest = nodes.values().stream().filter(node -> node.promotionTimes != null)
+                .mapToDouble(node -> node.promotionTimes.getTotal()).max();
+        return longest.isPresent() ? String.format("%.0f", longest.getAsDouble()) : "-";
+    }
+
+    /**
+     * Counts the living nodes.
+     *
+     * @return The number of the living nodes.
+     */
+    private int countAlive()
+    {
+        return (int) nodes.values().stream().filter(node -> node.alive).count();
+    }
+
+    /**
+     * Runs the simulator.
+     *
+     * @param args The seed followed by the sizes of the rings, 42 and 10 100 1000 by default.
+     */
+    public static void main(String[] args)
+    {
+        Logger.getRootLogger().setLevel(Level.OFF);
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42;
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) sizes.add(Integer.parseInt(args[i]));
+        if (sizes.isEmpty()) Collections.addAll(sizes, 10, 100, 1000);
+
+        System.out.printf("%-20s %6s %10s %8s %12s %12s %11s %6s %11s %9s %8s%n", "scenario", "nodes", "messages",
+                "per node", "bytes", "converged ms", "promoted ms", "kings", "ring", "repaired", "wall ms");
+        for (Scenario scenario : Scenario.values())
+        {
+            for (int size : sizes)
+            {
+                long start = System.nanoTime();
+                NodeSettings settings = new NodeSettings();
+                RingSimulator simulator = new RingSimulator(settings, size, seed);
+                simulator.plan(scenario);
+                simulator.network.run();
+                long wall = (System.nanoTime() - start) / 1_000_000;
+                SimulatedNode king = simulator.findKing();
+                System.out.printf("%-20s %6d %10d %8.1f %12d %12.0f %11s %6d %11s %9s %8d%n",
+                        scenario.name().toLowerCase().replace('_', '-'), size, simulator.network.getMessages(),
+                        (double) simulator.network.getMessages() / size, simulator.network.getBytes(),
+                        simulator.lastChange, simulator.getLongestPromotion(), simulator.countKings(),
+                        (king == null ? 0 : king.members.size() + 1) + "/" + simulator.countAlive(),
+                        simulator.isRepaired() ? "yes" : "no", wall);
+            }
+        }
+    }
+
+    /**
+     * The {@link SimulatedNode} class represents a node of the simulated ring, a peasant or a king.
+     */
+    private class SimulatedNode implements ElectionRing
+    {
+        private final String name;
+        private final NodeInfo info;
+        private final String id;
+        private final int capacity;
+        private final ElectionStrategy election;
+        private boolean alive = true;
+        // the view of a peasant
+        private String kingName;
+        private String left;
+        private String right;
+        // the node won the election, but it does not have the whole ring yet
+        private boolean promoting;
+        private double promotionStart;
+        private PromotionTimes promotionTimes;
+        // the view of a king
+        private List<SimulatedNode> members;
+
+        private SimulatedNode(NodeInfo info)
+        {
+            this.name = info.getName();
+            this.info = info;
+            String id;
+            try
+            {
+                id = mapper.writeValueAsString(info);
+            } catch (JsonProcessingException e)
+            {
+                logger.info("Error serializing identification.", e);
+                id = name;
+            }
+            this.id = id;
+            // the capacity of a node with 1 to 8 cores and up to 16 GiB of free heap
+            this.capacity = 100 * (1 + random.nextInt(8)) + random.nextInt(1025);
+            this.election = settings.getElection().create(this);
+        }
+
+        private boolean isKing()
+        {
+            return members != null;
+        }
+
+        @Override
+        public NodeInfo getMyInfo()
+        {
+            return info;
+        }
+
+        @Override
+        public long getMyKey()
+        {
+            return settings.isCapacityElection() ? NodeCapacity.electionKey(capacity, info.hashCode()) : info.hashCode();
+        }
+
+        @Override
+        public String getKingsName()
+        {
+            return kingName;
+        }
+
+        @Override
+        public String getLeftName()
+        {
+            return left;
+        }
+
+        @Override
+        public String getNextHop(String previousHopName)
+        {
+            return previousHopName.equals(left) ? right : left;
+        }
+
+        @Override
+        public void send(String hopName, String content)
+        {
+            sendMessage(this, hopName, KING_IS_DEAD, content, hop -> hop.handleElection(content, name));
+        }
+
+        @Override
+        public void win()
+        {
+            promote();
+        }
+
+        /**
+         * Handles the death of the king, as {@link Node#handleNodeDeath(NodeInfo)} without a deputy.
+         *
+         * @param deadKing The dead king.
+         */
+        private void handleKingDeath(SimulatedNode deadKing)
+        {
+            if (alive && deadKing.name.equals(kingName) && !promoting) election.startElection();
+        }
+
+        /**
+         * Handles a message of the election, as {@link PeasantLogic#handleElection(String, String, boolean)}.
+         *
+         * @param content    The content of the message.
+         * @param senderName The name of the node which sent the message.
+         */
+        private void handleElection(String content, String senderName)
+        {
+            if (isKing() || promoting) return;
+            election.handleElectionMessage(content, senderName, false);
+        }
+
+        /**
+         * Makes the winner of the election the king, as {@link Node#promoteToKing()}. Both sides of the ring
+         * are walked at once up to the place of the dead king, then the links to the nodes are opened in parallel
+         * and the ends of the ring are joined.
+         */
+        private void promote()
+        {
+            promoting = true;
+            promotionStart = network.getTime();
+            changed();
+            String deadKingName = kingName;
+            List<SimulatedNode> leftNodes = new ArrayList<>();
+            List<SimulatedNode> rightNodes = new ArrayList<>();
+            int[] walks = {2};
+            Runnable walked = () ->
+            {
+                if (--walks[0] > 0) return;
+                List<SimulatedNode> ring = new ArrayList<>(leftNodes);
+                List<SimulatedNode> reversedRight = new ArrayList<>(rightNodes);
+                Collections.reverse(reversedRight);
+                ring.addAll(reversedRight);
+                double connecting = Math.ceil(ring.size() / (double) Math.max(1, settings.getPromotionConnections()));
+                network.schedule(connecting * 2 * LATENCY, () ->
+                {
+                    if (alive) crown(ring, leftNodes, rightNodes, deadKingName);
+                });
+            };
+            walk(left, deadKingName, leftNodes, walked);
+            walk(right, deadKingName, rightNodes, walked);
+        }
+
+        /**
+         * Walks one side of the ring by a {@link MessageType#LONG_LIVE_THE_KING} message, which every node
+         * passes on to its other neighbour and answers with the ids of the nodes behind it.
+         *
+         * @param startName    The name of the neighbour on the side.
+         * @param deadKingName The name of the dead king, where the walk ends.
+         * @param path         The nodes of the side, which are added as the message goes.
+         * @param walked       What is done when the side is walked.
+         */
+        private void walk(String startName, String deadKingName, List<SimulatedNode> path, Runnable walked)
+        {
+            if (startName.equals(deadKingName))
+            {
+                walked.run();
+                return;
+            }
+            request(this, startName, LONG_LIVE_THE_KING, "",
+                    (hop, answer) -> hop.longLiveTheKing(this, name, "", path, answer), answer -> walked.run(), () ->
+                    {
+                        path.clear();
+                        walked.run();
+                    });
+        }
+
+        /**
+         * Handles a {@link MessageType#LONG_LIVE_THE_KING} message, as {@link PeasantHandler}.
+         *
+         * @param newKing    The new king.
+         * @param senderName The name of the neighbour which sent the message.
+         * @param content    The ids of the nodes the message went through.
+         * @param path       The nodes the message went through.
+         * @param answer     The way to answer the message.
+         */
+        private void longLiveTheKing(SimulatedNode newKing, String senderName, String content, List<SimulatedNode> path,
+                                     Consumer<String> answer)
+        {
+            if (isKing() || promoting || path.contains(this))
+            {
+                answer.accept(content.trim());
+                return;
+            }
+            String deadKingName = kingName;
+            String nextHop = getNextHop(senderName);
+            String messageContent = content + id + " ";
+            path.add(this);
+            kingName = newKing.name;
+            election.electionIsOver();
+            changed();
+            if (!nextHop.equals(deadKingName) && !senderName.equals(nextHop))
+            {
+                request(this, nextHop, LONG_LIVE_THE_KING, messageContent,
+                        (hop, hopAnswer) -> hop.longLiveTheKing(newKing, name, messageContent, path, hopAnswer),
+                        answer, () -> answer.accept(messageContent.trim()));
+            } else answer.accept(messageContent.trim());
+        }
+
+        /**
+         * Ends the promotion, the walked nodes become the ring of the new king and the ends of the ring are joined.
+         *
+         * @param ring         The nodes from the left node of the king to its right node.
+         * @param leftNodes    The nodes of the left side.
+         * @param rightNodes   The nodes of the right side.
+         * @param deadKingName The name of the dead king.
+         */
+        private void crown(List<SimulatedNode> ring, List<SimulatedNode> leftNodes, List<SimulatedNode> rightNodes,
+                           String deadKingName)
+        {
+            promoting = false;
+            members = new ArrayList<>();
+            for (SimulatedNode node : ring)
+            {
+                if (node.alive) members.add(node);
+            }
+            SimulatedNode deadKing = nodes.get(deadKingName);
+            SimulatedNode leftMost = leftNodes.isEmpty() ? null : leftNodes.get(leftNodes.size() - 1);
+            SimulatedNode rightMost = rightNodes.isEmpty() ? null : rightNodes.get(rightNodes.size() - 1);
+            if (leftMost != null) joinNeighbours(deadKing, leftMost, rightMost == null ? this : rightMost);
+            if (rightMost != null) joinNeighbours(deadKing, rightMost, leftMost == null ? this : leftMost);
+            // the ends are joined and the old links closed without waiting, so only the mapping takes time
+            promotionTimes = new PromotionTimes(members.size(), network.getTime() - promotionStart, 0, 0, 0);
+            changed();
+        }
+
+        /**
+         * Tells a neighbour of the old king who its new neighbour is, instead of the old king.
+         *
+         * @param oldKing    The old king.
+         * @param neighbour  The neighbour of the old king.
+         * @param substitute The new neighbour.
+         */
+        private void joinNeighbours(SimulatedNode oldKing, SimulatedNode neighbour, SimulatedNode substitute)
+        {
+            if (neighbour == this || !members.contains(neighbour)) return;
+            sendMessage(this, neighbour.name, TOPOLOGY_CHANGED, oldKing.id + " " + substitute.id,
+                    node -> node.replaceNeighbour(oldKing.name, substitute.name));
+        }
+
+        /**
+         * Replaces a neighbour after its death.
+         *
+         * @param deadName       The name of the dead neighbour.
+         * @param substituteName The name of the new neighbour.
+         */
+        private void replaceNeighbour(String deadName, String substituteName)
+        {
+            if (deadName.equals(left)) left = substituteName;
+            else if (deadName.equals(right)) right = substituteName;
+            changed();
+        }
+
+        private void changed()
+        {
+            RingSimulator.this.changed();
+        }
+    }
+}
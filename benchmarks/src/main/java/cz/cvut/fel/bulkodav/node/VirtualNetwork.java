@@ -0,0 +1,148 @@
+package cz.cvut.fel.bulkodav.node;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * The {@link VirtualNetwork} class delivers the messages of simulated nodes on virtual time. The events are run
+ * by a seeded scheduler in the order of their time, and of their planning when the time is the same, so a simulation
+ * with the same seed always runs the same way. A message takes the latency with a random jitter and the messages
+ * from one node to another keep their order, as they would over a connection.
+ */
+class VirtualNetwork
+{
+    private final Random random;
+    private final double latency;
+    private final double jitter;
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final Map<String, Double> lastDeliveries = new HashMap<>();
+    private double time;
+    private long sequence;
+    private long messages;
+    private long bytes;
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.VirtualNetwork} class.
+     *
+     * @param seed    The seed of the scheduler.
+     * @param latency The time a message takes.
+     * @param jitter  The biggest random time a message takes on top of the latency.
+     */
+    VirtualNetwork(long seed, double latency, double jitter)
+    {
+        this.random = new Random(seed);
+        this.latency = latency;
+        this.jitter = jitter;
+    }
+
+    /**
+     * Gets the random generator of the simulation, so that all the random choices depend on the seed only.
+     *
+     * @return The random generator.
+     */
+    Random getRandom()
+    {
+        return random;
+    }
+
+    /**
+     * Gets the virtual time of the event which is being run.
+     *
+     * @return The virtual time.
+     */
+    double getTime()
+    {
+        return time;
+    }
+
+    /**
+     * Gets the number of the messages sent so far.
+     *
+     * @return The number of the messages.
+     */
+    long getMessages()
+    {
+        return messages;
+    }
+
+    /**
+     * Gets the number of the bytes of the messages sent so far.
+     *
+     * @return The number of the bytes.
+     */
+    long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Plans an event.
+     *
+     * @param delay  The virtual time from now until the event.
+     * @param action The event.
+     */
+    void schedule(double delay, Runnable action)
+    {
+        events.add(new Event(time + Math.max(0, delay), sequence++, action));
+    }
+
+    /**
+     * Sends a message. The message is counted even if it is lost.
+     *
+     * @param senderName    The name of the node which sends the message.
+     * @param recipientName The name of the node the message is sent to.
+     * @param size          The number of the bytes of the message.
+     * @param delivery      The delivery of the message, or null if the message is lost.
+     */
+    void send(String senderName, String recipientName, long size, Runnable delivery)
+    {
+        messages++;
+        bytes += size;
+        if (delivery == null) return;
+        String connection = senderName + '\n' + recipientName;
+        // the messages between two nodes keep their order
+        double deliveryTime = Math.max(time + latency + jitter * random.nextDouble(),
+                lastDeliveries.getOrDefault(connection, 0.0));
+        lastDeliveries.put(connection, deliveryTime);
+        events.add(new Event(deliveryTime, sequence++, delivery));
+    }
+
+    /**
+     * Runs the events until no event is left.
+     */
+    void run()
+    {
+        while (!events.isEmpty())
+        {
+            Event event = events.poll();
+            time = event.time;
+            event.action.run();
+        }
+    }
+
+    /**
+     * The {@link Event} class represents an event planned on virtual time.
+     */
+    private static class Event implements Comparable<Event>
+    {
+        private final double time;
+        private final long sequence;
+        private final Runnable action;
+
+        private Event(double time, long sequence, Runnable action)
+        {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other)
+        {
+            int byTime = Double.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -1,69 +1,166 @@
 package cz.cvut.fel.bulkodav.communication;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import cz.cvut.fel.bulkodav.exceptions.CommunicationException;
 import cz.cvut.fel.bulkodav.node.UserStateChange;
 import org.apache.log4j.Logger;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The {@link CommunicationLink} class is a communication abstraction for a node.
- * It handles the TCP communication with {@link Message}s and serialization of data which can be sent throught messages.
+ * It handles the communication with {@link Message}s and serialization of data which can be sent throught messages.
+ * The socket itself is a {@link Connection} served by a {@link Transport}, which puts
+ * the received {@link Frame}s into the inbox of the link. The reading methods of the link take the frames from the inbox.
+ * A connection which uses frames may carry a second link in the opposite direction, see {@link #openReverseLink(NodeInfo)}.
+ * <p>
+ * A link starts by sending json lines, which every node understands. It switches to length prefixed frames
+ * once the other node is known to understand them, which is agreed on during the greetings, or when the other node
+ * sends a frame itself.
+ * <p>
+ * A framed link may also open a {@link SendWindow}. The messages sent through the window are numbered and the other
+ * node acknowledges them in batches by {@link #acknowledge(long)}, so the sender does not wait for each of them.
+ * <p>
+ * A request sent by {@link #request(Message, long)} is numbered and the other node sends the number back with
+ * the response by {@link #reply(Message, Message)}, so any number of requests may wait for their responses at once.
+ * The number goes in the header of the frame, not in the message, so a message serialized by its sender
+ * can be forwarded to any node.
+ * A node which does not use frames does not understand the numbers, it answers the requests one by one,
+ * so its responses are paired with the requests by their order.
  */
 public class CommunicationLink
 {
     private NodeInfo info;
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
-    private ObjectMapper mapper;
+    private final Connection connection;
+    private final boolean server;
+    private volatile MessageListener listener;
+    private final BlockingQueue<Frame> inbox = new LinkedBlockingQueue<>();
+    private final AtomicBoolean dispatching = new AtomicBoolean();
+    private volatile SendWindow window;
+    private long receivedSequence;
+    private long acknowledgedSequence;
+    private int acknowledgementBatch = 16;
+    private final Map<Long, CompletableFuture<Message>> requests = new ConcurrentHashMap<>();
+    private final Queue<CompletableFuture<Message>> unnumberedRequests = new ConcurrentLinkedQueue<>();
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private volatile boolean ended;
+    private final static ObjectMapper mapper = new ObjectMapper();
+    private final static Frame END_OF_STREAM = new Frame(Frame.LINE, new byte[0]);
+    private final static TypeReference<List<NodeInfo>> RELAY_TYPE = new TypeReference<List<NodeInfo>>() {};
     private final static Logger logger = Logger.getLogger(CommunicationLink.class);
 
+    /**
+     * The token appended to the content of a {@link MessageType#GREETINGS} message by a node,
+     * which offers or accepts the communication with frames.
+     */
+    public final static String FRAMES_TOKEN = "frames";
+
     /**
      * The constructor for {@link CommunicationLink} class.
      *
-     * @param nodeInfo The info about the node which contains connection parameters.
+     * @param nodeInfo  The info about the node which contains connection parameters.
+     * @param transport The transport which serves the socket of the link.
      * @throws IOException if the connection fails.
      */
-    public CommunicationLink(NodeInfo nodeInfo) throws IOException
+    public CommunicationLink(NodeInfo nodeInfo, Transport transport) throws IOException
     {
-        socket = new Socket();
-        socket.connect(new InetSocketAddress(nodeInfo.getAddress(), nodeInfo.getPort()), 3000);
         info = nodeInfo;
-        out = new PrintWriter(socket.getOutputStream(), true);
-        in = new BufferedReader(
-                new InputStreamReader(socket.getInputStream()));
-        mapper = new ObjectMapper();
+        server = false;
+        connection = transport.connect(nodeInfo);
+        connection.attachClient(this);
+        connection.start();
     }
 
     /**
-     * The constructor for {@link CommunicationLink} class.
+     * The constructor for {@link CommunicationLink} class. The link serves the requests of the node which opened
+     * the connection, the messages are handed to the listener set by {@link #setListener(MessageListener)}.
      *
-     * @param socket  The socket through which the communication happens.
-     * @param address The address of the node to which this connection link points to.
+     * @param channel   The socket channel through which the communication happens.
+     * @param address   The address of the node to which this connection link points to.
+     * @param transport The transport which serves the socket of the link.
+     * @throws IOException if the socket cannot be served.
      */
-    public CommunicationLink(Socket socket, String address)
+    public CommunicationLink(SocketChannel channel, String address, SelectorTransport transport) throws IOException
     {
-        try
-        {
-            this.socket = socket;
-            this.info = new NodeInfo(address, 0, "");
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(
-                    new InputStreamReader(socket.getInputStream()));
-            mapper = new ObjectMapper();
-        } catch (IOException e)
-        {
-            logger.info(e);
-        }
+        this(transport.newConnection(new SocketWire(channel, transport)), address);
+    }
+
+    /**
+     * The constructor for {@link CommunicationLink} class. The link serves the requests of the node which opened
+     * the connection, the messages are handed to the listener set by {@link #setListener(MessageListener)}.
+     *
+     * @param connection The connection accepted by a {@link TransportServer}.
+     * @param address    The address of the node to which this connection link points to.
+     */
+    CommunicationLink(Connection connection, String address)
+    {
+        info = new NodeInfo(address, 0, "");
+        server = true;
+        this.connection = connection;
+        connection.attachServer(this);
+        connection.start();
+    }
+
+    /**
+     * The constructor for {@link CommunicationLink} class. The link shares the connection with another link.
+     *
+     * @param connection The connection which carries the link.
+     * @param nodeInfo   The info about the node at the other end of the connection.
+     * @param server     true if the link serves the requests of the other node, false if it sends the requests.
+     */
+    CommunicationLink(Connection connection, NodeInfo nodeInfo, boolean server)
+    {
+        this.info = nodeInfo;
+        this.connection = connection;
+        this.server = server;
+    }
+
+    /**
+     * Opens a link to the node through the connection of this link, so that one connection serves the requests
+     * of both nodes. It is possible only if the connection uses frames and this link serves the requests
+     * of the other node.
+     *
+     * @param nodeInfo The info about the node at the other end of the connection.
+     * @return The new link, or null if the connection cannot carry it.
+     */
+    public CommunicationLink openReverseLink(NodeInfo nodeInfo)
+    {
+        if (!server || !connection.isFramed()) return null;
+        CommunicationLink link = new CommunicationLink(connection, nodeInfo, false);
+        return connection.attachClient(link) ? link : null;
+    }
+
+    /**
+     * Sets the listener which handles the messages received through the link.
+     * The messages received before the listener was set are handed to it too.
+     *
+     * @param listener The listener.
+     */
+    public void setListener(MessageListener listener)
+    {
+        this.listener = listener;
+        if (!inbox.isEmpty() && dispatching.compareAndSet(false, true))
+            connection.getTransport().dispatch(this::dispatchReceivedMessages);
     }
 
     /**
@@ -75,23 +172,226 @@ public class CommunicationLink
     {
         try
         {
-            String json = mapper.writeValueAsString(message);
-            out.println(json);
+            write(Frame.MESSAGE, mapper.writeValueAsBytes(message));
         } catch (JsonProcessingException e)
         {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Sends a request to the node without waiting for the response. The response does not get into the inbox
+     * of the link, it completes the returned future instead.
+     *
+     * @param message The request.
+     * @param timeout The time in milliseconds after which the future fails if the response did not come.
+     * @return The future completed by the response. It fails with a {@link TimeoutException} if the response does
+     * not come in time, or with a {@link CommunicationException} if the link ends before it comes.
+     */
+    public CompletableFuture<Message> request(Message message, long timeout)
+    {
+        CompletableFuture<Message> response = new CompletableFuture<>();
+        if (isFramed())
+        {
+            long requestId = nextRequestId.incrementAndGet();
+            message.setRequestId(requestId);
+            requests.put(requestId, response);
+            response.whenComplete((result, error) -> requests.remove(requestId));
+        } else
+        {
+            // a timed out request stays in the queue, so that its late response is not paired with the next one
+            unnumberedRequests.add(response);
+        }
+
+        ScheduledFuture<?> timer = connection.getTransport().schedule(() -> response.completeExceptionally(
+                new TimeoutException("Node " + info.getName() + " did not respond in " + timeout + " ms.")), timeout);
+        if (timer != null) response.whenComplete((result, error) -> timer.cancel(false));
+        if (ended) failRequests();
+        sendRequestMessage(message);
+        return response;
+    }
+
+    /**
+     * Sends the response to a request of the other node.
+     *
+     * @param request  The request received through this link.
+     * @param response The response to the request.
+     */
+    public void reply(Message request, Message response)
+    {
+        response.setRequestId(request.getRequestId());
+        sendRequestMessage(response);
+    }
+
+    /**
+     * Sends a request or the response to it, with the id of the request in the header of the frame.
+     *
+     * @param message The request or the response.
+     */
+    private void sendRequestMessage(Message message)
+    {
+        if (message.getRequestId() == 0)
+        {
+            sendMessage(message);
+            return;
+        }
+        byte[] encoded = encode(message);
+        if (encoded != null) connection.write(mark(Frame.REQUEST_MESSAGE), message.getRequestId(), encoded);
+    }
+
+    /**
+     * Sends an already serialized message to the node with which this connection link is open.
+     * The same serialized message can be sent through any number of links.
+     *
+     * @param encoded The message serialized by {@link #encode(Message)}, or received through a link.
+     */
+    public void sendEncoded(byte[] encoded)
+    {
+        write(Frame.MESSAGE, encoded);
+    }
+
+    /**
+     * Sends an already serialized message through the send window of the link, without waiting for the other node.
+     *
+     * @param encoded The message serialized by {@link #encode(Message)}, or received through a link.
+     * @return false if the link is closed or the other node does not keep up with the messages, otherwise true.
+     */
+    public boolean sendSequenced(byte[] encoded)
+    {
+        return sendSequenced(encoded, 0);
+    }
+
+    /**
+     * Sends an already serialized chat message through the send window of the link, without waiting for the other
+     * node. The order of the message goes in the header of the frame, so the message serialized by its sender
+     * can be sent on with any order. A link without a send window sends the message without the order.
+     *
+     * @param encoded The message serialized by {@link #encode(Message)}, or received through a link.
+     * @param order   The order of the chat message, or 0 if it has none.
+     * @return false if the link is closed or the other node does not keep up with the messages, otherwise true.
+     */
+    public boolean sendSequenced(byte[] encoded, long order)
+    {
+        SendWindow window = this.window;
+        if (window == null)
+        {
+            sendEncoded(encoded);
+        } else if (!window.offer(encoded, order))
+        {
+            return false;
+        }
+        return connection.isOpen();
+    }
+
+    /**
+     * Acknowledges that the sequenced message was delivered. The acknowledgements are sent in batches,
+     * a batch is sent when it is full, or when there are no more received messages to be handled.
+     *
+     * @param sequence The sequence number of the delivered message.
+     */
+    public void acknowledge(long sequence)
+    {
+        if (sequence > receivedSequence) receivedSequence = sequence;
+        if (receivedSequence - acknowledgedSequence >= acknowledgementBatch) sendAcknowledgement();
+    }
+
+    /**
+     * Opens a send window, so that the messages sent by {@link #sendSequenced(byte[])} are numbered and
+     * acknowledged in batches. The other node has to understand frames.
+     *
+     * @param capacity   The number of messages which may wait for the acknowledgement at once.
+     * @param maxWaiting The number of messages which may wait for a free place in the window.
+     */
+    public void openSendWindow(int capacity, int maxWaiting)
+    {
+        window = new SendWindow(capacity, maxWaiting, (sequence, order, encoded) ->
+                connection.write(Frame.header(mark(Frame.SEQUENCED_MESSAGE), sequence, order, encoded.length),
+                        ByteBuffer.wrap(encoded)));
+    }
+
+    /**
+     * Gets whether the link has a send window.
+     *
+     * @return true if the messages are numbered and acknowledged in batches, otherwise false.
+     */
+    public boolean hasSendWindow()
+    {
+        return window != null;
+    }
+
+    /**
+     * Gets whether the other node has not acknowledged the sent messages for too long.
+     *
+     * @param timeout The time in milliseconds after which the node is considered stalled.
+     * @return true if the node is stalled, otherwise false.
+     */
+    public boolean isStalled(long timeout)
+    {
+        SendWindow window = this.window;
+        return window != null && window.isStalled(timeout);
+    }
+
+    /**
+     * Sets how many delivered messages may be acknowledged by one acknowledgement.
+     *
+     * @param acknowledgementBatch The size of the batch.
+     */
+    public void setAcknowledgementBatch(int acknowledgementBatch)
+    {
+        this.acknowledgementBatch = Math.max(1, acknowledgementBatch);
+    }
+
+    /**
+     * Serializes the message, so that it can be sent through many links while being serialized only once.
+     *
+     * @param message The message to be serialized.
+     * @return The serialized message, or null if the serialization failed.
+     */
+    public static byte[] encode(Message message)
+    {
+        try
+        {
+            return mapper.writeValueAsBytes(message);
+        } catch (JsonProcessingException e)
+        {
+            logger.info("Error serializing message.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the content of a serialized message, which was left out when the message was received.
+     *
+     * @param encoded The serialized message.
+     * @return The content of the message, or null if it has none or it cannot be read.
+     */
+    static String decodeContent(byte[] encoded)
+    {
+        try (JsonParser parser = mapper.getFactory().createParser(encoded))
+        {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (field.equals("content")) return parser.getValueAsString();
+                parser.skipChildren();
+            }
+        } catch (IOException e)
+        {
+            logger.info("Error deserializing the content of a message.", e);
+        }
+        return null;
+    }
+
     /**
      * Gets whether the message is ready to be read.
      *
      * @return true if there is a new message, otherwise returns false.
-     * @throws IOException if the communication was closed.
      */
-    public boolean readyToRead() throws IOException
+    public boolean readyToRead()
     {
-        return in.ready();
+        return !inbox.isEmpty();
     }
 
     /**
@@ -104,15 +404,7 @@ public class CommunicationLink
      */
     public Message readMessage() throws IOException
     {
-        try
-        {
-            String message = in.readLine();
-            if (message == null) throw new CommunicationException(this.info.hashCode());
-            return mapper.readValue(message, Message.class);
-        } catch (SocketException e)
-        {
-            throw new CommunicationException(this.info.hashCode());
-        }
+        return decode(readFrame());
     }
 
     /**
@@ -124,8 +416,7 @@ public class CommunicationLink
     {
         try
         {
-            String json = mapper.writeValueAsString(topologyInfo);
-            out.println(json);
+            write(Frame.TOPOLOGY_INFO, mapper.writeValueAsBytes(topologyInfo));
         } catch (JsonProcessingException e)
         {
             logger.info("Node " + this.info.hashCode(), e);
@@ -142,14 +433,10 @@ public class CommunicationLink
      */
     public TopologyInfo readTopologyInfo() throws CommunicationException
     {
+        Frame frame = readFrame();
         try
         {
-            String message = in.readLine();
-            if (message == null) throw new CommunicationException(this.info.hashCode());
-            return mapper.readValue(message, TopologyInfo.class);
-        } catch (SocketException e)
-        {
-            throw new CommunicationException(this.info.hashCode());
+            return mapper.readValue(frame.getBody(), TopologyInfo.class);
         } catch (IOException e)
         {
             logger.info("Node " + this.info.hashCode(), e);
@@ -162,16 +449,10 @@ public class CommunicationLink
      */
     public void close()
     {
-        try
-        {
-            out.close();
-            in.close();
-            socket.close();
-            mapper = null;
-        } catch (IOException e)
-        {
-            logger.info("Error closing communicator", e);
-        }
+        connection.close(this);
+        inbox.add(END_OF_STREAM);
+        ended = true;
+        failRequests();
     }
 
     /**
@@ -257,8 +538,26 @@ public class CommunicationLink
     {
         try
         {
-            String json = mapper.writeValueAsString(userStateChange);
-            out.println(json);
+            write(Frame.USER_CHANGE, mapper.writeValueAsBytes(userStateChange));
+        } catch (JsonProcessingException e)
+        {
+            logger.info("Node " + this.info.hashCode(), e);
+        }
+    }
+
+    /**
+     * Announces a change of a user by a message and sends the change right after it, in one write, so that
+     * the other node reads the change right after the announcement without confirming it first.
+     *
+     * @param announcement    the message which announces the change.
+     * @param userStateChange the user state change to be sent.
+     */
+    public void sendUserChange(Message announcement, UserStateChange userStateChange)
+    {
+        try
+        {
+            connection.write(mark(Frame.MESSAGE), mapper.writeValueAsBytes(announcement), mark(Frame.USER_CHANGE),
+                    mapper.writeValueAsBytes(userStateChange));
         } catch (JsonProcessingException e)
         {
             logger.info("Node " + this.info.hashCode(), e);
@@ -275,14 +574,10 @@ public class CommunicationLink
      */
     public UserStateChange readUserChange() throws CommunicationException
     {
+        Frame frame = readFrame();
         try
         {
-            String message = in.readLine();
-            if (message == null) throw new CommunicationException(this.info.hashCode());
-            return mapper.readValue(message, UserStateChange.class);
-        } catch (SocketException e)
-        {
-            throw new CommunicationException(this.info.hashCode());
+            return mapper.readValue(frame.getBody(), UserStateChange.class);
         } catch (IOException e)
         {
             logger.info("Node " + this.info.hashCode(), e);
@@ -349,4 +644,338 @@ public class CommunicationLink
     {
         return this.info.getAddress();
     }
+
+    /**
+     * Gets whether the link sends length prefixed frames instead of json lines.
+     *
+     * @return true if the link sends frames, otherwise false.
+     */
+    public boolean isFramed()
+    {
+        return connection.isFramed();
+    }
+
+    /**
+     * Sets whether the link sends length prefixed frames instead of json lines.
+     * Should be set only when the other node is known to understand frames.
+     *
+     * @param framed true if the link should send frames.
+     */
+    public void setFramed(boolean framed)
+    {
+        connection.setFramed(framed);
+    }
+
+    /**
+     * Asks the other node for a heartbeat, so that its death can be suspected before a message to it fails.
+     * Only a node which understands frames is asked, the others are never suspected.
+     *
+     * @param interval The interval in milliseconds in which the heartbeats are asked for.
+     */
+    public void sendHeartbeat(long interval)
+    {
+        connection.ping(interval);
+    }
+
+    /**
+     * Gets how much the other node is suspected to be dead. The suspicion grows with the time since the last
+     * heartbeat of the node, compared to the usual intervals between its heartbeats.
+     *
+     * @return The phi accrual suspicion level, 0 if the node is not suspected.
+     */
+    public double getSuspicion()
+    {
+        return connection.getSuspicion();
+    }
+
+    /**
+     * Gets the smoothed round trip time to the other node, measured by the heartbeats.
+     *
+     * @return The round trip time in milliseconds, or -1 if it was not measured yet.
+     */
+    public double getRoundTripTime()
+    {
+        return connection.getRoundTripTime();
+    }
+
+    /**
+     * Gets whether the link serves the requests of the other node.
+     *
+     * @return true if the link serves the requests of the other node, false if it sends the requests.
+     */
+    boolean isServer()
+    {
+        return server;
+    }
+
+    /**
+     * Ends the communication through the link after the connection was closed or broken, or the other node ended it.
+     * Wakes up the threads waiting for a message and tells the listener.
+     */
+    void connectionLost()
+    {
+        received(END_OF_STREAM);
+    }
+
+    /**
+     * Puts a received frame into the inbox and lets the listener handle it if there is one.
+     *
+     * @param frame The received frame.
+     */
+    void received(Frame frame)
+    {
+        if (frame.getType() == Frame.ACK)
+        {
+            SendWindow window = this.window;
+            if (window != null) window.acknowledge(frame.getSequence());
+            return;
+        }
+        if (frame == END_OF_STREAM)
+        {
+            ended = true;
+            failRequests();
+        } else if (!server && (frame.getRequestId() != 0 || !requests.isEmpty() || !unnumberedRequests.isEmpty()) &&
+                completeRequest(frame))
+        {
+            return;
+        }
+        inbox.add(frame);
+        if (listener != null && dispatching.compareAndSet(false, true))
+            connection.getTransport().dispatch(this::dispatchReceivedMessages);
+    }
+
+    /**
+     * Hands the messages from the inbox to the listener one by one until the inbox is empty.
+     * The listener may read further frames of the conversation from the inbox by itself.
+     */
+    private void dispatchReceivedMessages()
+    {
+        while (true)
+        {
+            Frame frame = inbox.poll();
+            if (frame == null)
+            {
+                sendAcknowledgement();
+                dispatching.set(false);
+                if (inbox.isEmpty() || !dispatching.compareAndSet(false, true)) return;
+                continue;
+            }
+            if (frame == END_OF_STREAM)
+            {
+                listener.connectionClosed(this);
+                return;
+            }
+
+            try
+            {
+                listener.messageReceived(decode(frame), this);
+            } catch (IOException e)
+            {
+                logger.info("Node " + this.info.hashCode() + " sent a malformed message.", e);
+            } catch (RuntimeException e)
+            {
+                logger.error("Node " + this.info.hashCode() + " - error handling a message.", e);
+            }
+        }
+    }
+
+    /**
+     * Deserializes the message from the frame and keeps the serialized form in the message for forwarding.
+     * The order and the id of the request carried by the header of the frame take the place of those in the message.
+     * Only the fields the message is routed by are read, the content is skipped and read when it is first needed,
+     * so the king does not read the text of every chat message it only forwards.
+     *
+     * @param frame The frame with the message.
+     * @return The received message.
+     * @throws IOException if the frame does not contain a message.
+     */
+    private Message decode(Frame frame) throws IOException
+    {
+        Message message = readRouting(frame.getBody());
+        message.setEncoded(frame.getBody());
+        message.setSequence(frame.getSequence());
+        if (frame.getOrder() != 0) message.setOrder(frame.getOrder());
+        if (frame.getRequestId() != 0) message.setRequestId(frame.getRequestId());
+        return message;
+    }
+
+    /**
+     * Reads the fields of a serialized message except for its content.
+     *
+     * @param encoded The serialized message.
+     * @return The message, with the content to be read from the serialized message if it has any.
+     * @throws IOException if the bytes are not a message.
+     */
+    private static Message readRouting(byte[] encoded) throws IOException
+    {
+        try (JsonParser parser = mapper.getFactory().createParser(encoded))
+        {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw JsonMappingException.from(parser, "A message has to be a json object.");
+            MessageType messageType = null;
+            NodeInfo recipient = null;
+            NodeInfo sender = null;
+            long order = 0;
+            List<NodeInfo> relay = null;
+            boolean hasContent = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field)
+                {
+                    case "content":
+                        // the string is skipped by the next token without being decoded
+                        hasContent = value != JsonToken.VALUE_NULL;
+                        break;
+                    case "messageType":
+                        messageType = mapper.readValue(parser, MessageType.class);
+                        break;
+                    case "recipient":
+                        recipient = mapper.readValue(parser, NodeInfo.class);
+                        break;
+                    case "sender":
+                        sender = mapper.readValue(parser, NodeInfo.class);
+                        break;
+                    case "order":
+                        order = parser.getValueAsLong();
+                        break;
+                    case "relay":
+                        relay = mapper.readValue(parser, RELAY_TYPE);
+                        break;
+                    default:
+                        // as the full deserialization, e.g. a user change is not taken for a message
+                        throw JsonMappingException.from(parser, "Unrecognized field \"" + field + "\" of a message.");
+                }
+            }
+            Message message = new Message(null, recipient, sender, messageType, order, relay);
+            if (hasContent) message.setContentSource(encoded);
+            return message;
+        }
+    }
+
+    /**
+     * Completes the request the received frame responds to.
+     *
+     * @param frame The received frame.
+     * @return true if the frame was a response to a request sent by {@link #request(Message, long)}, otherwise false.
+     */
+    private boolean completeRequest(Frame frame)
+    {
+        if (frame.getRequestId() != 0)
+        {
+            // the response to a request which already timed out is dropped
+            CompletableFuture<Message> request = requests.remove(frame.getRequestId());
+            if (request == null) return true;
+            try
+            {
+                request.complete(decode(frame));
+            } catch (IOException e)
+            {
+                request.completeExceptionally(e);
+            }
+            return true;
+        }
+        if (frame.getType() != Frame.MESSAGE && frame.getType() != Frame.LINE) return false;
+        Message response;
+        try
+        {
+            response = decode(frame);
+        } catch (IOException e)
+        {
+            return false;
+        }
+
+        CompletableFuture<Message> request = unnumberedRequests.poll();
+        if (request == null) return false;
+        request.complete(response);
+        return true;
+    }
+
+    /**
+     * Fails all the requests which wait for a response, because the link ended.
+     */
+    private void failRequests()
+    {
+        CommunicationException exception = new CommunicationException(this.info.hashCode());
+        requests.values().forEach(request -> request.completeExceptionally(exception));
+        CompletableFuture<Message> request;
+        while ((request = unnumberedRequests.poll()) != null)
+        {
+            request.completeExceptionally(exception);
+        }
+    }
+
+    /**
+     * Acknowledges all the delivered sequenced messages which were not acknowledged yet.
+     */
+    private void sendAcknowledgement()
+    {
+        if (receivedSequence <= acknowledgedSequence) return;
+        acknowledgedSequence = receivedSequence;
+        connection.write(Frame.header(mark(Frame.ACK), acknowledgedSequence));
+    }
+
+    /**
+     * Takes the next received frame from the inbox. Blocks the thread until there is one.
+     *
+     * @return The received frame.
+     * @throws CommunicationException if the communication ended before the frame was received.
+     */
+    private Frame readFrame() throws CommunicationException
+    {
+        try
+        {
+            Frame[] taken = new Frame[1];
+            // a pool of threads shared by many nodes starts another thread while this one waits, see LoopbackNetwork
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker()
+            {
+                @Override
+                public boolean block() throws InterruptedException
+                {
+                    if (taken[0] == null) taken[0] = inbox.take();
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable()
+                {
+                    return taken[0] != null || (taken[0] = inbox.poll()) != null;
+                }
+            });
+            Frame frame = taken[0];
+            if (frame == END_OF_STREAM)
+            {
+                inbox.add(END_OF_STREAM);
+                throw new CommunicationException(this.info.hashCode());
+            }
+            return frame;
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CommunicationException(this.info.hashCode());
+        }
+    }
+
+    /**
+     * Writes the serialized data into the connection, either as a frame or as a json line.
+     *
+     * @param type The type of the frame.
+     * @param body The serialized data.
+     */
+    private void write(byte type, byte[] body)
+    {
+        connection.write(mark(type), body);
+    }
+
+    /**
+     * Marks the type of a frame written by a server link, so that the other node hands it to its client link.
+     *
+     * @param type The type of the frame.
+     * @return The type with the mark of the link.
+     */
+    private byte mark(byte type)
+    {
+        return server ? (byte) (type | Frame.SERVER) : type;
+    }
 }
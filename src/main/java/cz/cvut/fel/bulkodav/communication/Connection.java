@@ -0,0 +1,474 @@
+package cz.cvut.fel.bulkodav.communication;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The {@link Connection} class is one connection with another node. Its bytes are carried by a {@link Wire},
+ * a TCP socket served by an {@link EventLoop}, or a wire in memory to a node in the same JVM.
+ * <p>
+ * A connection carries up to two {@link CommunicationLink}s. Through the client link this node sends its requests
+ * and receives the replies, through the server link the other node sends its requests and this node replies.
+ * The frames written by a server link are marked by {@link Frame#SERVER}, so the receiving node knows to which of its
+ * links they belong. This way one connection serves both directions between two nodes which understand frames.
+ * Json lines are not marked, so a connection which does not use frames carries only the link it was opened for.
+ */
+class Connection
+{
+    private final Wire wire;
+    private final Transport transport;
+    private ByteBuffer pending;
+    private volatile boolean framed;
+    private CommunicationLink client;
+    private CommunicationLink server;
+    private boolean clientClosed;
+    private boolean serverClosed;
+    private PhiAccrualDetector detector;
+    private long pingSent;
+    private double roundTripTime = -1;
+    private final static byte[] LINE_END = {'\n'};
+    private final static Logger logger = Logger.getLogger(Connection.class);
+
+    /**
+     * The constructor for {@link Connection} class.
+     *
+     * @param wire      The wire which carries the bytes of the connection.
+     * @param transport The transport which serves the connection.
+     */
+    Connection(Wire wire, Transport transport)
+    {
+        this.wire = wire;
+        this.transport = transport;
+    }
+
+    /**
+     * Starts reading from the wire. The link the connection was opened for has to be attached first,
+     * so that no received data is lost.
+     */
+    void start()
+    {
+        wire.start(this);
+    }
+
+    /**
+     * Attaches the link through which this node sends its requests.
+     *
+     * @param link The client link.
+     * @return false if the connection already has a client link, or it is closed, otherwise true.
+     */
+    synchronized boolean attachClient(CommunicationLink link)
+    {
+        if (client != null || clientClosed || !wire.isOpen()) return false;
+        client = link;
+        return true;
+    }
+
+    /**
+     * Attaches the link through which the other node sends its requests.
+     *
+     * @param link The server link.
+     */
+    synchronized void attachServer(CommunicationLink link)
+    {
+        server = link;
+    }
+
+    /**
+     * Gets the name of the node at the other end of the connection.
+     *
+     * @return The name of the other node, empty if it is not known yet.
+     */
+    synchronized String getRemoteName()
+    {
+        CommunicationLink link = client != null ? client : server;
+        return link == null ? "" : link.getName();
+    }
+
+    /**
+     * Gets whether the connection is open.
+     *
+     * @return true if the connection is open, otherwise false.
+     */
+    boolean isOpen()
+    {
+        return wire.isOpen();
+    }
+
+    /**
+     * Gets whether the connection sends length prefixed frames instead of json lines.
+     *
+     * @return true if the connection sends frames, otherwise false.
+     */
+    boolean isFramed()
+    {
+        return framed;
+    }
+
+    /**
+     * Sets whether the connection sends length prefixed frames instead of json lines.
+     *
+     * @param framed true if the connection should send frames.
+     */
+    void setFramed(boolean framed)
+    {
+        this.framed = framed;
+    }
+
+    /**
+     * Closes one of the links of the connection. The other node is told that the link ended, the wire itself
+     * is closed once none of the links uses it.
+     *
+     * @param link The link to be closed.
+     */
+    void close(CommunicationLink link)
+    {
+        boolean inUse;
+        synchronized (this)
+        {
+            if (link == client)
+            {
+                if (clientClosed) return;
+                clientClosed = true;
+            } else if (link == server)
+            {
+                if (serverClosed) return;
+                serverClosed = true;
+            }
+            inUse = (client != null && !clientClosed) || (server != null && !serverClosed);
+        }
+        if (inUse && framed && wire.isOpen())
+        {
+            write(Frame.header(link.isServer() ? (byte) (Frame.END | Frame.SERVER) : Frame.END, 0));
+        } else
+        {
+            closeChannel();
+        }
+    }
+
+    /**
+     * Asks the other node for a heartbeat. Only a node which understands frames can be asked.
+     *
+     * @param interval The interval in milliseconds in which the heartbeats are asked for.
+     */
+    void ping(long interval)
+    {
+        if (!framed || !wire.isOpen()) return;
+        synchronized (this)
+        {
+            if (detector == null) detector = new PhiAccrualDetector(interval);
+            if (pingSent == 0) pingSent = System.currentTimeMillis();
+        }
+        write(Frame.header(Frame.PING, 0));
+    }
+
+    /**
+     * Gets how much the other node is suspected to be dead, based on the heartbeats it sent.
+     *
+     * @return The phi of the other node, or 0 if no heartbeat was asked for yet.
+     */
+    synchronized double getSuspicion()
+    {
+        return detector == null ? 0 : detector.phi(System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the smoothed time between a request for a heartbeat and the heartbeat.
+     *
+     * @return The round trip time in milliseconds, or -1 if no heartbeat came yet.
+     */
+    synchronized double getRoundTripTime()
+    {
+        return roundTripTime;
+    }
+
+    /**
+     * Writes the serialized data into the wire, either as a frame or as a json line.
+     *
+     * @param type The type of the frame, including the {@link Frame#SERVER} mark.
+     * @param body The serialized data.
+     */
+    void write(byte type, byte[] body)
+    {
+        if (framed)
+        {
+            write(Frame.header(type, body.length), ByteBuffer.wrap(body));
+        } else
+        {
+            write(ByteBuffer.wrap(body), ByteBuffer.wrap(LINE_END));
+        }
+    }
+
+    /**
+     * Writes a request or the response to it into the wire. A frame carries the id of the request in its header,
+     * a json line goes without it, the requests and responses of a node which does not use frames are paired
+     * by their order.
+     *
+     * @param type      The type of the frame, including the {@link Frame#SERVER} mark.
+     * @param requestId The id of the request.
+     * @param body      The serialized message.
+     */
+    void write(byte type, long requestId, byte[] body)
+    {
+        if (framed)
+        {
+            write(Frame.requestHeader(type, requestId, body.length), ByteBuffer.wrap(body));
+        } else
+        {
+            write(ByteBuffer.wrap(body), ByteBuffer.wrap(LINE_END));
+        }
+    }
+
+    /**
+     * Writes two pieces of serialized data into the wire at once, so that nothing written by another thread
+     * gets between them.
+     *
+     * @param type       The type of the first frame, including the {@link Frame#SERVER} mark.
+     * @param body       The first serialized data.
+     * @param secondType The type of the second frame, including the {@link Frame#SERVER} mark.
+     * @param secondBody The second serialized data.
+     */
+    void write(byte type, byte[] body, byte secondType, byte[] secondBody)
+    {
+        if (framed)
+        {
+            write(Frame.header(type, body.length), ByteBuffer.wrap(body),
+                    Frame.header(secondType, secondBody.length), ByteBuffer.wrap(secondBody));
+        } else
+        {
+            write(ByteBuffer.wrap(body), ByteBuffer.wrap(LINE_END), ByteBuffer.wrap(secondBody),
+                    ByteBuffer.wrap(LINE_END));
+        }
+    }
+
+    /**
+     * Writes the buffers into the wire.
+     *
+     * @param buffers The buffers to be written.
+     */
+    void write(ByteBuffer... buffers)
+    {
+        long bytes = 0;
+        for (ByteBuffer buffer : buffers)
+        {
+            bytes += buffer.remaining();
+        }
+        transport.sent(bytes);
+        try
+        {
+            wire.write(buffers);
+        } catch (IOException e)
+        {
+            logger.info("Failed to send a message.", e);
+            connectionLost();
+        }
+    }
+
+    /**
+     * Gets the transport which serves the connection.
+     *
+     * @return the transport which serves the connection.
+     */
+    Transport getTransport()
+    {
+        return transport;
+    }
+
+    /**
+     * Called by the wire when some data was received.
+     * Cuts the data into frames and hands them to the links. An incomplete frame waits for the rest of its data.
+     *
+     * @param buffer The received data. The wire may reuse the buffer once the method returns.
+     */
+    void onReceived(ByteBuffer buffer)
+    {
+        try
+        {
+            if (pending == null)
+            {
+                decode(buffer);
+                if (!buffer.hasRemaining()) return;
+                pending = ByteBuffer.allocate(Math.max(4096, 2 * buffer.remaining()));
+            } else if (pending.remaining() < buffer.remaining())
+            {
+                ByteBuffer bigger = ByteBuffer.allocate(2 * (pending.position() + buffer.remaining()));
+                pending.flip();
+                pending = bigger.put(pending);
+            }
+            pending.put(buffer);
+            pending.flip();
+            decode(pending);
+            pending = pending.hasRemaining() ? pending.compact() : null;
+        } catch (IOException e)
+        {
+            logger.error(e.getMessage());
+            pending = null;
+            connectionLost();
+        }
+    }
+
+    /**
+     * Ends the communication after the wire was closed or broken. Ends both links of the connection.
+     */
+    void connectionLost()
+    {
+        closeChannel();
+        CommunicationLink client;
+        CommunicationLink server;
+        synchronized (this)
+        {
+            client = this.client;
+            server = this.server;
+        }
+        if (client != null) client.connectionLost();
+        if (server != null) server.connectionLost();
+    }
+
+    /**
+     * Takes all the complete frames and json lines out of the buffer. Leaves the incomplete rest in the buffer.
+     *
+     * @param buffer The buffer with the received data.
+     * @throws IOException if the data is not a frame nor a json line.
+     */
+    private void decode(ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            int start = buffer.position();
+            if (buffer.get(start) != 0)
+            {
+                int end = start;
+                while (end < buffer.limit() && buffer.get(end) != '\n') end++;
+                if (end == buffer.limit()) return;
+
+                byte[] line = new byte[end - start];
+                buffer.get(line);
+                buffer.get();
+                received(new Frame(Frame.LINE, line), false);
+                continue;
+            }
+
+            if (buffer.remaining() < Frame.HEADER_LENGTH) return;
+            int length = buffer.getInt(start);
+            if (length > Frame.MAX_BODY_LENGTH) throw new IOException("Frame of " + length + " bytes is too big.");
+            if (buffer.remaining() < Frame.HEADER_LENGTH + length) return;
+
+            byte mark = buffer.get(start + 4);
+            byte type = (byte) (mark & ~Frame.SERVER);
+            buffer.position(start + Frame.HEADER_LENGTH);
+            framed = true;
+            if (type == Frame.PING || type == Frame.PONG)
+            {
+                buffer.position(start + Frame.HEADER_LENGTH + length);
+                if (type == Frame.PING) write(Frame.header(Frame.PONG, 0));
+                else heartbeat();
+                continue;
+            }
+            long sequence = 0;
+            long order = 0;
+            long requestId = 0;
+            if (Frame.isSequenced(type))
+            {
+                if (length < Frame.SEQUENCE_LENGTH) throw new IOException("Sequenced frame without a sequence.");
+                sequence = buffer.getLong();
+                length -= Frame.SEQUENCE_LENGTH;
+            }
+            if (type == Frame.SEQUENCED_MESSAGE)
+            {
+                if (length < Frame.ORDER_LENGTH) throw new IOException("Sequenced message without an order.");
+                order = buffer.getLong();
+                length -= Frame.ORDER_LENGTH;
+            }
+            if (type == Frame.REQUEST_MESSAGE)
+            {
+                if (length < Frame.REQUEST_ID_LENGTH) throw new IOException("Request without an id.");
+                requestId = buffer.getLong();
+                length -= Frame.REQUEST_ID_LENGTH;
+            }
+            byte[] body = new byte[length];
+            buffer.get(body);
+            received(new Frame(type, sequence, order, requestId, body), (mark & Frame.SERVER) != 0);
+        }
+    }
+
+    /**
+     * Hands the received frame to the link it belongs to. The frames written by the server link of the other node
+     * belong to the client link of this node and vice versa. A json line belongs to the only link of the connection.
+     * The server link is created when the other node sends its first request through a connection opened by this node.
+     *
+     * @param frame      The received frame.
+     * @param fromServer true if the frame was written by the server link of the other node.
+     */
+    private void received(Frame frame, boolean fromServer)
+    {
+        CommunicationLink link;
+        boolean accepted = false;
+        synchronized (this)
+        {
+            if (frame.getType() == Frame.LINE)
+            {
+                link = client != null ? client : server;
+            } else if (fromServer)
+            {
+                link = clientClosed ? null : client;
+            } else
+            {
+                if (server == null && !serverClosed && client != null)
+                {
+                    server = new CommunicationLink(this, new NodeInfo(client.getAddress(), client.getPort(),
+                            client.getName()), true);
+                    accepted = true;
+                }
+                link = serverClosed ? null : server;
+            }
+            if (link != null && frame.getType() == Frame.END)
+            {
+                if (link == client) clientClosed = true;
+                else serverClosed = true;
+            }
+        }
+        if (link == null) return;
+        if (accepted) transport.accepted(link);
+
+        if (frame.getType() == Frame.END)
+        {
+            link.connectionLost();
+            synchronized (this)
+            {
+                if ((client != null && !clientClosed) || (server != null && !serverClosed)) return;
+            }
+            closeChannel();
+        } else
+        {
+            link.received(frame);
+        }
+    }
+
+    /**
+     * Records a heartbeat of the other node, and the round trip time if it answers the oldest unanswered request.
+     */
+    private synchronized void heartbeat()
+    {
+        long now = System.currentTimeMillis();
+        if (detector != null) detector.heartbeat(now);
+        if (pingSent == 0) return;
+        long sample = now - pingSent;
+        roundTripTime = roundTripTime < 0 ? sample : 0.875 * roundTripTime + 0.125 * sample;
+        pingSent = 0;
+    }
+
+    /**
+     * Closes the wire.
+     */
+    private void closeChannel()
+    {
+        try
+        {
+            wire.close();
+        } catch (IOException e)
+        {
+            logger.info("Error closing communicator", e);
+        }
+    }
+}
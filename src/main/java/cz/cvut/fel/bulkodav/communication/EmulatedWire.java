@@ -0,0 +1,198 @@
+package cz.cvut.fel.bulkodav.communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link EmulatedWire} class is a {@link Wire} whose writes are treated by the {@link LinkProfile} of the link
+ * to the other node. A write waits until the bandwidth sent the writes before it, then for the delay, the jitter
+ * and a stall if it is lost. It is never written before the writes before it, as over TCP. A reset closes the wire,
+ * the other node sees the connection end. The numbers are drawn from the random source of the link,
+ * which is created again when the name of the other node becomes known.
+ */
+class EmulatedWire implements Wire
+{
+    private final Wire wire;
+    private final NetworkEmulator emulator;
+    private final Queue<DelayedWrite> delayed = new ArrayDeque<>();
+    private volatile Connection connection;
+    private volatile boolean closed;
+    private boolean closeWhenWritten;
+    private long busyUntil;
+    private long lastWrite;
+    private String randomName;
+    private Random random;
+
+    /**
+     * The constructor for {@link EmulatedWire} class.
+     *
+     * @param wire     The wire which carries the bytes.
+     * @param emulator The emulator of the node.
+     */
+    EmulatedWire(Wire wire, NetworkEmulator emulator)
+    {
+        this.wire = wire;
+        this.emulator = emulator;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start(Connection connection)
+    {
+        this.connection = connection;
+        wire.start(connection);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The buffers are written later by the emulator, unless the link is perfect and no write waits.
+     */
+    @Override
+    public void write(ByteBuffer... buffers) throws IOException
+    {
+        if (closed) throw new ClosedChannelException();
+        Connection connection = this.connection;
+        String remoteName = connection == null ? "" : connection.getRemoteName();
+        LinkProfile profile = emulator.getProfile(remoteName);
+        long delay;
+        synchronized (this)
+        {
+            if (profile.isPerfect() && delayed.isEmpty())
+            {
+                wire.write(buffers);
+                return;
+            }
+            if (!remoteName.equals(randomName))
+            {
+                randomName = remoteName;
+                random = emulator.createRandom(remoteName);
+            }
+            if (profile.getReset() > 0 && random.nextDouble() < profile.getReset())
+            {
+                closed = true;
+                delayed.clear();
+                wire.close();
+                throw new IOException("Connection reset by the network emulator.");
+            }
+
+            long now = System.nanoTime();
+            long bytes = 0;
+            for (ByteBuffer buffer : buffers)
+            {
+                bytes += buffer.remaining();
+            }
+            busyUntil = Math.max(now, busyUntil);
+            if (profile.getBandwidth() > 0) busyUntil += TimeUnit.SECONDS.toNanos(bytes) / profile.getBandwidth();
+            double millis = profile.getDelay() + profile.getJitter() * random.nextDouble();
+            if (profile.getLoss() > 0 && random.nextDouble() < profile.getLoss()) millis += profile.getStall();
+            lastWrite = Math.max(lastWrite, busyUntil + (long) (millis * 1_000_000));
+            delayed.add(new DelayedWrite(lastWrite, buffers));
+            delay = lastWrite - now;
+        }
+        if (!schedule(delay)) closeQuietly();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen()
+    {
+        return !closed && wire.isOpen();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The wire is closed after the writes which wait, as a socket sends its data before it ends.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (this)
+        {
+            closed = true;
+            if (!delayed.isEmpty())
+            {
+                closeWhenWritten = true;
+                return;
+            }
+        }
+        wire.close();
+    }
+
+    /**
+     * Writes the buffers whose time came, in the order they were written.
+     * Runs on the thread of the emulator, which may run the planned writes a little late, but never early.
+     */
+    private synchronized void flush()
+    {
+        long now = System.nanoTime();
+        while (!delayed.isEmpty() && delayed.peek().time <= now)
+        {
+            try
+            {
+                wire.write(delayed.poll().buffers);
+            } catch (IOException e)
+            {
+                delayed.clear();
+                Connection connection = this.connection;
+                if (connection != null) connection.connectionLost();
+            }
+        }
+        if (delayed.isEmpty() && closeWhenWritten) closeQuietly();
+    }
+
+    /**
+     * Plans writing of the buffers on the thread of the emulator.
+     *
+     * @param delay The delay in nanoseconds.
+     * @return false if the emulator is shut down, otherwise true.
+     */
+    private boolean schedule(long delay)
+    {
+        try
+        {
+            emulator.getScheduler().schedule(this::flush, delay, TimeUnit.NANOSECONDS);
+            return true;
+        } catch (RejectedExecutionException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Closes the wire, ignoring errors.
+     */
+    private void closeQuietly()
+    {
+        try
+        {
+            wire.close();
+        } catch (IOException ignored)
+        {
+        }
+    }
+
+    /**
+     * The {@link DelayedWrite} class is a write which waits for its time.
+     */
+    private static class DelayedWrite
+    {
+        private final long time;
+        private final ByteBuffer[] buffers;
+
+        private DelayedWrite(long time, ByteBuffer[] buffers)
+        {
+            this.time = time;
+            this.buffers = buffers;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package cz.cvut.fel.bulkodav.communication;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The {@link EventLoop} class is a thread which waits on a {@link Selector} for the sockets of its
+ * {@link SocketWire}s to become readable or writable. An idle loop is blocked and uses no CPU.
+ */
+class EventLoop extends Thread
+{
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+    private volatile boolean finished;
+    private final static Logger logger = Logger.getLogger(EventLoop.class);
+
+    /**
+     * The constructor for {@link EventLoop} class.
+     *
+     * @param name The name of the thread.
+     * @throws IOException if the selector cannot be opened.
+     */
+    EventLoop(String name) throws IOException
+    {
+        super(name);
+        setDaemon(true);
+        selector = Selector.open();
+    }
+
+    /**
+     * Runs the task on this loop's thread. Everything that touches the selection keys has to go through here.
+     *
+     * @param task The task to be run.
+     */
+    void execute(Runnable task)
+    {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Starts watching the socket of the wire.
+     *
+     * @param wire The wire to be watched.
+     */
+    void register(SocketWire wire)
+    {
+        execute(() ->
+        {
+            try
+            {
+                wire.registered(this, wire.getChannel().register(selector, SelectionKey.OP_READ, wire));
+            } catch (ClosedChannelException e)
+            {
+                wire.connectionLost();
+            }
+        });
+    }
+
+    /**
+     * Waits for the sockets to be ready and lets their links read or write.
+     */
+    @Override
+    public void run()
+    {
+        while (!finished)
+        {
+            try
+            {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null)
+                {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    SocketWire wire = (SocketWire) key.attachment();
+                    if (key.isValid() && key.isReadable()) wire.onReadable(readBuffer);
+                    if (key.isValid() && key.isWritable()) wire.onWritable();
+                }
+            } catch (IOException e)
+            {
+                logger.error("Event loop " + getName() + " failed to select.", e);
+            }
+        }
+        try
+        {
+            selector.close();
+        } catch (IOException e)
+        {
+            logger.info("Error closing selector", e);
+        }
+    }
+
+    /**
+     * Stops the loop.
+     */
+    void end()
+    {
+        finished = true;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,251 @@
+package cz.cvut.fel.bulkodav.communication;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The {@link Frame} class is one unit of data received through a {@link CommunicationLink}.
+ * On the wire a frame is a 4 byte length of the body, a type byte and the body itself. The body of the
+ * {@link #SEQUENCED_MESSAGE} and {@link #ACK} frames starts with an 8 byte sequence number, the body of the
+ * {@link #SEQUENCED_MESSAGE} frames goes on with the 8 byte order of the chat message, 0 if it has none.
+ * The body of the {@link #REQUEST_MESSAGE} frames starts with the 8 byte id of the request.
+ * Nodes which do not use frames send json lines instead, those are represented as frames of the {@link #LINE} type.
+ * The type byte of a frame written by a server link is marked by {@link #SERVER}, see {@link Connection}.
+ */
+class Frame
+{
+    /**
+     * A json line sent by a node which does not use frames.
+     */
+    final static byte LINE = 0;
+    /**
+     * A frame with a {@link Message} in the body.
+     */
+    final static byte MESSAGE = 1;
+    /**
+     * A frame with a {@link TopologyInfo} in the body.
+     */
+    final static byte TOPOLOGY_INFO = 2;
+    /**
+     * A frame with a {@link cz.cvut.fel.bulkodav.node.UserStateChange} in the body.
+     */
+    final static byte USER_CHANGE = 3;
+    /**
+     * A frame with a sequence number, an order and a {@link Message} which is acknowledged by an {@link #ACK}.
+     */
+    final static byte SEQUENCED_MESSAGE = 4;
+    /**
+     * A frame which acknowledges all the sequenced messages up to and including its sequence number.
+     */
+    final static byte ACK = 5;
+    /**
+     * A frame which ends one of the two links carried by a connection, while the other link stays open.
+     */
+    final static byte END = 6;
+    /**
+     * A frame which asks the other node for a {@link #PONG}, it is answered by the connection itself.
+     */
+    final static byte PING = 7;
+    /**
+     * A heartbeat sent in response to a {@link #PING}.
+     */
+    final static byte PONG = 8;
+    /**
+     * A frame with the id of a request and a {@link Message}, which is the request or the response to it,
+     * see {@link CommunicationLink#request(Message, long)}.
+     */
+    final static byte REQUEST_MESSAGE = 9;
+    /**
+     * The mark of the type of a frame written by the link which serves the requests of the other node.
+     */
+    final static byte SERVER = 0x40;
+
+    /**
+     * The length of the header which precedes the body of a frame.
+     */
+    final static int HEADER_LENGTH = 5;
+    /**
+     * The length of the sequence number at the start of the body of the sequenced frames.
+     */
+    final static int SEQUENCE_LENGTH = 8;
+    /**
+     * The length of the order of the chat message which follows the sequence number of a {@link #SEQUENCED_MESSAGE}.
+     */
+    final static int ORDER_LENGTH = 8;
+    /**
+     * The length of the id of the request at the start of the body of a {@link #REQUEST_MESSAGE}.
+     */
+    final static int REQUEST_ID_LENGTH = 8;
+    /**
+     * The biggest allowed body. It also keeps the first byte of every frame zero, so frames can be told apart from
+     * json lines, which always start with a '{'.
+     */
+    final static int MAX_BODY_LENGTH = 16 * 1024 * 1024 - 1;
+
+    private final byte type;
+    private final long sequence;
+    private final long order;
+    private final long requestId;
+    private final byte[] body;
+
+    /**
+     * The constructor for {@link Frame} class.
+     *
+     * @param type The type of the frame.
+     * @param body The body of the frame.
+     */
+    Frame(byte type, byte[] body)
+    {
+        this(type, 0, 0, body);
+    }
+
+    /**
+     * The constructor for {@link Frame} class.
+     *
+     * @param type     The type of the frame.
+     * @param sequence The sequence number of the frame.
+     * @param order    The order of the chat message in the frame, or 0 if it has none.
+     * @param body     The body of the frame without the sequence number and the order.
+     */
+    Frame(byte type, long sequence, long order, byte[] body)
+    {
+        this(type, sequence, order, 0, body);
+    }
+
+    /**
+     * The constructor for {@link Frame} class.
+     *
+     * @param type      The type of the frame.
+     * @param sequence  The sequence number of the frame.
+     * @param order     The order of the chat message in the frame, or 0 if it has none.
+     * @param requestId The id of the request the message in the frame belongs to, or 0 if it has none.
+     * @param body      The body of the frame without the numbers in its header.
+     */
+    Frame(byte type, long sequence, long order, long requestId, byte[] body)
+    {
+        this.type = type;
+        this.sequence = sequence;
+        this.order = order;
+        this.requestId = requestId;
+        this.body = body;
+    }
+
+    /**
+     * Gets whether the frames of the type carry a sequence number.
+     *
+     * @param type The type of the frame.
+     * @return true if the body of the frame starts with a sequence number.
+     */
+    static boolean isSequenced(byte type)
+    {
+        return type == SEQUENCED_MESSAGE || type == ACK;
+    }
+
+    /**
+     * Creates the header of a frame.
+     *
+     * @param type       The type of the frame.
+     * @param bodyLength The length of the body of the frame.
+     * @return The header ready to be written.
+     */
+    static ByteBuffer header(byte type, int bodyLength)
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(bodyLength).put(type).flip();
+        return header;
+    }
+
+    /**
+     * Creates the header of an {@link #ACK} frame, including the sequence number.
+     *
+     * @param type     The type of the frame.
+     * @param sequence The sequence number.
+     * @return The header ready to be written.
+     */
+    static ByteBuffer header(byte type, long sequence)
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + SEQUENCE_LENGTH);
+        header.putInt(SEQUENCE_LENGTH).put(type).putLong(sequence).flip();
+        return header;
+    }
+
+    /**
+     * Creates the header of a {@link #SEQUENCED_MESSAGE} frame, including the sequence number and the order.
+     *
+     * @param type       The type of the frame.
+     * @param sequence   The sequence number.
+     * @param order      The order of the chat message, or 0 if it has none.
+     * @param bodyLength The length of the body which follows the order.
+     * @return The header ready to be written.
+     */
+    static ByteBuffer header(byte type, long sequence, long order, int bodyLength)
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + SEQUENCE_LENGTH + ORDER_LENGTH);
+        header.putInt(SEQUENCE_LENGTH + ORDER_LENGTH + bodyLength).put(type).putLong(sequence).putLong(order).flip();
+        return header;
+    }
+
+    /**
+     * Creates the header of a {@link #REQUEST_MESSAGE} frame, including the id of the request.
+     *
+     * @param type       The type of the frame.
+     * @param requestId  The id of the request.
+     * @param bodyLength The length of the body which follows the id.
+     * @return The header ready to be written.
+     */
+    static ByteBuffer requestHeader(byte type, long requestId, int bodyLength)
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + REQUEST_ID_LENGTH);
+        header.putInt(REQUEST_ID_LENGTH + bodyLength).put(type).putLong(requestId).flip();
+        return header;
+    }
+
+    /**
+     * Gets the type of the frame.
+     *
+     * @return The type of the frame.
+     */
+    byte getType()
+    {
+        return type;
+    }
+
+    /**
+     * Gets the sequence number of the frame.
+     *
+     * @return The sequence number, or 0 if the frame is not sequenced.
+     */
+    long getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * Gets the order of the chat message in the frame, assigned by the king.
+     *
+     * @return The order, or 0 if the frame carries no chat message with an order.
+     */
+    long getOrder()
+    {
+        return order;
+    }
+
+    /**
+     * Gets the id of the request the message in the frame belongs to.
+     *
+     * @return The id of the request, or 0 if the frame is not a {@link #REQUEST_MESSAGE}.
+     */
+    long getRequestId()
+    {
+        return requestId;
+    }
+
+    /**
+     * Gets the body of the frame.
+     *
+     * @return The body of the frame.
+     */
+    byte[] getBody()
+    {
+        return body;
+    }
+}
@@ -0,0 +1,15 @@
+package cz.cvut.fel.bulkodav.communication;
+
+/**
+ * The {@link LinkAcceptor} interface is notified when another node starts sending its requests through a connection
+ * opened by this node, see {@link CommunicationLink#openReverseLink(NodeInfo)}.
+ */
+public interface LinkAcceptor
+{
+    /**
+     * Handles the link through which the other node sends its requests.
+     *
+     * @param link The accepted link, which has no listener yet.
+     */
+    void accepted(CommunicationLink link);
+}
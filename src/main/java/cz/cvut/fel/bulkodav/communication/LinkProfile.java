@@ -0,0 +1,166 @@
+package cz.cvut.fel.bulkodav.communication;
+
+import java.io.IOException;
+
+/**
+ * The {@link LinkProfile} class describes how an emulated link treats the bytes written into it.
+ * The bytes wait for the delay and a random jitter, and for the time the bandwidth needs to send them.
+ * A write is lost with the loss probability, which stalls it as a retransmission over TCP would.
+ * A write resets the connection with the reset probability.
+ */
+class LinkProfile
+{
+    final static LinkProfile NONE = new LinkProfile(0, 0, 0, 0, 200, 0);
+
+    private final long delay;
+    private final long jitter;
+    private final long bandwidth;
+    private final double loss;
+    private final long stall;
+    private final double reset;
+
+    /**
+     * The constructor for {@link LinkProfile} class.
+     *
+     * @param delay     The one way delay in milliseconds.
+     * @param jitter    The biggest random delay added to the delay, in milliseconds.
+     * @param bandwidth The bytes per second the link can send, 0 if it is not limited.
+     * @param loss      The probability that a write is lost and stalls.
+     * @param stall     The time in milliseconds a lost write waits for its retransmission.
+     * @param reset     The probability that a write resets the connection.
+     */
+    private LinkProfile(long delay, long jitter, long bandwidth, double loss, long stall, double reset)
+    {
+        this.delay = delay;
+        this.jitter = jitter;
+        this.bandwidth = bandwidth;
+        this.loss = loss;
+        this.stall = stall;
+        this.reset = reset;
+    }
+
+    /**
+     * Creates a profile which differs from this one in one parameter.
+     *
+     * @param key   The name of the parameter: delay, jitter, bandwidth, loss, stall or reset.
+     * @param value The value of the parameter.
+     * @return The new profile.
+     * @throws IOException if the parameter is not known or its value is not valid.
+     */
+    LinkProfile with(String key, String value) throws IOException
+    {
+        try
+        {
+            switch (key)
+            {
+                case "delay":
+                    return new LinkProfile(nonNegative(Long.parseLong(value)), jitter, bandwidth, loss, stall, reset);
+                case "jitter":
+                    return new LinkProfile(delay, nonNegative(Long.parseLong(value)), bandwidth, loss, stall, reset);
+                case "bandwidth":
+                    return new LinkProfile(delay, jitter, nonNegative(Long.parseLong(value)), loss, stall, reset);
+                case "loss":
+                    return new LinkProfile(delay, jitter, bandwidth, probability(value), stall, reset);
+                case "stall":
+                    return new LinkProfile(delay, jitter, bandwidth, loss, nonNegative(Long.parseLong(value)), reset);
+                case "reset":
+                    return new LinkProfile(delay, jitter, bandwidth, loss, stall, probability(value));
+                default:
+                    throw new IOException("Unknown link parameter \"" + key + "\".");
+            }
+        } catch (NumberFormatException e)
+        {
+            throw new IOException("Invalid value \"" + value + "\" of the link parameter \"" + key + "\".");
+        }
+    }
+
+    /**
+     * Gets the one way delay.
+     *
+     * @return the delay in milliseconds.
+     */
+    long getDelay()
+    {
+        return delay;
+    }
+
+    /**
+     * Gets the biggest random delay added to the delay.
+     *
+     * @return the jitter in milliseconds.
+     */
+    long getJitter()
+    {
+        return jitter;
+    }
+
+    /**
+     * Gets the bytes per second the link can send.
+     *
+     * @return the bandwidth, 0 if it is not limited.
+     */
+    long getBandwidth()
+    {
+        return bandwidth;
+    }
+
+    /**
+     * Gets the probability that a write is lost and stalls.
+     *
+     * @return the loss probability.
+     */
+    double getLoss()
+    {
+        return loss;
+    }
+
+    /**
+     * Gets the time a lost write waits for its retransmission.
+     *
+     * @return the stall in milliseconds.
+     */
+    long getStall()
+    {
+        return stall;
+    }
+
+    /**
+     * Gets the probability that a write resets the connection.
+     *
+     * @return the reset probability.
+     */
+    double getReset()
+    {
+        return reset;
+    }
+
+    /**
+     * Gets whether the link leaves the bytes as they are.
+     *
+     * @return true if the link does not delay, lose nor reset anything, otherwise false.
+     */
+    boolean isPerfect()
+    {
+        return delay == 0 && jitter == 0 && bandwidth == 0 && loss == 0 && reset == 0;
+    }
+
+    private static long nonNegative(long value)
+    {
+        if (value < 0) throw new NumberFormatException();
+        return value;
+    }
+
+    private static double probability(String value)
+    {
+        double probability = Double.parseDouble(value);
+        if (!(probability >= 0 && probability <= 1)) throw new NumberFormatException();
+        return probability;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "delay=" + delay + " jitter=" + jitter + " bandwidth=" + bandwidth + " loss=" + loss + " stall=" +
+                stall + " reset=" + reset;
+    }
+}
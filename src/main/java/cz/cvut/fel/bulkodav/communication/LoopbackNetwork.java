@@ -0,0 +1,204 @@
+package cz.cvut.fel.bulkodav.communication;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.nio.channels.ClosedChannelException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@link LoopbackNetwork} class connects the nodes which use a {@link LoopbackTransport} in the same JVM.
+ * A node is found by its address and port, as over TCP, but no port of the system is used. The received bytes
+ * of all the nodes are handed to their connections by a shared pool of threads, and the received messages are
+ * handled by another pool shared by all the nodes together with one timer, so a JVM can run thousands of nodes.
+ * <p>
+ * The handler of a message may wait for a message of another node, e.g. a node passes the walk of the new king
+ * on to its neighbour and waits for the answer. A fixed pool shared by all the nodes would be blocked by such
+ * chains, so the messages are handled by a {@link ForkJoinPool} with a thread per core, which starts another
+ * thread for the time a handler waits for a frame or a response, and lets the idle threads end.
+ */
+public class LoopbackNetwork
+{
+    private final static LoopbackNetwork DEFAULT = new LoopbackNetwork(Runtime.getRuntime().availableProcessors());
+    // wakes up the thread waiting in the accept of a closed server
+    private final static LoopbackWire CLOSED = LoopbackWire.pair(Runnable::run, "", "")[0];
+
+    private final Map<String, Server> servers = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final ExecutorService dispatcher;
+    private final ScheduledExecutorService timer;
+
+    /**
+     * The constructor for {@link LoopbackNetwork} class.
+     *
+     * @param threads The number of threads which hand the received bytes to the connections.
+     */
+    public LoopbackNetwork(int threads)
+    {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable ->
+        {
+            Thread thread = new Thread(runnable, "loopback-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool ->
+        {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("loopback-dispatcher-" + thread.getPoolIndex());
+            return thread;
+        }, null, true);
+        timer = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "loopback-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Gets the network shared by the whole JVM.
+     *
+     * @return The network shared by the whole JVM.
+     */
+    public static LoopbackNetwork getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets the threads which handle the received messages of all the nodes.
+     *
+     * @return The shared dispatch threads.
+     */
+    ExecutorService getDispatcher()
+    {
+        return dispatcher;
+    }
+
+    /**
+     * Gets the timer of all the nodes.
+     *
+     * @return The shared timer.
+     */
+    ScheduledExecutorService getTimer()
+    {
+        return timer;
+    }
+
+    /**
+     * Starts accepting the connections at the address and the port of the node.
+     *
+     * @param myInfo    The info about the node.
+     * @param transport The transport of the node.
+     * @return The server which accepts the connections.
+     * @throws BindException if another node already uses the address and the port.
+     */
+    TransportServer bind(NodeInfo myInfo, LoopbackTransport transport) throws BindException
+    {
+        String key = myInfo.getAddress() + ":" + myInfo.getPort();
+        Server server = new Server(key, transport);
+        if (servers.putIfAbsent(key, server) != null) throw new BindException("Address already in use: " + key);
+        return server;
+    }
+
+    /**
+     * Connects to the node. The other node gets the connection when it accepts it, the bytes sent meanwhile wait.
+     *
+     * @param nodeInfo  The info about the node.
+     * @param transport The transport of the node which connects.
+     * @return The new connection, which is not started yet.
+     * @throws ConnectException if no node accepts connections at the address and the port.
+     */
+    Connection connect(NodeInfo nodeInfo, LoopbackTransport transport) throws ConnectException
+    {
+        String key = nodeInfo.getAddress() + ":" + nodeInfo.getPort();
+        Server server = servers.get(key);
+        if (server == null) throw new ConnectException("Connection refused: " + key);
+        LoopbackWire[] wires = LoopbackWire.pair(executor, transport.getAddress(), nodeInfo.getAddress());
+        if (!server.offer(wires[1])) throw new ConnectException("Connection refused: " + key);
+        return transport.newConnection(wires[0]);
+    }
+
+    /**
+     * The {@link Server} class accepts the connections of one node.
+     */
+    private class Server implements TransportServer
+    {
+        private final String key;
+        private final LoopbackTransport transport;
+        private final BlockingQueue<LoopbackWire> backlog = new LinkedBlockingQueue<>();
+        private volatile boolean open = true;
+
+        private Server(String key, LoopbackTransport transport)
+        {
+            this.key = key;
+            this.transport = transport;
+        }
+
+        /**
+         * Queues a connection to be accepted.
+         *
+         * @param wire The end of the wire of the accepting node.
+         * @return false if the server is closed, otherwise true.
+         */
+        private boolean offer(LoopbackWire wire)
+        {
+            if (!open) return false;
+            backlog.add(wire);
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         * The thread waits until a connection is queued or the server is closed.
+         */
+        @Override
+        public CommunicationLink accept() throws IOException
+        {
+            try
+            {
+                LoopbackWire wire = open ? backlog.take() : CLOSED;
+                if (wire != CLOSED) return new CommunicationLink(transport.newConnection(wire), wire.getRemoteAddress());
+                // the next thread which waits is woken up too
+                backlog.add(CLOSED);
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            throw new ClosedChannelException();
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return open;
+        }
+
+        /**
+         * {@inheritDoc}
+         * The connections which were not accepted yet are closed.
+         */
+        @Override
+        public void close()
+        {
+            open = false;
+            servers.remove(key, this);
+            LoopbackWire wire;
+            while ((wire = backlog.poll()) != null)
+            {
+                if (wire != CLOSED) wire.close();
+            }
+            backlog.add(CLOSED);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package cz.cvut.fel.bulkodav.communication;
+
+import java.io.IOException;
+
+/**
+ * The {@link LoopbackTransport} class is a {@link Transport} which passes the bytes in memory to the other nodes
+ * of a {@link LoopbackNetwork} in the same JVM. The nodes send the same frames and json lines as over TCP,
+ * only no socket and no port of the system is used. The received messages are handled by the threads
+ * and the timer of the network, which are shared by all its nodes.
+ */
+public class LoopbackTransport extends Transport
+{
+    private final LoopbackNetwork network;
+    private final String address;
+
+    /**
+     * The constructor for {@link LoopbackTransport} class.
+     *
+     * @param network The network of the nodes in the JVM.
+     * @param address The address of the node, which the nodes it connects to see.
+     */
+    public LoopbackTransport(LoopbackNetwork network, String address)
+    {
+        super(network.getDispatcher(), network.getTimer());
+        this.network = network;
+        this.address = address;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TransportServer bind(NodeInfo myInfo) throws IOException
+    {
+        return network.bind(myInfo, this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    Connection connect(NodeInfo nodeInfo) throws IOException
+    {
+        return network.connect(nodeInfo, this);
+    }
+
+    /**
+     * Gets the address of the node.
+     *
+     * @return the address of the node.
+     */
+    String getAddress()
+    {
+        return address;
+    }
+}
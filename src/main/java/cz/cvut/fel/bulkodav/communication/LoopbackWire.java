@@ -0,0 +1,159 @@
+package cz.cvut.fel.bulkodav.communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The {@link LoopbackWire} class is one end of a {@link Wire} in memory between two nodes in the same JVM.
+ * The bytes written into one end are copied into the inbox of the other end, which hands them to its connection
+ * on a thread of the {@link LoopbackNetwork}. An inbox is drained by one thread at a time, so the bytes arrive
+ * in the order they were written, as they would over a socket.
+ */
+class LoopbackWire implements Wire
+{
+    private final static ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final Executor executor;
+    private final String remoteAddress;
+    private final Queue<ByteBuffer> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile LoopbackWire peer;
+    private volatile Connection connection;
+    private volatile boolean open = true;
+
+    /**
+     * The constructor for {@link LoopbackWire} class.
+     *
+     * @param executor      The threads which hand the received bytes to the connection.
+     * @param remoteAddress The address of the node at the other end.
+     */
+    private LoopbackWire(Executor executor, String remoteAddress)
+    {
+        this.executor = executor;
+        this.remoteAddress = remoteAddress;
+    }
+
+    /**
+     * Creates both ends of a wire.
+     *
+     * @param executor      The threads which hand the received bytes to the connections.
+     * @param clientAddress The address of the node which connects.
+     * @param serverAddress The address of the node which accepts the connection.
+     * @return The end of the node which connects and the end of the node which accepts the connection.
+     */
+    static LoopbackWire[] pair(Executor executor, String clientAddress, String serverAddress)
+    {
+        LoopbackWire client = new LoopbackWire(executor, serverAddress);
+        LoopbackWire server = new LoopbackWire(executor, clientAddress);
+        client.peer = server;
+        server.peer = client;
+        return new LoopbackWire[]{client, server};
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start(Connection connection)
+    {
+        this.connection = connection;
+        schedule();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The buffers are copied, so the other node gets the bytes even if the buffers are reused.
+     */
+    @Override
+    public void write(ByteBuffer... buffers) throws IOException
+    {
+        if (!open) throw new ClosedChannelException();
+        LoopbackWire peer = this.peer;
+        if (!peer.open) throw new IOException("Connection reset by peer");
+        int length = 0;
+        for (ByteBuffer buffer : buffers)
+        {
+            length += buffer.remaining();
+        }
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        for (ByteBuffer buffer : buffers)
+        {
+            copy.put(buffer);
+        }
+        copy.flip();
+        peer.deliver(copy);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen()
+    {
+        return open;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close()
+    {
+        if (!open) return;
+        open = false;
+        peer.deliver(END);
+    }
+
+    /**
+     * Gets the address of the node at the other end.
+     *
+     * @return the address of the node at the other end.
+     */
+    String getRemoteAddress()
+    {
+        return remoteAddress;
+    }
+
+    /**
+     * Puts the bytes written by the other end into the inbox.
+     *
+     * @param buffer The bytes, or {@link #END} if the other end was closed.
+     */
+    private void deliver(ByteBuffer buffer)
+    {
+        inbox.add(buffer);
+        schedule();
+    }
+
+    /**
+     * Plans draining of the inbox, unless it is being drained or the connection did not start yet.
+     */
+    private void schedule()
+    {
+        if (connection != null && !inbox.isEmpty() && draining.compareAndSet(false, true))
+            executor.execute(this::drain);
+    }
+
+    /**
+     * Hands the bytes in the inbox to the connection. The bytes which come after this end was closed are dropped.
+     */
+    private void drain()
+    {
+        do
+        {
+            ByteBuffer buffer;
+            while ((buffer = inbox.poll()) != null)
+            {
+                if (!open) continue;
+                if (buffer == END) connection.connectionLost();
+                else connection.onReceived(buffer);
+            }
+            draining.set(false);
+        } while (!inbox.isEmpty() && draining.compareAndSet(false, true));
+    }
+}
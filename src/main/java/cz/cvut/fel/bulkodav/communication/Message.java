@@ -1,59 +1,133 @@
 package cz.cvut.fel.bulkodav.communication;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 import java.io.Serializable;
-import java.sql.Timestamp;
-import java.util.Date;
+import java.util.List;
 
 /**
  * The {@link Message} class is used to transport information between nodes.
  */
-public class Message implements Serializable, Comparable<Message>
+public class Message implements Serializable
 {
-    private final Timestamp timestamp;
-    private final String content;
+    private String content;
     private final MessageType messageType;
     private final NodeInfo recipient;
     private final NodeInfo sender;
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private long order;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private final List<NodeInfo> relay;
+    private transient long requestId;
+    private transient byte[] encoded;
+    private transient volatile byte[] contentSource;
+    private transient long sequence;
 
     @Deprecated
     public Message()
     {
-        this.timestamp = new Timestamp(new Date().getTime());
         content = null;
         messageType = null;
         recipient = null;
         sender = null;
+        order = 0;
+        relay = null;
     }
 
     /**
      * The constructor for {@link cz.cvut.fel.bulkodav.communication.Message} class.
      *
      * @param content     The message content.
-     * @param recipient   The info about the recipient of the message.
+     * @param recipient   The info about the recipient of the message. Null if the message is meant for everybody.
      * @param sender      The info about the sender of the message
      * @param messageType The type of the message.
      */
     public Message(String content, NodeInfo recipient, NodeInfo sender, MessageType messageType)
+    {
+        this(content, recipient, sender, messageType, null);
+    }
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.communication.Message} class.
+     *
+     * @param content     The message content.
+     * @param recipient   The info about the recipient of the message. Null if the message is meant for everybody.
+     * @param sender      The info about the sender of the message
+     * @param messageType The type of the message.
+     * @param relay       The infos about the nodes the recipient should relay the message to.
+     */
+    public Message(String content, NodeInfo recipient, NodeInfo sender, MessageType messageType, List<NodeInfo> relay)
+    {
+        this(content, recipient, sender, messageType, 0, relay);
+    }
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.communication.Message} class.
+     *
+     * @param content     The message content.
+     * @param recipient   The info about the recipient of the message. Null if the message is meant for everybody.
+     * @param sender      The info about the sender of the message
+     * @param messageType The type of the message.
+     * @param order       The position of the chat message in the chat, assigned by the king. 0 if it has none.
+     * @param relay       The infos about the nodes the recipient should relay the message to.
+     */
+    public Message(String content, NodeInfo recipient, NodeInfo sender, MessageType messageType, long order,
+                   List<NodeInfo> relay)
     {
         this.content = content;
         this.recipient = recipient;
         this.sender = sender;
         this.messageType = messageType;
-        this.timestamp = new Timestamp(new Date().getTime());
+        this.order = order;
+        this.relay = relay;
     }
 
     /**
-     * Gets the content of the message
+     * Gets the content of the message. The content of a received message is read from the serialized message
+     * the first time it is needed.
      *
      * @return The content of the message.
      */
     public String getContent()
     {
+        byte[] source = contentSource;
+        if (source != null)
+        {
+            content = CommunicationLink.decodeContent(source);
+            contentSource = null;
+        }
         return content;
     }
 
+    /**
+     * Sets the serialized message the content is read from when it is first needed.
+     *
+     * @param contentSource The serialized message.
+     */
+    @JsonIgnore
+    void setContentSource(byte[] contentSource)
+    {
+        this.contentSource = contentSource;
+    }
+
+    /**
+     * Creates a copy of the message from the same sender to everybody, e.g. when the king numbers a chat message.
+     * A content which was not read yet is not read for the copy either.
+     *
+     * @param messageType The type of the copy.
+     * @param order       The position of the copy in the chat, 0 if it has none.
+     * @param relay       The infos about the nodes the recipient should relay the copy to.
+     * @return The copy of the message.
+     */
+    public Message copy(MessageType messageType, long order, List<NodeInfo> relay)
+    {
+        byte[] source = contentSource;
+        Message copy = new Message(source == null ? content : null, null, sender, messageType, order, relay);
+        copy.contentSource = source;
+        return copy;
+    }
+
     /**
      * Gets the info about the message recipient.
      *
@@ -107,22 +181,111 @@ public class Message implements Serializable, Comparable<Message>
     }
 
     /**
-     * {@inheritDoc}
+     * Gets the position of the chat message in the chat. The king numbers the chat messages one by one,
+     * so that every node displays them in the same order.
+     *
+     * @return The position of the message, or 0 if the message was not numbered by the king.
      */
-    @Override
-    public String toString()
+    public long getOrder()
     {
-        return "Message{" +
-                "content='" + content + '\'' +
-                '}';
+        return order;
+    }
+
+    /**
+     * Sets the position of the chat message in the chat, when it was carried by the header of a frame.
+     *
+     * @param order The position of the message.
+     */
+    void setOrder(long order)
+    {
+        this.order = order;
+    }
+
+    /**
+     * Gets the infos about the nodes the recipient should relay the message to.
+     *
+     * @return The nodes to relay the message to, or null if the message is not relayed.
+     */
+    public List<NodeInfo> getRelay()
+    {
+        return relay;
+    }
+
+    /**
+     * Gets the id which pairs a request with its response, see {@link CommunicationLink#request(Message, long)}.
+     * The id is carried by the header of the frame, it is not serialized with the message.
+     *
+     * @return The id of the request, or 0 if the message is not a numbered request nor a response to one.
+     */
+    @JsonIgnore
+    public long getRequestId()
+    {
+        return requestId;
+    }
+
+    /**
+     * Sets the id which pairs a request with its response.
+     *
+     * @param requestId The id of the request.
+     */
+    @JsonIgnore
+    void setRequestId(long requestId)
+    {
+        this.requestId = requestId;
+    }
+
+    /**
+     * Gets the message serialized the way it was received, so that it can be forwarded without serializing it again.
+     *
+     * @return The serialized message, or null if the message was not received through a link.
+     */
+    @JsonIgnore
+    public byte[] getEncoded()
+    {
+        return encoded;
+    }
+
+    /**
+     * Sets the message serialized the way it was received.
+     *
+     * @param encoded The serialized message.
+     */
+    @JsonIgnore
+    void setEncoded(byte[] encoded)
+    {
+        this.encoded = encoded;
+    }
+
+    /**
+     * Gets the sequence number the message was received with.
+     *
+     * @return The sequence number, or 0 if the message was not sent through a send window.
+     */
+    @JsonIgnore
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * Sets the sequence number the message was received with.
+     *
+     * @param sequence The sequence number.
+     */
+    @JsonIgnore
+    void setSequence(long sequence)
+    {
+        this.sequence = sequence;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public int compareTo(Message o)
+    public String toString()
     {
-        return this.timestamp.compareTo(o.timestamp);
+        return "Message{" +
+                "content='" + getContent() + '\'' +
+                '}';
     }
 }
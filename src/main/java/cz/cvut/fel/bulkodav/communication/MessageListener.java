@@ -0,0 +1,23 @@
+package cz.cvut.fel.bulkodav.communication;
+
+/**
+ * The {@link MessageListener} interface is notified about the messages which arrive through a {@link CommunicationLink}.
+ * The messages of one link are always delivered one after another, never concurrently.
+ */
+public interface MessageListener
+{
+    /**
+     * Handles a message received through the link.
+     *
+     * @param message       The received message.
+     * @param messageSender The link through which the message arrived.
+     */
+    void messageReceived(Message message, CommunicationLink messageSender);
+
+    /**
+     * Handles the end of the communication through the link.
+     *
+     * @param messageSender The link which was closed.
+     */
+    void connectionClosed(CommunicationLink messageSender);
+}
@@ -33,6 +33,18 @@ public enum MessageType
      * The chat message
      */
     CHAT,
+    /**
+     * The chat message which is passed from one node to its left neighbour around the ring.
+     */
+    RING_CHAT,
+    /**
+     * The chat message which is relayed down a tree of nodes.
+     */
+    RELAY_CHAT,
+    /**
+     * The request for the chat messages which did not arrive.
+     */
+    RETRANSMIT,
     /**
      * The topology mapping message.
      */
@@ -45,4 +57,20 @@ public enum MessageType
      * The message containing the name of the node.
      */
     NAME,
+    /**
+     * The message naming the deputy of the king, or saying that there is none.
+     */
+    DEPUTY,
+    /**
+     * The change of the king's state replicated to its deputy.
+     */
+    REPLICA,
+    /**
+     * The message by which the deputy tells the other nodes that it took over after the death of the king.
+     */
+    SUCCESSION,
+    /**
+     * The request by which the king which logs off hands the ring over to its deputy.
+     */
+    HANDOFF,
 }
@@ -0,0 +1,91 @@
+package cz.cvut.fel.bulkodav.communication;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * The {@link NetworkEmulator} class makes the connections of a node behave like the links of a {@link NetworkScenario}.
+ * It delays, stalls and resets the bytes the node writes, so every direction of a connection is emulated by the node
+ * which writes into it. Every link has its own random source, seeded by the seed of the scenario and the names
+ * of the nodes at both ends, so a run with the same scenario draws the same numbers for the same writes into a link,
+ * however the writes into the other links interleave with them.
+ * <p>
+ * The emulator is set on a {@link Transport} by {@link Transport#setEmulator(NetworkEmulator)}, it works the same
+ * over TCP and over the loopback.
+ */
+public class NetworkEmulator
+{
+    private final NetworkScenario scenario;
+    private final String localName;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The constructor for {@link NetworkEmulator} class.
+     *
+     * @param scenario  The links between the nodes.
+     * @param localName The name of the node whose writes are emulated.
+     */
+    public NetworkEmulator(NetworkScenario scenario, String localName)
+    {
+        this.scenario = scenario;
+        this.localName = localName;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "network-emulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Wraps the wire of a connection, so the writes into it are emulated.
+     *
+     * @param wire The wire of the connection.
+     * @return The emulated wire.
+     */
+    Wire wrap(Wire wire)
+    {
+        return new EmulatedWire(wire, this);
+    }
+
+    /**
+     * Gets the parameters of the link from this node to another one.
+     *
+     * @param remoteName The name of the other node, empty if it is not known yet.
+     * @return The parameters of the link.
+     */
+    LinkProfile getProfile(String remoteName)
+    {
+        return scenario.getProfile(localName, remoteName);
+    }
+
+    /**
+     * Creates the random source of the link from this node to another one.
+     *
+     * @param remoteName The name of the other node, empty if it is not known yet.
+     * @return The random source of the link.
+     */
+    Random createRandom(String remoteName)
+    {
+        return new Random((scenario.getSeed() * 31 + localName.hashCode()) * 31 + remoteName.hashCode());
+    }
+
+    /**
+     * Gets the thread which writes the delayed bytes.
+     *
+     * @return the scheduler of the delayed writes.
+     */
+    ScheduledExecutorService getScheduler()
+    {
+        return scheduler;
+    }
+
+    /**
+     * Stops writing the delayed bytes.
+     */
+    void shutdown()
+    {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,184 @@
+package cz.cvut.fel.bulkodav.communication;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link NetworkScenario} class describes the links between named nodes for a {@link NetworkEmulator}.
+ * A scenario is a text file with one statement on a line, {@code #} starts a comment:
+ * <pre>
+ * seed 42
+ * default delay=20 jitter=5
+ * prague -&gt; tokyo delay=140 bandwidth=125000
+ * prague &lt;-&gt; boston delay=60 loss=0.01
+ * * -&gt; tokyo reset=0.001
+ * </pre>
+ * {@code seed} sets the seed of the random sources of the links. {@code default} sets the parameters of all the links,
+ * {@code a -> b} the parameters of the link from the node a to the node b, {@code a <-> b} of the links in both
+ * directions. {@code *} stands for any node. The parameters are those of {@link LinkProfile}, a link which does not
+ * set a parameter takes it from the default. The most specific statement wins: the exact link, then any node
+ * to the node b, then the node a to any node, then the default.
+ */
+public class NetworkScenario
+{
+    private final static String ANY = "*";
+
+    private final long seed;
+    private final LinkProfile defaultProfile;
+    private final Map<String, LinkProfile> links;
+
+    /**
+     * The constructor for {@link NetworkScenario} class.
+     *
+     * @param seed           The seed of the random sources of the links.
+     * @param defaultProfile The parameters of the links which are not described.
+     * @param links          The parameters of the described links by "from -> to".
+     */
+    private NetworkScenario(long seed, LinkProfile defaultProfile, Map<String, LinkProfile> links)
+    {
+        this.seed = seed;
+        this.defaultProfile = defaultProfile;
+        this.links = links;
+    }
+
+    /**
+     * Reads a scenario from a file.
+     *
+     * @param path The path to the file.
+     * @return The scenario.
+     * @throws IOException if the file cannot be read or is not valid.
+     */
+    public static NetworkScenario load(String path) throws IOException
+    {
+        try (Reader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8))
+        {
+            return parse(reader);
+        } catch (IOException e)
+        {
+            throw new IOException("Scenario " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a scenario.
+     *
+     * @param reader The reader of the scenario.
+     * @return The scenario.
+     * @throws IOException if the scenario cannot be read or is not valid.
+     */
+    public static NetworkScenario parse(Reader reader) throws IOException
+    {
+        long seed = 0;
+        List<String[]> defaults = new ArrayList<>();
+        List<String[]> statements = new ArrayList<>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int number = 0;
+        while ((line = lines.readLine()) != null)
+        {
+            number++;
+            int comment = line.indexOf('#');
+            if (comment >= 0) line = line.substring(0, comment);
+            String[] words = line.trim().split("\\s+");
+            if (words[0].isEmpty()) continue;
+            if (words[0].equals("seed") && words.length == 2)
+            {
+                try
+                {
+                    seed = Long.parseLong(words[1]);
+                } catch (NumberFormatException e)
+                {
+                    throw new IOException("line " + number + ": invalid seed \"" + words[1] + "\".");
+                }
+            } else if (words[0].equals("default"))
+            {
+                check(words, 1, number);
+                defaults.add(words);
+            } else if (words.length >= 3 && (words[1].equals("->") || words[1].equals("<->")))
+            {
+                check(words, 3, number);
+                statements.add(words);
+            } else
+            {
+                throw new IOException("line " + number + ": cannot understand \"" + line.trim() + "\".");
+            }
+        }
+
+        LinkProfile defaultProfile = LinkProfile.NONE;
+        for (String[] words : defaults)
+        {
+            defaultProfile = apply(defaultProfile, words, 1);
+        }
+        Map<String, LinkProfile> links = new HashMap<>();
+        for (String[] words : statements)
+        {
+            String from = words[0];
+            String to = words[2];
+            links.put(key(from, to), apply(links.getOrDefault(key(from, to), defaultProfile), words, 3));
+            if (words[1].equals("<->"))
+                links.put(key(to, from), apply(links.getOrDefault(key(to, from), defaultProfile), words, 3));
+        }
+        return new NetworkScenario(seed, defaultProfile, links);
+    }
+
+    /**
+     * Gets the parameters of the link between two nodes.
+     *
+     * @param from The name of the node which writes into the link.
+     * @param to   The name of the node which reads from the link, empty if it is not known yet.
+     * @return The parameters of the link.
+     */
+    LinkProfile getProfile(String from, String to)
+    {
+        LinkProfile profile = links.get(key(from, to));
+        if (profile == null) profile = links.get(key(ANY, to));
+        if (profile == null) profile = links.get(key(from, ANY));
+        if (profile == null) profile = links.get(key(ANY, ANY));
+        return profile == null ? defaultProfile : profile;
+    }
+
+    /**
+     * Gets the seed of the random sources of the links.
+     *
+     * @return the seed of the random sources of the links.
+     */
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    private static void check(String[] words, int first, int number) throws IOException
+    {
+        try
+        {
+            apply(LinkProfile.NONE, words, first);
+        } catch (IOException e)
+        {
+            throw new IOException("line " + number + ": " + e.getMessage());
+        }
+    }
+
+    private static LinkProfile apply(LinkProfile profile, String[] words, int first) throws IOException
+    {
+        for (int i = first; i < words.length; i++)
+        {
+            int separator = words[i].indexOf('=');
+            if (separator <= 0) throw new IOException("expected key=value instead of \"" + words[i] + "\".");
+            profile = profile.with(words[i].substring(0, separator), words[i].substring(separator + 1));
+        }
+        return profile;
+    }
+
+    private static String key(String from, String to)
+    {
+        return from + " -> " + to;
+    }
+}
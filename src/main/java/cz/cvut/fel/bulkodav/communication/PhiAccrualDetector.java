@@ -0,0 +1,87 @@
+package cz.cvut.fel.bulkodav.communication;
+
+/**
+ * The {@link PhiAccrualDetector} class tells how much a node is suspected to be dead from the times its heartbeats
+ * came in. It keeps the intervals between the last heartbeats, assumes they are normally distributed and computes
+ * phi, the minus decimal logarithm of the probability that the next heartbeat is still to come.
+ * Phi 1 means the node is dead with the probability of 90 %, phi 2 with 99 % and so on.
+ */
+class PhiAccrualDetector
+{
+    private final static int WINDOW = 100;
+
+    private final double[] intervals = new double[WINDOW];
+    private final double minDeviation;
+    private final double acceptablePause;
+    private int count;
+    private int next;
+    private double sum;
+    private double sumOfSquares;
+    private long lastHeartbeat;
+    private boolean answered;
+
+    /**
+     * The constructor for {@link PhiAccrualDetector} class. The expected interval is the first one in the history,
+     * so a node which never sends a heartbeat is suspected too.
+     *
+     * @param expectedInterval The interval in milliseconds in which the heartbeats should come.
+     */
+    PhiAccrualDetector(long expectedInterval)
+    {
+        minDeviation = Math.max(1, expectedInterval / 4.0);
+        acceptablePause = expectedInterval / 2.0;
+        add(expectedInterval);
+        lastHeartbeat = System.currentTimeMillis();
+    }
+
+    /**
+     * Records the arrival of a heartbeat.
+     *
+     * @param now The current time in milliseconds.
+     */
+    synchronized void heartbeat(long now)
+    {
+        // the first heartbeat answers the first request for it, the time in between is not an interval
+        if (answered) add(now - lastHeartbeat);
+        answered = true;
+        lastHeartbeat = now;
+    }
+
+    /**
+     * Gets the suspicion level of the node.
+     *
+     * @param now The current time in milliseconds.
+     * @return The phi of the node, 0 means the node is not suspected at all.
+     */
+    synchronized double phi(long now)
+    {
+        double mean = sum / count;
+        double deviation = Math.max(Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean)), minDeviation);
+        double y = (now - lastHeartbeat - mean - acceptablePause) / deviation;
+        // the logistic approximation of the cumulative distribution function of the normal distribution
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        double phi = y > 0 ? -Math.log10(e / (1 + e)) : -Math.log10(1 - 1 / (1 + e));
+        return Math.max(0, phi);
+    }
+
+    /**
+     * Adds the interval into the history, the oldest interval is forgotten if the history is full.
+     *
+     * @param interval The interval in milliseconds.
+     */
+    private void add(double interval)
+    {
+        if (count == WINDOW)
+        {
+            sum -= intervals[next];
+            sumOfSquares -= intervals[next] * intervals[next];
+        } else
+        {
+            count++;
+        }
+        intervals[next] = interval;
+        sum += interval;
+        sumOfSquares += interval * interval;
+        next = (next + 1) % WINDOW;
+    }
+}
@@ -0,0 +1,117 @@
+package cz.cvut.fel.bulkodav.communication;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@link SelectorTransport} class is a {@link Transport} over TCP sockets. It owns a fixed set of
+ * {@link EventLoop}s which do all the socket input and output of a node.
+ * The number of threads does not depend on the number of open links.
+ */
+public class SelectorTransport extends Transport
+{
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    /**
+     * The constructor for {@link SelectorTransport} class.
+     *
+     * @param loopThreads     The number of event loop threads.
+     * @param dispatchThreads The number of threads which handle the received messages.
+     * @throws IOException if the selectors cannot be opened.
+     */
+    public SelectorTransport(int loopThreads, int dispatchThreads) throws IOException
+    {
+        super(dispatchThreads);
+        loops = new EventLoop[Math.max(1, loopThreads)];
+        for (int i = 0; i < loops.length; i++)
+        {
+            loops[i] = new EventLoop("event-loop-" + i);
+            loops[i].start();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The server binds a server socket to the address and the port of the node.
+     */
+    @Override
+    public TransportServer bind(NodeInfo myInfo) throws IOException
+    {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try
+        {
+            server.bind(new InetSocketAddress(myInfo.getAddress(), myInfo.getPort()));
+        } catch (IOException e)
+        {
+            server.close();
+            throw e;
+        }
+        return new TransportServer()
+        {
+            @Override
+            public CommunicationLink accept() throws IOException
+            {
+                SocketChannel socket = server.accept();
+                return new CommunicationLink(socket, socket.socket().getInetAddress().getHostAddress(),
+                        SelectorTransport.this);
+            }
+
+            @Override
+            public boolean isOpen()
+            {
+                return server.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                server.close();
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    Connection connect(NodeInfo nodeInfo) throws IOException
+    {
+        SocketChannel channel = SocketChannel.open();
+        try
+        {
+            channel.socket().connect(new InetSocketAddress(nodeInfo.getAddress(), nodeInfo.getPort()), 3000);
+            return newConnection(new SocketWire(channel, this));
+        } catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Assigns the socket of the wire to one of the event loops.
+     *
+     * @param wire The wire to be registered.
+     */
+    void register(SocketWire wire)
+    {
+        loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)].register(wire);
+    }
+
+    /**
+     * Stops all the event loops, dispatch threads and the timer.
+     */
+    @Override
+    public void shutdown()
+    {
+        for (EventLoop loop : loops)
+        {
+            loop.end();
+        }
+        super.shutdown();
+    }
+}
@@ -0,0 +1,124 @@
+package cz.cvut.fel.bulkodav.communication;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * The {@link SendWindow} class numbers the messages sent through a {@link CommunicationLink} and keeps track of
+ * those which were not acknowledged yet. At most {@link #capacity} messages may wait for the acknowledgement,
+ * the rest waits in the window until the other node catches up.
+ */
+class SendWindow
+{
+    /**
+     * Writes a numbered message into the link.
+     */
+    interface Writer
+    {
+        /**
+         * Writes the message.
+         *
+         * @param sequence The sequence number of the message.
+         * @param order    The order of the chat message, or 0 if it has none.
+         * @param encoded  The serialized message.
+         */
+        void write(long sequence, long order, byte[] encoded);
+    }
+
+    private final int capacity;
+    private final int maxWaiting;
+    private final Writer writer;
+    private final Queue<Waiting> waiting = new ArrayDeque<>();
+    private long lastSent;
+    private long lastAcknowledged;
+    private long unacknowledgedSince;
+
+    /**
+     * The constructor for {@link SendWindow} class.
+     *
+     * @param capacity   The number of messages which may wait for the acknowledgement at once.
+     * @param maxWaiting The number of messages which may wait for a free place in the window.
+     * @param writer     The writer of the numbered messages.
+     */
+    SendWindow(int capacity, int maxWaiting, Writer writer)
+    {
+        this.capacity = Math.max(1, capacity);
+        this.maxWaiting = maxWaiting;
+        this.writer = writer;
+    }
+
+    /**
+     * Sends the message right away if there is a free place in the window, otherwise lets it wait for one.
+     *
+     * @param encoded The serialized message.
+     * @param order   The order of the chat message, or 0 if it has none.
+     * @return false if too many messages are already waiting, otherwise true.
+     */
+    synchronized boolean offer(byte[] encoded, long order)
+    {
+        if (waiting.isEmpty() && lastSent - lastAcknowledged < capacity)
+        {
+            send(encoded, order);
+            return true;
+        }
+        if (waiting.size() >= maxWaiting) return false;
+        waiting.add(new Waiting(encoded, order));
+        return true;
+    }
+
+    /**
+     * Marks all the messages up to the sequence number as delivered and sends the waiting messages
+     * which fit into the window now.
+     *
+     * @param sequence The sequence number of the last delivered message.
+     */
+    synchronized void acknowledge(long sequence)
+    {
+        if (sequence <= lastAcknowledged) return;
+        lastAcknowledged = Math.min(sequence, lastSent);
+        unacknowledgedSince = lastSent == lastAcknowledged ? 0 : System.currentTimeMillis();
+        while (!waiting.isEmpty() && lastSent - lastAcknowledged < capacity)
+        {
+            Waiting message = waiting.poll();
+            send(message.encoded, message.order);
+        }
+    }
+
+    /**
+     * Gets whether the other node has not acknowledged anything for too long while there are messages it should have.
+     *
+     * @param timeout The time in milliseconds after which the node is considered stalled.
+     * @return true if the node is stalled, otherwise false.
+     */
+    synchronized boolean isStalled(long timeout)
+    {
+        return unacknowledgedSince != 0 && System.currentTimeMillis() - unacknowledgedSince > timeout;
+    }
+
+    /**
+     * Numbers the message and writes it.
+     *
+     * @param encoded The serialized message.
+     * @param order   The order of the chat message, or 0 if it has none.
+     */
+    private void send(byte[] encoded, long order)
+    {
+        if (lastSent == lastAcknowledged) unacknowledgedSince = System.currentTimeMillis();
+        writer.write(++lastSent, order, encoded);
+    }
+
+    /**
+     * The {@link Waiting} class is a message which waits for a free place in the window.
+     */
+    private static class Waiting
+    {
+        private final byte[] encoded;
+        private final long order;
+
+        private Waiting(byte[] encoded, long order)
+        {
+            this.encoded = encoded;
+            this.order = order;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package cz.cvut.fel.bulkodav.communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * The {@link SocketWire} class is a {@link Wire} over a TCP socket, served by an {@link EventLoop}
+ * of a {@link SelectorTransport}.
+ */
+class SocketWire implements Wire
+{
+    private final SocketChannel channel;
+    private final SelectorTransport transport;
+    private final Queue<ByteBuffer> outbox = new ArrayDeque<>();
+    private volatile Connection connection;
+    private EventLoop loop;
+    private SelectionKey key;
+
+    /**
+     * The constructor for {@link SocketWire} class.
+     *
+     * @param channel   The socket channel of the wire.
+     * @param transport The transport which serves the socket.
+     * @throws IOException if the channel cannot be switched to the non-blocking mode.
+     */
+    SocketWire(SocketChannel channel, SelectorTransport transport) throws IOException
+    {
+        this.channel = channel;
+        this.transport = transport;
+        channel.configureBlocking(false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start(Connection connection)
+    {
+        this.connection = connection;
+        transport.register(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Whatever does not fit into the socket now is written later by the event loop.
+     */
+    @Override
+    public void write(ByteBuffer... buffers) throws IOException
+    {
+        synchronized (outbox)
+        {
+            if (outbox.isEmpty())
+            {
+                channel.write(buffers);
+            }
+            boolean queued = false;
+            for (ByteBuffer buffer : buffers)
+            {
+                if (!buffer.hasRemaining()) continue;
+                outbox.add(buffer);
+                queued = true;
+            }
+            if (queued && loop != null) loop.execute(this::onWritable);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen()
+    {
+        return channel.isOpen();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * Gets the socket channel of the wire.
+     *
+     * @return the socket channel of the wire.
+     */
+    SocketChannel getChannel()
+    {
+        return channel;
+    }
+
+    /**
+     * Called by the event loop once the socket is registered in its selector.
+     *
+     * @param loop The event loop which serves the socket.
+     * @param key  The selection key of the socket.
+     */
+    void registered(EventLoop loop, SelectionKey key)
+    {
+        synchronized (outbox)
+        {
+            this.loop = loop;
+            this.key = key;
+            updateInterest();
+        }
+    }
+
+    /**
+     * Called by the event loop when the socket has some data to be read. Hands the data to the connection.
+     *
+     * @param buffer The buffer shared by all the sockets of the event loop.
+     */
+    void onReadable(ByteBuffer buffer)
+    {
+        buffer.clear();
+        int read;
+        try
+        {
+            read = channel.read(buffer);
+        } catch (IOException e)
+        {
+            read = -1;
+        }
+        if (read < 0)
+        {
+            connectionLost();
+            return;
+        }
+        buffer.flip();
+        connection.onReceived(buffer);
+    }
+
+    /**
+     * Called by the event loop when the socket can accept the data which did not fit into it before.
+     */
+    void onWritable()
+    {
+        synchronized (outbox)
+        {
+            try
+            {
+                while (!outbox.isEmpty())
+                {
+                    ByteBuffer buffer = outbox.peek();
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) break;
+                    outbox.poll();
+                }
+            } catch (IOException e)
+            {
+                outbox.clear();
+                connectionLost();
+            }
+            updateInterest();
+        }
+    }
+
+    /**
+     * Tells the connection that the socket was closed or broken.
+     */
+    void connectionLost()
+    {
+        Connection connection = this.connection;
+        if (connection != null) connection.connectionLost();
+        else closeQuietly();
+    }
+
+    /**
+     * Closes the socket, ignoring errors.
+     */
+    private void closeQuietly()
+    {
+        try
+        {
+            channel.close();
+        } catch (IOException ignored)
+        {
+        }
+    }
+
+    /**
+     * Makes the event loop watch for the writability of the socket only when there is something left to write.
+     */
+    private void updateInterest()
+    {
+        if (key == null || !key.isValid()) return;
+        key.interestOps(outbox.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+}
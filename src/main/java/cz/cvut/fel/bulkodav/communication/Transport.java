@@ -0,0 +1,254 @@
+package cz.cvut.fel.bulkodav.communication;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link Transport} class carries the bytes of the {@link Connection}s of a node. It opens the connections
+ * to other nodes, accepts theirs through a {@link TransportServer}, and owns a fixed pool of threads which handle
+ * the received messages and a timer. The transports of many nodes in one JVM may share the threads and the timer
+ * instead, then the transport does not stop them when it is shut down.
+ * <p>
+ * The frames and json lines sent over a connection are the same for every transport, only the way the bytes get
+ * to the other node differs. {@link SelectorTransport} uses TCP sockets, {@link LoopbackTransport} passes the bytes
+ * in memory to the nodes which run in the same JVM.
+ */
+public abstract class Transport
+{
+    private final ExecutorService dispatcher;
+    private final ScheduledExecutorService timer;
+    private final boolean shared;
+    private volatile boolean shutDown;
+    private volatile LinkAcceptor acceptor;
+    private volatile NetworkEmulator emulator;
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong dispatchCpuTime = new AtomicLong();
+
+    /**
+     * The constructor for {@link Transport} class.
+     *
+     * @param dispatchThreads The number of threads which handle the received messages.
+     */
+    protected Transport(int dispatchThreads)
+    {
+        AtomicInteger threadCount = new AtomicInteger();
+        dispatcher = Executors.newFixedThreadPool(Math.max(1, dispatchThreads), runnable ->
+        {
+            Thread thread = new Thread(runnable, "dispatcher-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            threads.add(thread);
+            return thread;
+        });
+        timer = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "timer");
+            thread.setDaemon(true);
+            threads.add(thread);
+            return thread;
+        });
+        shared = false;
+    }
+
+    /**
+     * The constructor for {@link Transport} class which uses the threads and the timer shared with other transports.
+     *
+     * @param dispatcher The threads which handle the received messages.
+     * @param timer      The timer.
+     */
+    protected Transport(ExecutorService dispatcher, ScheduledExecutorService timer)
+    {
+        this.dispatcher = dispatcher;
+        this.timer = timer;
+        shared = true;
+    }
+
+    /**
+     * Starts accepting the connections of other nodes at the address of this node.
+     *
+     * @param myInfo The info about this node which contains the address and the port.
+     * @return The server which accepts the connections.
+     * @throws java.net.BindException if the address is already used.
+     * @throws IOException            if the server cannot be started.
+     */
+    public abstract TransportServer bind(NodeInfo myInfo) throws IOException;
+
+    /**
+     * Connects to the node.
+     *
+     * @param nodeInfo The info about the node which contains connection parameters.
+     * @return The new connection, which is not started yet.
+     * @throws IOException if the connection fails.
+     */
+    abstract Connection connect(NodeInfo nodeInfo) throws IOException;
+
+    /**
+     * Creates a connection over the wire, emulated if the transport has an emulator.
+     *
+     * @param wire The wire which carries the bytes of the connection.
+     * @return The new connection, which is not started yet.
+     */
+    Connection newConnection(Wire wire)
+    {
+        NetworkEmulator emulator = this.emulator;
+        return new Connection(emulator == null ? wire : emulator.wrap(wire), this);
+    }
+
+    /**
+     * Sets the emulator which makes the connections opened and accepted from now on behave like the links
+     * of a scenario.
+     *
+     * @param emulator The emulator, or null to leave the connections as they are.
+     */
+    public void setEmulator(NetworkEmulator emulator)
+    {
+        this.emulator = emulator;
+    }
+
+    /**
+     * Sets the acceptor of the links through which other nodes send their requests over the connections
+     * opened by this node.
+     *
+     * @param acceptor The acceptor of the links.
+     */
+    public void setAcceptor(LinkAcceptor acceptor)
+    {
+        this.acceptor = acceptor;
+    }
+
+    /**
+     * Hands the link through which another node started sending its requests to the acceptor.
+     * The link is closed if there is no acceptor.
+     *
+     * @param link The accepted link.
+     */
+    void accepted(CommunicationLink link)
+    {
+        LinkAcceptor acceptor = this.acceptor;
+        if (acceptor != null) acceptor.accepted(link);
+        else link.close();
+    }
+
+    /**
+     * Runs the task on one of the dispatch threads.
+     *
+     * @param task The task which handles received messages.
+     */
+    void dispatch(Runnable task)
+    {
+        // the shared threads stay after the shutdown of the transport, but its messages are not handled anymore
+        if (shutDown) return;
+        try
+        {
+            dispatcher.execute(shared ? () -> measure(task) : task);
+        } catch (RejectedExecutionException ignored)
+        {
+            // the node is shutting down, nobody is interested in the messages anymore
+        }
+    }
+
+    /**
+     * Runs the task after the delay on the timer thread. The task should be short, it must not wait for anything.
+     *
+     * @param task  The task to be run.
+     * @param delay The delay in milliseconds.
+     * @return The scheduled task which can be cancelled, or null if the transport is shut down.
+     */
+    ScheduledFuture<?> schedule(Runnable task, long delay)
+    {
+        if (shutDown) return null;
+        try
+        {
+            return timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Runs a task on a shared dispatch thread and adds the cpu time it took to the cpu time of this transport.
+     *
+     * @param task The task which handles received messages.
+     */
+    private void measure(Runnable task)
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        long start = bean.isCurrentThreadCpuTimeSupported() ? bean.getCurrentThreadCpuTime() : -1;
+        try
+        {
+            task.run();
+        } finally
+        {
+            if (start >= 0) dispatchCpuTime.addAndGet(bean.getCurrentThreadCpuTime() - start);
+        }
+    }
+
+    /**
+     * Counts the bytes written into the wires of the connections.
+     *
+     * @param bytes The number of the written bytes.
+     */
+    void sent(long bytes)
+    {
+        sentBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Gets the number of the bytes this node has written into the wires of its connections, with the headers
+     * of the frames and the ends of the json lines.
+     *
+     * @return The number of the sent bytes.
+     */
+    public long getSentBytes()
+    {
+        return sentBytes.get();
+    }
+
+    /**
+     * Gets the cpu time spent by the dispatch threads and the timer of this transport, which handle the received
+     * messages of the node. The threads which carry the bytes may be shared by more nodes and are not counted.
+     * If the dispatch threads are shared, only the time spent on the messages of this node is counted,
+     * the shared timer is not counted.
+     *
+     * @return The cpu time in nanoseconds, or 0 if the JVM does not measure it.
+     */
+    public long getCpuTime()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!bean.isThreadCpuTimeSupported()) return 0;
+        long cpuTime = dispatchCpuTime.get();
+        for (Thread thread : threads)
+        {
+            cpuTime += Math.max(0, bean.getThreadCpuTime(thread.getId()));
+        }
+        return cpuTime;
+    }
+
+    /**
+     * Stops the dispatch threads, the timer and the emulator. The shared threads and timer are left running
+     * for the other transports.
+     */
+    public void shutdown()
+    {
+        shutDown = true;
+        if (!shared)
+        {
+            dispatcher.shutdown();
+            timer.shutdownNow();
+        }
+        NetworkEmulator emulator = this.emulator;
+        if (emulator != null) emulator.shutdown();
+    }
+}
@@ -0,0 +1,32 @@
+package cz.cvut.fel.bulkodav.communication;
+
+import java.io.IOException;
+
+/**
+ * The {@link TransportServer} interface accepts the connections other nodes open to this node,
+ * see {@link Transport#bind(NodeInfo)}.
+ */
+public interface TransportServer
+{
+    /**
+     * Waits for another node to connect.
+     *
+     * @return The link through which the other node sends its requests, which has no listener yet.
+     * @throws IOException if the server is closed or the connection cannot be served.
+     */
+    CommunicationLink accept() throws IOException;
+
+    /**
+     * Gets whether the server accepts connections.
+     *
+     * @return true if the server is open, otherwise false.
+     */
+    boolean isOpen();
+
+    /**
+     * Stops accepting connections. A thread waiting in {@link #accept()} is woken up by an exception.
+     *
+     * @throws IOException if the server cannot be closed.
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,41 @@
+package cz.cvut.fel.bulkodav.communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The {@link Wire} interface carries the bytes of one {@link Connection} to the other node and back.
+ * It knows nothing about frames, the connection cuts the received bytes into frames itself.
+ */
+interface Wire
+{
+    /**
+     * Starts handing the received bytes to the connection by {@link Connection#onReceived(ByteBuffer)},
+     * and tells it by {@link Connection#connectionLost()} when the other node closes the wire.
+     *
+     * @param connection The connection served by the wire.
+     */
+    void start(Connection connection);
+
+    /**
+     * Sends the buffers to the other node. Whatever cannot be sent now is sent later, in the same order.
+     *
+     * @param buffers The buffers to be sent.
+     * @throws IOException if the wire is closed or broken.
+     */
+    void write(ByteBuffer... buffers) throws IOException;
+
+    /**
+     * Gets whether the wire is open.
+     *
+     * @return true if the wire is open, otherwise false.
+     */
+    boolean isOpen();
+
+    /**
+     * Closes the wire. The other node finds out after it received all the bytes sent before.
+     *
+     * @throws IOException if the wire cannot be closed.
+     */
+    void close() throws IOException;
+}
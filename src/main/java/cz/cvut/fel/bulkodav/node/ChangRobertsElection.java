@@ -0,0 +1,106 @@
+package cz.cvut.fel.bulkodav.node;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The {@link ChangRobertsElection} class elects the new king by sending the biggest known election key
+ * in one direction. The content of the messages is the key. A message which gets to the dead king turns back.
+ */
+class ChangRobertsElection implements ElectionStrategy
+{
+    private final static Logger logger = Logger.getLogger(ChangRobertsElection.class);
+    private final ElectionRing ring;
+    private boolean isParticipant;
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.ChangRobertsElection} class.
+     *
+     * @param ring The ring as seen by this node.
+     */
+    ChangRobertsElection(ElectionRing ring)
+    {
+        this.ring = ring;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void startElection()
+    {
+        if (handleElection(ring.getMyKey(), ring.getNextHop(ring.getKingsName()), true)) crown();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleElectionMessage(String content, String senderName, boolean sentByKing)
+    {
+        // the king which logs off chose this node, which starts the election with its own key
+        long electionKey = sentByKing ? ring.getMyKey() : Long.parseLong(content);
+        if (handleElection(electionKey, senderName, sentByKing)) crown();
+    }
+
+    /**
+     * Handles the election of a new node.
+     *
+     * @param electionKey    The election key in the message.
+     * @param senderName     The sender of the election message.
+     * @param startedLocally Whether the election was started by this node or by the king which logs off.
+     * @return true if this node won the election.
+     */
+    private synchronized boolean handleElection(long electionKey, String senderName, boolean startedLocally)
+    {
+        long myKey = ring.getMyKey();
+        String kingName = ring.getKingsName();
+
+        String nextHop = ring.getNextHop(senderName);
+        if (nextHop.equals(kingName)) nextHop = ring.getNextHop(nextHop);
+
+        String messageContent;
+        if (electionKey > myKey)
+        {
+            messageContent = Long.toString(electionKey);
+        } else if (electionKey == myKey && (!startedLocally || nextHop.equals(kingName)))
+        {
+            return true;
+        } else
+        {
+            if (isParticipant) return false;
+            messageContent = Long.toString(myKey);
+        }
+        isParticipant = true;
+
+        logger.info("Node " + ring.getMyInfo() + "\n - " + "sending : " + messageContent + " to " + nextHop + "\n");
+        ring.send(nextHop, messageContent);
+        return false;
+    }
+
+    /**
+     * Makes this node the new king, outside of the lock.
+     */
+    private void crown()
+    {
+        logger.info("Node " + ring.getMyInfo() + "\n - " + "I am the new king!\n");
+        ring.win();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isParticipant()
+    {
+        return isParticipant;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void electionIsOver()
+    {
+        isParticipant = false;
+    }
+}
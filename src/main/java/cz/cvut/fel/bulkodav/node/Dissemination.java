@@ -0,0 +1,22 @@
+package cz.cvut.fel.bulkodav.node;
+
+/**
+ * The {@link Dissemination} enum represents the way the king spreads chat messages to the other nodes.
+ */
+public enum Dissemination
+{
+    /**
+     * The king sends every message to every node by itself.
+     */
+    STAR,
+    /**
+     * The king sends every message only to its left node, each node then passes it to its own left node
+     * until the message gets back to the king.
+     */
+    RING,
+    /**
+     * The king sends every message to a few nodes, each of which relays it to a few other nodes,
+     * so that the message goes down a tree of the nodes.
+     */
+    TREE
+}
@@ -0,0 +1,29 @@
+package cz.cvut.fel.bulkodav.node;
+
+/**
+ * The {@link Election} enum represents the algorithm by which the nodes elect a new king.
+ */
+public enum Election
+{
+    /**
+     * Every node sends the biggest election key it knows to one side, the key which gets back to its node wins.
+     * It takes O(n^2) messages in the worst case.
+     */
+    CHANG_ROBERTS,
+    /**
+     * Every candidate probes both sides up to a distance which doubles in every phase, the candidate whose
+     * probes reach the ends of the ring wins. It takes O(n log n) messages.
+     */
+    HIRSCHBERG_SINCLAIR;
+
+    /**
+     * Creates the algorithm for one node.
+     *
+     * @param ring The ring as seen by the node.
+     * @return The algorithm of the election.
+     */
+    ElectionStrategy create(ElectionRing ring)
+    {
+        return this == HIRSCHBERG_SINCLAIR ? new HirschbergSinclairElection(ring) : new ChangRobertsElection(ring);
+    }
+}
@@ -0,0 +1,59 @@
+package cz.cvut.fel.bulkodav.node;
+
+import cz.cvut.fel.bulkodav.communication.NodeInfo;
+
+/**
+ * The {@link ElectionRing} interface represents the ring as seen by the {@link ElectionStrategy} of one node.
+ * The dead king stays in the ring, so the ring is a line whose ends are the neighbours of the king.
+ */
+interface ElectionRing
+{
+    /**
+     * Gets the info about this node.
+     *
+     * @return The info about this node.
+     */
+    NodeInfo getMyInfo();
+
+    /**
+     * Gets the key by which this node competes in the election. The key does not change during one election.
+     *
+     * @return The election key of this node, see {@link NodeCapacity#electionKey(int, int)}.
+     */
+    long getMyKey();
+
+    /**
+     * Gets the name of the dead king.
+     *
+     * @return The name of the dead king.
+     */
+    String getKingsName();
+
+    /**
+     * Gets the name of the left node.
+     *
+     * @return The name of the left node.
+     */
+    String getLeftName();
+
+    /**
+     * Gets the name of the neighbour on the other side than the given neighbour.
+     *
+     * @param previousHopName The name of the neighbour the message came from.
+     * @return The name of the neighbour the message goes on to.
+     */
+    String getNextHop(String previousHopName);
+
+    /**
+     * Sends a message of the election to a neighbour.
+     *
+     * @param hopName The name of the neighbour.
+     * @param content The content of the message.
+     */
+    void send(String hopName, String content);
+
+    /**
+     * Makes this node the new king.
+     */
+    void win();
+}
@@ -0,0 +1,36 @@
+package cz.cvut.fel.bulkodav.node;
+
+/**
+ * The {@link ElectionStrategy} interface represents an algorithm by which the nodes of the ring elect a new king after
+ * the death of the king. The messages of the election are
+ * {@link cz.cvut.fel.bulkodav.communication.MessageType#KING_IS_DEAD} messages, their content is up to the algorithm.
+ * All the nodes of the ring have to use the same algorithm.
+ */
+interface ElectionStrategy
+{
+    /**
+     * Starts the election after this node found out that the king is dead.
+     */
+    void startElection();
+
+    /**
+     * Handles a message of the election.
+     *
+     * @param content    The content of the message.
+     * @param senderName The name of the neighbour which sent the message.
+     * @param sentByKing Whether the message was sent by the king which logs off.
+     */
+    void handleElectionMessage(String content, String senderName, boolean sentByKing);
+
+    /**
+     * Gets whether this node takes part in an ongoing election.
+     *
+     * @return true if this node takes part in an ongoing election, otherwise false.
+     */
+    boolean isParticipant();
+
+    /**
+     * Ends the participation of this node in the election, after a new king was elected.
+     */
+    void electionIsOver();
+}
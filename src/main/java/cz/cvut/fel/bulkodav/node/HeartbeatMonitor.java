@@ -0,0 +1,84 @@
+package cz.cvut.fel.bulkodav.node;
+
+import cz.cvut.fel.bulkodav.communication.CommunicationLink;
+import cz.cvut.fel.bulkodav.communication.NodeInfo;
+import org.apache.log4j.Logger;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The {@link HeartbeatMonitor} class is a thread which asks the nodes watched by a node for heartbeats
+ * and handles the death of a node as soon as its phi accrual suspicion level crosses the threshold,
+ * so that a dead node is removed before a message to it fails.
+ */
+class HeartbeatMonitor extends Thread
+{
+    private final Node node;
+    private final Set<CommunicationLink> suspected = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final static Logger logger = Logger.getLogger(HeartbeatMonitor.class);
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.HeartbeatMonitor} class.
+     *
+     * @param node The node whose watched nodes are monitored.
+     */
+    HeartbeatMonitor(Node node)
+    {
+        super("heartbeat-monitor");
+        setDaemon(true);
+        this.node = node;
+    }
+
+    /**
+     * Asks the watched nodes for heartbeats in the configured interval while the node is logged in.
+     */
+    @Override
+    public void run()
+    {
+        NodeSettings settings = node.getSettings();
+        long interval = settings.getHeartbeatInterval();
+        if (interval <= 0) return;
+        while (node.isLoggedIn())
+        {
+            try
+            {
+                Thread.sleep(interval);
+            } catch (InterruptedException e)
+            {
+                return;
+            }
+            List<CommunicationLink> links = node.getWatchedLinks();
+            suspected.retainAll(links);
+            for (CommunicationLink link : links)
+            {
+                double suspicion = link.getSuspicion();
+                if (suspicion > settings.getSuspicionThreshold() && suspected.add(link))
+                {
+                    suspect(link.getInfo(), suspicion);
+                } else
+                {
+                    link.sendHeartbeat(interval);
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles the death of the suspected node. The handling may wait for other nodes, so it runs on its own thread
+     * and the heartbeats of the other nodes are not delayed.
+     *
+     * @param nodeInfo  The info about the suspected node.
+     * @param suspicion The suspicion level of the node.
+     */
+    private void suspect(NodeInfo nodeInfo, double suspicion)
+    {
+        logger.info("Node " + node.getNodeInfo() + "\n - " + nodeInfo.getName() + " did not send a heartbeat for too long" +
+                " (phi " + String.format("%.1f", suspicion) + "), handling their death.\n");
+        Thread thread = new Thread(() -> node.handleNodeDeath(nodeInfo), "suspected-" + nodeInfo.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,196 @@
+package cz.cvut.fel.bulkodav.node;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The {@link HirschbergSinclairElection} class elects the new king by probing both sides of every candidate.
+ * In the phase k a candidate sends a probe with its election key to both sides up to the distance 2^k. A node with
+ * a bigger key swallows the probe, otherwise the probe goes on and the last node of the distance sends a reply back. A candidate
+ * which gets both replies goes on to the next phase, so the number of candidates halves in every phase and
+ * the election takes O(n log n) messages.
+ * <p>
+ * The dead king is the end of the ring on both sides. A probe which would go to the dead king is answered
+ * by a reply which says that the end was reached, and the side is not probed any more. The candidate whose
+ * both sides reached the end has the biggest key and wins.
+ * <p>
+ * The content of a probe is {@link #PROBE}, the key, the phase and the distance it went. The content of a reply
+ * is {@link #REPLY}, the key, the phase and 1 if the end was reached, otherwise 0.
+ */
+class HirschbergSinclairElection implements ElectionStrategy
+{
+    final static String PROBE = "probe";
+    final static String REPLY = "reply";
+
+    private final static Logger logger = Logger.getLogger(HirschbergSinclairElection.class);
+    private final ElectionRing ring;
+    private boolean isParticipant;
+    private boolean isCandidate;
+    private int phase;
+    private boolean leftReplied;
+    private boolean rightReplied;
+    private boolean leftEnded;
+    private boolean rightEnded;
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.HirschbergSinclairElection} class.
+     *
+     * @param ring The ring as seen by this node.
+     */
+    HirschbergSinclairElection(ElectionRing ring)
+    {
+        this.ring = ring;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void startElection()
+    {
+        if (start()) crown();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The king which logs off sends just the id of the node it chose, which then starts the election.
+     * A node which did not take part in the election yet becomes a candidate if it gets a probe of a smaller key.
+     */
+    @Override
+    public void handleElectionMessage(String content, String senderName, boolean sentByKing)
+    {
+        if (handle(content, senderName, sentByKing)) crown();
+    }
+
+    /**
+     * Makes this node a candidate unless it already takes part in the election.
+     *
+     * @return true if this node won the election.
+     */
+    private synchronized boolean start()
+    {
+        if (isParticipant) return false;
+        isParticipant = true;
+        isCandidate = true;
+        phase = 0;
+        String kingName = ring.getKingsName();
+        leftEnded = ring.getLeftName().equals(kingName);
+        rightEnded = ring.getNextHop(ring.getLeftName()).equals(kingName);
+        return probe();
+    }
+
+    /**
+     * Handles a probe or a reply.
+     *
+     * @param content    The content of the message.
+     * @param senderName The name of the neighbour which sent the message.
+     * @param sentByKing Whether the message was sent by the king which logs off.
+     * @return true if this node won the election.
+     */
+    private synchronized boolean handle(String content, String senderName, boolean sentByKing)
+    {
+        String[] parts = content.split(" ");
+        if (sentByKing || parts.length != 4) return start();
+        long key = Long.parseLong(parts[1]);
+        int messagePhase = Integer.parseInt(parts[2]);
+        long myKey = ring.getMyKey();
+        if (parts[0].equals(PROBE))
+        {
+            if (key < myKey) return start();
+            isParticipant = true;
+            // the probe went around a ring without the king
+            if (key == myKey) return win();
+            isCandidate = false;
+            int distance = Integer.parseInt(parts[3]);
+            String nextHop = ring.getNextHop(senderName);
+            if (distance >= 1L << messagePhase)
+            {
+                ring.send(senderName, REPLY + " " + key + " " + messagePhase + " 0");
+            } else if (nextHop.equals(ring.getKingsName()))
+            {
+                ring.send(senderName, REPLY + " " + key + " " + messagePhase + " 1");
+            } else
+            {
+                ring.send(nextHop, PROBE + " " + key + " " + messagePhase + " " + (distance + 1));
+            }
+        } else if (key != myKey)
+        {
+            ring.send(ring.getNextHop(senderName), content);
+        } else if (isCandidate && messagePhase == phase)
+        {
+            boolean ended = parts[3].equals("1");
+            if (senderName.equals(ring.getLeftName()))
+            {
+                leftReplied = true;
+                leftEnded |= ended;
+            } else
+            {
+                rightReplied = true;
+                rightEnded |= ended;
+            }
+            if (!leftReplied || !rightReplied) return false;
+            phase++;
+            return probe();
+        }
+        return false;
+    }
+
+    /**
+     * Sends the probes of the current phase to the sides which did not reach the end yet.
+     * Wins the election if both sides reached the end.
+     *
+     * @return true if this node won the election.
+     */
+    private boolean probe()
+    {
+        if (leftEnded && rightEnded) return win();
+        leftReplied = leftEnded;
+        rightReplied = rightEnded;
+        String content = PROBE + " " + ring.getMyKey() + " " + phase + " 1";
+        String leftName = ring.getLeftName();
+        logger.info("Node " + ring.getMyInfo() + "\n - " + "probing in the phase " + phase + ".\n");
+        if (!leftEnded) ring.send(leftName, content);
+        if (!rightEnded) ring.send(ring.getNextHop(leftName), content);
+        return false;
+    }
+
+    /**
+     * Ends the candidacy of this node, which won the election.
+     *
+     * @return true if this node was a candidate, false if it already won.
+     */
+    private boolean win()
+    {
+        if (!isCandidate) return false;
+        isCandidate = false;
+        return true;
+    }
+
+    /**
+     * Makes this node the new king. It is done outside of the lock, so the messages of the election
+     * which come meanwhile are not blocked.
+     */
+    private void crown()
+    {
+        logger.info("Node " + ring.getMyInfo() + "\n - " + "I am the new king!\n");
+        ring.win();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isParticipant()
+    {
+        return isParticipant;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void electionIsOver()
+    {
+        isParticipant = false;
+        isCandidate = false;
+    }
+}
@@ -4,11 +4,12 @@ import cz.cvut.fel.bulkodav.communication.CommunicationLink;
 import cz.cvut.fel.bulkodav.communication.Message;
 import cz.cvut.fel.bulkodav.communication.NodeInfo;
 import cz.cvut.fel.bulkodav.communication.TopologyInfo;
-import cz.cvut.fel.bulkodav.exceptions.CommunicationException;
 import cz.cvut.fel.bulkodav.exceptions.OperationException;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static cz.cvut.fel.bulkodav.communication.MessageType.*;
 import static cz.cvut.fel.bulkodav.node.ConnectionState.online;
@@ -45,13 +46,24 @@ public class KingHandler implements MessageHandler
         CommunicationLink kingsRightNode = kingLogic.getRightNode();
         NodeInfo rightNodeId = kingsRightNode == null ? myInfo : kingsRightNode.getInfo();
 
-        if (kingLogic.getNodeNames().contains(senderName) || senderName.equals(myInfo.getName()))
+        if (kingLogic.hasNodeNamed(senderName) || senderName.equals(myInfo.getName()))
         {
             messageSender.sendMessage(new Message("name", null, myInfo, REJECT));
             return;
         }
 
+        ShardBridge bridge = king.getBridge();
+        if (bridge != null && bridge.isFull(king))
+        {
+            logger.info("Node " + myInfo + "\n - the shard is full, sending " + senderName + " to another shard.\n");
+            messageSender.sendMessage(new Message(ShardBridge.FULL + bridge.getOtherShards(), null, myInfo, REJECT));
+            return;
+        }
+
+        boolean framed = king.getSettings().isFraming() &&
+                message.getContent().endsWith(" " + CommunicationLink.FRAMES_TOKEN);
         String messageContent = messageSender.serializeId(rightNodeId);
+        if (framed) messageContent += " " + CommunicationLink.FRAMES_TOKEN;
         messageSender.sendMessage(new Message(messageContent, newNodeId, myInfo, GREETINGS));
 
         try
@@ -59,8 +71,15 @@ public class KingHandler implements MessageHandler
             Message response = messageSender.readMessage();
             if (response.getMessageType() == CONFIRM)
             {
-                kingLogic.addNode(new CommunicationLink(newNodeId));
-                messageSender.sendMessage(new Message(kingLogic.getOnlineUsers(senderName),
+                CommunicationLink newNode = king.connectTo(newNodeId);
+                newNode.setFramed(framed);
+                if (framed)
+                {
+                    int sendWindow = king.getSettings().getSendWindow();
+                    newNode.openSendWindow(sendWindow, 8 * sendWindow);
+                }
+                kingLogic.addNode(newNode, NodeCapacity.parse(message.getContent()));
+                messageSender.sendMessage(new Message(kingLogic.getOnlineUsers(),
                         newNodeId, myInfo, ONLINE_USERS));
             } else return;
 
@@ -82,7 +101,6 @@ public class KingHandler implements MessageHandler
     {
         NodeInfo newNodeInfo = newNode.getInfo();
         int newNodeId = newNodeInfo.hashCode();
-        NodeInfo currentNodeInfo = null;
         try
         {
             if (kingsRightNode != null)
@@ -90,7 +108,6 @@ public class KingHandler implements MessageHandler
                 NodeInfo rightNodeInfo = kingsRightNode.getInfo();
                 if (rightNodeInfo.hashCode() != newNodeId)
                 {
-                    currentNodeInfo = rightNodeInfo;
                     kingsRightNode.sendMessage(new Message(kingsRightNode.serializeId(newNodeInfo),
                             rightNodeInfo, myInfo, TOPOLOGY_CHANGED));
                 }
@@ -99,18 +116,36 @@ public class KingHandler implements MessageHandler
             UserStateChange userStateChange = king.userChanged(newNodeInfo.getName(), online);
             king.refreshUi(userStateChange);
 
-            for (CommunicationLink node : king.getKingLogic().getAllNodes())
+            // the other nodes get only the change, the new node has no view of the ring yet
+            KingLogic kingLogic = king.getKingLogic();
+            UserStateChange change = kingLogic.getUserChange(newNodeInfo.getName(), online);
+            UserStateChange state = kingLogic.getTopologyState(newNodeInfo.getName(), online);
+            String announcement = "on ".concat(newNodeInfo.getName());
+            // the change is pushed to every node without waiting for any of them,
+            // the nodes without frames confirm the greeting they get instead and are waited for afterwards
+            List<CommunicationLink> greetedNodes = new ArrayList<>();
+            for (CommunicationLink node : kingLogic.getAllNodes())
             {
-                currentNodeInfo = node.getInfo();
-                node.sendMessage(new Message(newNodeInfo.getName(), currentNodeInfo, myInfo, GREETINGS));
-                if (node.readMessage().getMessageType() != CONFIRM) continue;
-                node.sendUserChange(userStateChange);
+                if (node.isFramed())
+                {
+                    kingLogic.sendUserChange(node, announcement, node.getInfo().hashCode() == newNodeId ? state : change);
+                } else
+                {
+                    kingLogic.greetUser(node, newNodeInfo.getName(), online);
+                    greetedNodes.add(node);
+                }
             }
-        } catch (CommunicationException e)
-        {
-            king.handleNodeDeath(currentNodeInfo);
-            king.notifyUiAboutException("There was an error while updating data about other nodes. You might need to refresh it manually later.");
-        } catch (OperationException | IOException e)
+            for (CommunicationLink node : greetedNodes)
+            {
+                try
+                {
+                    node.readMessage();
+                } catch (IOException e)
+                {
+                    king.handleNodeDeath(node.getInfo());
+                }
+            }
+        } catch (OperationException e)
         {
             king.notifyUiAboutException("There was an error while updating data about other nodes. You might need to refresh it manually later.");
         }
@@ -118,13 +153,54 @@ public class KingHandler implements MessageHandler
 
     /**
      * {@inheritDoc}
+     * The message is rejected while the king hands the ring over to its deputy.
      */
     @Override
     public void handleChatMessage(Message message, CommunicationLink messageSender)
     {
-        king.addNewMessage(message);
-        messageSender.sendMessage(new Message("", messageSender.getInfo(), myInfo, CONFIRM));
-        king.getKingLogic().forwardToAll(message.getContent(), message.getSender());
+        KingLogic kingLogic = king.getKingLogic();
+        if (kingLogic.isHandingOff())
+        {
+            messageSender.reply(message, new Message("", messageSender.getInfo(), myInfo, REJECT));
+            return;
+        }
+        messageSender.reply(message, new Message("", messageSender.getInfo(), myInfo, CONFIRM));
+        kingLogic.forwardToAll(message);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The king has already delivered the message when it sent it around the ring, so the message is only acknowledged.
+     */
+    @Override
+    public void handleRingChatMessage(Message message, CommunicationLink messageSender)
+    {
+        messageSender.acknowledge(message.getSequence());
+        logger.debug("Node " + myInfo + "\n - dropping a chat message of " + message.getSenderName() +
+                " which went around the ring.");
+    }
+
+    /**
+     * {@inheritDoc}
+     * The king is the root of the relay tree, so a relayed message can only come from an outdated tree.
+     * The king has already delivered the message, so it is only acknowledged.
+     */
+    @Override
+    public void handleRelayChatMessage(Message message, CommunicationLink messageSender)
+    {
+        messageSender.acknowledge(message.getSequence());
+        logger.debug("Node " + myInfo + "\n - dropping a chat message of " + message.getSenderName() +
+                " relayed by an outdated tree.");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleRetransmitMessage(Message message, CommunicationLink messageSender)
+    {
+        String[] orders = message.getContent().split(" ");
+        king.getKingLogic().retransmit(Long.parseLong(orders[0]), Long.parseLong(orders[1]), message.getSenderName());
     }
 
     /**
@@ -133,18 +209,17 @@ public class KingHandler implements MessageHandler
     @Override
     public void handleMapTopologyMessage(Message message, CommunicationLink messageSender)
     {
-        try
+        UserStateChange state = king.getKingLogic().getTopologyState(null, null);
+        String builder = "";
+        if (UserStateChange.EPOCH_TOKEN.equals(message.getContent()))
         {
-            String builder = "";
-            for (TopologyInfo info : king.getTopologyInfo())
-            {
-                builder = builder.concat(messageSender.serializeTopologyInfo(info) + " ");
-            }
-            messageSender.sendMessage(new Message(builder.trim(), messageSender.getInfo(), myInfo, CONFIRM));
-        } catch (OperationException e)
+            builder = state.getEpoch() + " " + (state.isFramed() ? CommunicationLink.FRAMES_TOKEN + " " : "");
+        }
+        for (TopologyInfo info : state.getCurrentTopologyInfos())
         {
-            messageSender.sendMessage(new Message("", messageSender.getInfo(), myInfo, REJECT));
+            builder = builder.concat(messageSender.serializeTopologyInfo(info) + " ");
         }
+        messageSender.reply(message, new Message(builder.trim(), messageSender.getInfo(), myInfo, CONFIRM));
     }
 
     /**
@@ -169,7 +244,7 @@ public class KingHandler implements MessageHandler
     @Override
     public void handleOnlineUsersMessage(Message message, CommunicationLink messageSender)
     {
-        messageSender.sendMessage(new Message(king.getKingLogic().getOnlineUsers(messageSender.getName()),
+        messageSender.reply(message, new Message(king.getKingLogic().getOnlineUsers(),
                 messageSender.getInfo(), myInfo, ONLINE_USERS));
     }
 
@@ -197,6 +272,44 @@ public class KingHandler implements MessageHandler
     @Override
     public void handleNameMessage(Message message, CommunicationLink messageSender)
     {
-        messageSender.sendMessage(new Message(king.getNodeName(), messageSender.getInfo(), myInfo, NAME));
+        messageSender.reply(message, new Message(king.getNodeName(), messageSender.getInfo(), myInfo, NAME));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleDeputyMessage(Message message, CommunicationLink messageSender)
+    {
+        //ignored
+    }
+
+    /**
+     * {@inheritDoc}
+     * The deputy which missed a change of the ring gets the whole ring.
+     */
+    @Override
+    public void handleReplicaMessage(Message message, CommunicationLink messageSender)
+    {
+        String replica = king.getKingLogic().getReplica(messageSender);
+        messageSender.reply(message, new Message(replica, messageSender.getInfo(), myInfo, REPLICA));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleSuccessionMessage(Message message, CommunicationLink messageSender)
+    {
+        //ignored
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleHandoffMessage(Message message, CommunicationLink messageSender)
+    {
+        //ignored
     }
 }
@@ -1,13 +1,12 @@
 package cz.cvut.fel.bulkodav.node;
 
 import cz.cvut.fel.bulkodav.communication.*;
-import cz.cvut.fel.bulkodav.exceptions.CommunicationException;
 import cz.cvut.fel.bulkodav.exceptions.OperationException;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
 
 import static cz.cvut.fel.bulkodav.communication.MessageType.*;
 import static cz.cvut.fel.bulkodav.node.ConnectionState.offline;
@@ -18,8 +17,14 @@ import static cz.cvut.fel.bulkodav.node.ConnectionState.offline;
 public class KingLogic implements NodeLogic
 {
     private final Node node;
-    private List<Integer> nodeIds;
-    private Map<Integer, CommunicationLink> allNodes;
+    private final RingIndex<CommunicationLink> ring;
+    private final byte[][] encodedHistory;
+    private long lastOrder;
+    private boolean handingOff;
+    private final TopologyTable topology;
+    private CommunicationLink deputy;
+    private final Map<Integer, Integer> capacities = new HashMap<>();
+    private volatile int nodesWithoutWindow;
     private final NodeInfo myInfo;
     private final static Logger logger = Logger.getLogger(KingLogic.class);
 
@@ -32,18 +37,22 @@ public class KingLogic implements NodeLogic
     {
         this.node = node;
         this.myInfo = node.getNodeInfo();
-        nodeIds = new ArrayList<>();
-        allNodes = new HashMap<>();
+        ring = new RingIndex<>();
+        encodedHistory = new byte[Math.max(1, node.getSettings().getChatHistory())][];
+        lastOrder = node.getLastChatOrder();
+        topology = new TopologyTable(myInfo.getName());
     }
 
     /**
      * {@inheritDoc}
      */
-    public String handleNodeDeath(NodeInfo deadNode)
+    public synchronized String handleNodeDeath(NodeInfo deadNode)
     {
-        int deadNodeIndex = nodeIds.indexOf(deadNode.hashCode());
-        CommunicationLink leftOfDead = getNodeByIndex(deadNodeIndex - 1);
-        CommunicationLink rightOfDead = getNodeByIndex(deadNodeIndex + 1);
+        int deadNodeId = deadNode.hashCode();
+        // the death may be discovered by the heartbeats and by a failed message at once
+        if (!ring.contains(deadNodeId)) return deadNode.getName();
+        CommunicationLink leftOfDead = ring.getBefore(deadNodeId);
+        CommunicationLink rightOfDead = ring.getAfter(deadNodeId);
 
         notifyNeighbourOfDead(deadNode, leftOfDead, rightOfDead);
         notifyNeighbourOfDead(deadNode, rightOfDead, leftOfDead);
@@ -60,7 +69,7 @@ public class KingLogic implements NodeLogic
     public void closeCommunicationWithNodes()
     {
         logger.info("Node " + myInfo + "\n - closing communication with other nodes in the ring.\n");
-        for (CommunicationLink node : allNodes.values())
+        for (CommunicationLink node : ring.getValues())
         {
             node.close();
         }
@@ -71,52 +80,27 @@ public class KingLogic implements NodeLogic
      */
     public CommunicationLink getLeftNode()
     {
-        if (allNodes.size() == 0)
-        {
-            return null;
-        }
-        try
-        {
-            return allNodes.get(nodeIds.get(0));
-        } catch (Exception e)
-        {
-            return null;
-        }
+        return ring.getFirst();
     }
 
     /**
      * {@inheritDoc}
+     * The king answers from its table of the ring, the other nodes are not asked.
      */
     @Override
     public List<TopologyInfo> getTopologyInfo() throws OperationException
     {
-        List<TopologyInfo> list = new ArrayList<>();
-        int size = nodeIds.size();
-        String myName = myInfo.getName();
+        return topology.getSnapshot();
+    }
 
-        if (size != 0)
-        {
-            list.add(new TopologyInfo(myName, getLeftNode().getName(), getRightNode().getName()));
-            NodeInfo currentNodeInfo = null;
-            for (CommunicationLink node : allNodes.values())
-            {
-                try
-                {
-                    currentNodeInfo = node.getInfo();
-                    node.sendMessage(new Message("Send me your info", currentNodeInfo, myInfo, MessageType.MAP_TOPOLOGY));
-                    list.add(node.readTopologyInfo());
-                } catch (CommunicationException e)
-                {
-                    handleNodeDeath(currentNodeInfo);
-                    throw new OperationException("Node " + myInfo + "\n - Failed to get the topology. " +
-                            currentNodeInfo.getName() + " disconnected unexpectedly. Try again later.");
-                }
-            }
-        } else
-        {
-            list.add(new TopologyInfo(myName, myName, myName));
-        }
-        return list;
+    /**
+     * Gets the version of the topology, which grows with every change of the ring.
+     *
+     * @return The version of the topology.
+     */
+    long getTopologyVersion()
+    {
+        return topology.getVersion();
     }
 
     /**
@@ -125,7 +109,7 @@ public class KingLogic implements NodeLogic
     @Override
     public void sendMessage(String text)
     {
-        forwardToAll(text, myInfo);
+        forwardToAll(new Message(text, null, myInfo, CHAT));
     }
 
     /**
@@ -133,17 +117,7 @@ public class KingLogic implements NodeLogic
      */
     public CommunicationLink getRightNode()
     {
-        if (allNodes.size() == 0)
-        {
-            return null;
-        }
-        try
-        {
-            return allNodes.get(nodeIds.get(nodeIds.size() - 1));
-        } catch (Exception e)
-        {
-            return null;
-        }
+        return ring.getLast();
     }
 
     /**
@@ -167,13 +141,14 @@ public class KingLogic implements NodeLogic
     }
 
     /**
-     * Gets the list of names of connected node.
+     * Gets whether a node with the name is connected.
      *
-     * @return The list of names of connected node.
+     * @param name The name of the node.
+     * @return true if a node with the name is connected, otherwise false.
      */
-    List<String> getNodeNames()
+    boolean hasNodeNamed(String name)
     {
-        return allNodes.values().stream().map(CommunicationLink::getName).collect(Collectors.toList());
+        return ring.containsName(name);
     }
 
     /**
@@ -184,7 +159,7 @@ public class KingLogic implements NodeLogic
      */
     CommunicationLink getNodeByName(String name)
     {
-        return getNodeById(Objects.hash(name));
+        return ring.getByName(name);
     }
 
     /**
@@ -194,153 +169,427 @@ public class KingLogic implements NodeLogic
      */
     List<CommunicationLink> getAllNodes()
     {
-        return new ArrayList<>(allNodes.values());
+        return ring.getValues();
     }
 
     /**
-     * Gets the names of online users separated by a comma and a space.
+     * Gets the names of online users separated by a comma and a space. The names are read from the roster,
+     * which is kept up to date as the nodes join and die, the nodes are not asked.
      *
-     * @param senderName the name of the node that request to know online users.
      * @return The names of online users separated by a comma and a space.
      */
-    String getOnlineUsers(String senderName)
+    String getOnlineUsers()
+    {
+        return topology.getRoster();
+    }
+
+    /**
+     * Adds a new node.
+     *
+     * @param communicationLink The object for the communication with the node.
+     */
+    void addNode(CommunicationLink communicationLink)
+    {
+        addNode(communicationLink, 0);
+    }
+
+    /**
+     * Adds a new node which advertised its capacity.
+     *
+     * @param communicationLink The object for the communication with the node.
+     * @param capacity          The capacity score advertised by the node, see {@link NodeCapacity}.
+     */
+    synchronized void addNode(CommunicationLink communicationLink, int capacity)
+    {
+        capacities.put(communicationLink.getInfo().hashCode(), capacity);
+        NodeInfo nodeInfo = communicationLink.getInfo();
+        boolean added = ring.add(nodeInfo.hashCode(), communicationLink.getName(), communicationLink);
+        assert added;
+        if (!communicationLink.hasSendWindow()) nodesWithoutWindow++;
+        updateTopology();
+        replicate(KingReplica.ADD + " " + communicationLink.serializeId(nodeInfo));
+        if (!updateDeputy() && deputy != null && communicationLink.isFramed())
+            communicationLink.sendMessage(new Message(communicationLink.serializeId(deputy.getInfo()), nodeInfo, myInfo,
+                    DEPUTY));
+    }
+
+    /**
+     * Removes a node by its id.
+     *
+     * @param id The id of the node to be removed.
+     */
+    private void removeNodeById(int id)
+    {
+        CommunicationLink removedNode = ring.remove(id);
+        if (removedNode == null) return;
+        capacities.remove(id);
+        if (!removedNode.hasSendWindow()) nodesWithoutWindow--;
+        updateTopology();
+        replicate(KingReplica.REMOVE + " " + removedNode.serializeId(removedNode.getInfo()));
+        updateDeputy();
+        removedNode.close();
+    }
+
+    /**
+     * Appoints a new deputy if the ring needs one, or dismisses the deputy if the ring cannot have one.
+     * Only a ring of nodes which understand frames has a deputy, the other nodes would not know about it.
+     * The most capable node becomes the deputy and stays so until it leaves the ring. The new deputy gets
+     * the whole ring and all the framed nodes are told who the deputy is.
+     *
+     * @return true if the deputy changed, otherwise false.
+     */
+    private boolean updateDeputy()
     {
-        List<String> users = new ArrayList<>();
-        for (CommunicationLink node : allNodes.values())
+        CommunicationLink chosen = null;
+        if (node.getSettings().isDeputy() && nodesWithoutWindow == 0)
         {
-            NodeInfo currentNodeInfo = node.getInfo();
-            if (currentNodeInfo.getName().equals(senderName))
-            {
-                users.add(senderName);
-            } else
-            {
-                node.sendMessage(new Message("Checking if you are alive", currentNodeInfo, myInfo, NAME));
-                try
-                {
-                    users.add(node.readMessage().getContent());
-                } catch (IOException e)
-                {
-                    handleNodeDeath(currentNodeInfo);
-                    logger.error("Node " + myInfo + "\n - " + currentNodeInfo.getName() + " disconnected unexpectedly.");
-                }
-            }
+            chosen = deputy != null && ring.get(deputy.getInfo().hashCode()) == deputy ? deputy : getMostCapable();
+        }
+        if (chosen == deputy) return false;
+        deputy = chosen;
+        if (chosen != null)
+        {
+            chosen.sendMessage(new Message(getReplica(chosen), chosen.getInfo(), myInfo, REPLICA));
+            logger.info("Node " + myInfo + "\n - " + chosen.getName() + " is the deputy.\n");
+        } else logger.info("Node " + myInfo + "\n - the ring has no deputy.\n");
+
+        for (CommunicationLink node : ring.getValues())
+        {
+            if (!node.isFramed()) continue;
+            String content = chosen == null ? "" : node.serializeId(chosen.getInfo());
+            node.sendMessage(new Message(content, node.getInfo(), myInfo, DEPUTY));
         }
-        users.add(0, myInfo.getName());
-        return String.join(", ", users);
+        return true;
     }
 
     /**
-     * Gets the object for the communication with a node by the node's id.
+     * Sends a change of the ring to the deputy.
      *
-     * @param id The id of the node.
-     * @return The object for communication with a node.
+     * @param change The change without the epoch.
+     */
+    private void replicate(String change)
+    {
+        if (deputy != null)
+            deputy.sendMessage(new Message(topology.getVersion() + " " + change, deputy.getInfo(), myInfo, REPLICA));
+    }
+
+    /**
+     * Gets the whole ring to be replicated to the deputy, with the current epoch.
+     *
+     * @param serializer The link which serializes the ids of the nodes.
+     * @return The content of the replica message with the whole ring.
+     */
+    synchronized String getReplica(CommunicationLink serializer)
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append(topology.getVersion()).append(' ').append(KingReplica.ALL);
+        for (CommunicationLink node : ring.getValues())
+        {
+            builder.append(' ').append(serializer.serializeId(node.getInfo()));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Creates a new version of the topology table from the current order of the nodes in the ring.
+     */
+    private void updateTopology()
+    {
+        topology.update(myInfo.getName(), ring.getNames(), nodesWithoutWindow == 0);
+    }
+
+    /**
+     * Gets the node with the biggest capacity advertised when it joined, or with the biggest id if the capacities
+     * are the same.
+     *
+     * @return The most capable node, or null if the ring is empty.
+     */
+    private synchronized CommunicationLink getMostCapable()
+    {
+        CommunicationLink mostCapable = null;
+        long biggestKey = Long.MIN_VALUE;
+        for (CommunicationLink node : ring.getValues())
+        {
+            int id = node.getInfo().hashCode();
+            long key = NodeCapacity.electionKey(capacities.getOrDefault(id, 0), id);
+            if (key <= biggestKey) continue;
+            biggestKey = key;
+            mostCapable = node;
+        }
+        return mostCapable;
+    }
+
+    /**
+     * Finds out the most capable node and sends it a message that this king is logging off.
      */
-    private CommunicationLink getNodeById(Integer id)
+    void tryToFindNextKing()
     {
-        if (allNodes.size() == 0)
+        CommunicationLink nextKing = getMostCapable();
+        if (nextKing != null)
         {
-            return null;
+            nextKing.sendMessage(new Message(
+                    Integer.toString(nextKing.getInfo().hashCode()), nextKing.getInfo(), myInfo, KING_IS_DEAD));
         }
+    }
+
+    /**
+     * Hands the ring over to the deputy when the king logs off. The king stops numbering the chat messages
+     * and the deputy goes on with the next number, so the nodes keep the order of the chat. The whole ring is sent
+     * to the deputy before the handoff, so the deputy takes over from an up to date replica without an election and
+     * without walking the ring. The king waits until the deputy has told all the nodes that it took over.
+     *
+     * @return true if the deputy took over, false if there is no deputy or it did not take over in time.
+     */
+    boolean handOff()
+    {
+        CommunicationLink successor;
+        synchronized (this)
+        {
+            successor = deputy;
+            if (successor == null) return false;
+            successor.sendMessage(new Message(getReplica(successor), successor.getInfo(), myInfo, REPLICA));
+        }
+        long order;
+        synchronized (encodedHistory)
+        {
+            handingOff = true;
+            order = lastOrder;
+        }
+        logger.info("Node " + myInfo + "\n - handing the ring over to " + successor.getName() + ".\n");
         try
         {
-            return allNodes.get(id);
-        } catch (Exception e)
+            Message response = successor.request(new Message(Long.toString(order), successor.getInfo(), myInfo,
+                    HANDOFF), 2 * node.getSettings().getRequestTimeout()).get();
+            return response.getMessageType() == CONFIRM;
+        } catch (ExecutionException e)
+        {
+            logger.info("Node " + myInfo + "\n - " + successor.getName() + " did not take over.\n");
+            return false;
+        } catch (InterruptedException e)
         {
-            return null;
+            Thread.currentThread().interrupt();
+            return false;
         }
     }
 
     /**
-     * Adds a new node.
+     * Gets whether the king hands the ring over and does not number the chat messages any more.
      *
-     * @param communicationLink The object for the communication with the node.
+     * @return true if the king hands the ring over, otherwise false.
      */
-    void addNode(CommunicationLink communicationLink)
+    boolean isHandingOff()
     {
-        int nodeId = communicationLink.getInfo().hashCode();
-        assert !nodeIds.contains(nodeId);
-        nodeIds.add(nodeId);
-        allNodes.put(nodeId, communicationLink);
+        synchronized (encodedHistory)
+        {
+            return handingOff;
+        }
     }
 
     /**
-     * Removes a node by its id.
+     * Goes on with the numbering of the chat messages of the previous king, which handed the ring over.
      *
-     * @param id The id of the node to be removed.
+     * @param order The order of the last chat message numbered by the previous king.
      */
-    private void removeNodeById(Integer id)
+    void continueOrder(long order)
     {
-        if (allNodes.size() == 0)
+        synchronized (encodedHistory)
         {
-            return;
+            lastOrder = Math.max(lastOrder, order);
         }
-        nodeIds.remove(id);
-        CommunicationLink removedNode = allNodes.remove(id);
-        removedNode.close();
     }
 
     /**
-     * Get's the node by it's index in the list of all nodes.
+     * Numbers a chat message and sends it to all other nodes. The king is the sequencer of the chat, every node
+     * displays the chat messages in the order of their numbers. The message is numbered and handed to the links
+     * under one lock, so every link carries the messages in the order of their numbers.
+     * <p>
+     * The message is pushed to all the nodes before waiting for anything. The nodes with a send window get the
+     * message, the sender included, with its number in the header of the frame, and acknowledge the messages
+     * asynchronously in batches. The other nodes do not understand the numbering, they get the message without it,
+     * except the sender, and are waited for after the message was sent to everybody. All the nodes get the message
+     * serialized the way its sender sent it, so the king does not serialize a chat message it only forwards.
      *
-     * @param index The index of the node.
-     * @return The object for communication with a node, or null if there are no nodes, or the index is out of range.
+     * @param message The chat message.
      */
-    private CommunicationLink getNodeByIndex(int index)
+    void forwardToAll(Message message)
     {
-        if (allNodes.size() == 0)
+        List<CommunicationLink> unconfirmedNodes = new ArrayList<>();
+        List<NodeInfo> deadNodes = new ArrayList<>();
+        byte[] encoded = message.getEncoded() != null ? message.getEncoded() : CommunicationLink.encode(message);
+        if (encoded == null) return;
+        synchronized (encodedHistory)
         {
-            return null;
+            if (handingOff)
+            {
+                logger.info("Node " + myInfo + "\n - dropping a chat message of " + message.getSenderName() +
+                        ", the ring is being handed over.\n");
+                return;
+            }
+            // the copy reads the content only when the king displays the message, not to forward it
+            Message orderedMessage = message.copy(CHAT, ++lastOrder, null);
+            encodedHistory[(int) (lastOrder % encodedHistory.length)] = encoded;
+            node.addNewMessage(orderedMessage);
+
+            Dissemination dissemination = node.getSettings().getDissemination();
+            if (dissemination == Dissemination.TREE && everyNodeHasSendWindow())
+            {
+                relay(orderedMessage, getRelayOrder(), deadNodes);
+            } else if (dissemination != Dissemination.RING || !everyNodeHasSendWindow() ||
+                    !sendAroundRing(orderedMessage))
+            {
+                sendToAll(orderedMessage, encoded, unconfirmedNodes, deadNodes);
+            }
         }
-        try
+
+        for (CommunicationLink node : unconfirmedNodes)
         {
-            return allNodes.get(nodeIds.get(index));
-        } catch (Exception e)
+            try
+            {
+                node.readMessage();
+            } catch (IOException e)
+            {
+                deadNodes.add(node.getInfo());
+            }
+        }
+
+        for (NodeInfo deadNode : deadNodes)
         {
-            return null;
+            handleNodeDeath(deadNode);
+            logger.error("Node " + myInfo + "\n - Failed to forward message to: " +
+                    deadNode.getName() + ", they disconnected unexpectedly.");
         }
     }
 
     /**
-     * Finds out the node with the biggest id and sends it a message that this king is logging off.
+     * Sends a numbered chat message to every node directly. The nodes with a send window get the number
+     * in the header of the frame, the others get the message without it.
+     *
+     * @param message          The numbered chat message.
+     * @param encoded          The chat message serialized without its number.
+     * @param unconfirmedNodes The list to which the nodes which have to confirm the message are added.
+     * @param deadNodes        The list to which the nodes which did not get the message are added.
      */
-    void tryToFindNextKing()
+    private void sendToAll(Message message, byte[] encoded, List<CommunicationLink> unconfirmedNodes,
+                           List<NodeInfo> deadNodes)
     {
-        if (nodeIds.size() != 0)
+        NodeInfo senderInfo = message.getSender();
+        long acknowledgementTimeout = node.getSettings().getAcknowledgementTimeout();
+        for (CommunicationLink node : getAllNodes())
         {
-            int nextKingId = Collections.max(nodeIds);
-            CommunicationLink nextKing = allNodes.get(nextKingId);
-            nextKing.sendMessage(new Message(
-                    Integer.toString(nextKingId), nextKing.getInfo(), myInfo, KING_IS_DEAD));
+            NodeInfo nodeInfo = node.getInfo();
+            if (node.hasSendWindow())
+            {
+                if (!node.sendSequenced(encoded, message.getOrder()) || node.isStalled(acknowledgementTimeout))
+                    deadNodes.add(nodeInfo);
+            } else if (nodeInfo.hashCode() != senderInfo.hashCode())
+            {
+                node.sendEncoded(encoded);
+                unconfirmedNodes.add(node);
+            }
         }
     }
 
     /**
-     * Forwards a received chat message to all other nodes, except the sender.
+     * Sends the numbered chat messages which a node did not get once more. Only the messages which are still kept
+     * in the history are sent.
      *
-     * @param text       The content of the chat message.
-     * @param senderInfo The info about the sender.
+     * @param from The order of the first missing message.
+     * @param to   The order of the last missing message.
+     * @param name The name of the node which misses the messages.
      */
-    void forwardToAll(String text, NodeInfo senderInfo)
+    void retransmit(long from, long to, String name)
     {
-        for (CommunicationLink node : allNodes.values())
+        CommunicationLink node = getNodeByName(name);
+        if (node == null || !node.hasSendWindow()) return;
+        synchronized (encodedHistory)
         {
-            NodeInfo nodeInfo = node.getInfo();
-            if (nodeInfo.hashCode() != senderInfo.hashCode())
+            for (long order = Math.max(from, lastOrder - encodedHistory.length + 1); order <= Math.min(to, lastOrder);
+                 order++)
             {
-                node.sendMessage(new Message(text, nodeInfo, senderInfo, CHAT));
-                try
-                {
-                    node.readMessage();
-                } catch (IOException e)
-                {
-                    handleNodeDeath(nodeInfo);
-                    logger.error("Node " + myInfo + "\n - Failed to forward message to: " +
-                            nodeInfo.getName() + ", they disconnected unexpectedly.");
-                }
+                byte[] encoded = encodedHistory[(int) (order % encodedHistory.length)];
+                if (encoded != null) node.sendSequenced(encoded, order);
             }
         }
     }
 
+    /**
+     * Sends a chat message to the left node, which passes it on around the ring. The message is sent to every node,
+     * the sender of the message just does not display it again.
+     *
+     * @param message The chat message.
+     * @return true if the left node got the message, false if it should be sent to all the nodes directly.
+     */
+    private boolean sendAroundRing(Message message)
+    {
+        byte[] encoded = CommunicationLink.encode(message.copy(RING_CHAT, message.getOrder(), null));
+        CommunicationLink leftNode = getLeftNode();
+        if (encoded == null || leftNode == null) return false;
+
+        if (leftNode.sendSequenced(encoded) && !leftNode.isStalled(node.getSettings().getAcknowledgementTimeout()))
+            return true;
+
+        NodeInfo leftNodeInfo = leftNode.getInfo();
+        handleNodeDeath(leftNodeInfo);
+        logger.error("Node " + myInfo + "\n - Failed to send message around the ring through: " +
+                leftNodeInfo.getName() + ", they disconnected unexpectedly.");
+        return false;
+    }
+
+    /**
+     * Gets the nodes of the relay tree without the king in the breadth-first order. Every child of the king gets
+     * a chat message with the list of the nodes below it, which it relays the message to.
+     *
+     * @return The nodes of the relay tree.
+     */
+    private List<NodeInfo> getRelayOrder()
+    {
+        List<NodeInfo> nodes = new ArrayList<>();
+        for (CommunicationLink node : ring.getRelayOrder())
+        {
+            nodes.add(node.getInfo());
+        }
+        return nodes;
+    }
+
+    /**
+     * Relays a chat message to the children of the king in the tree of the given nodes. If a child does not get
+     * the message, the king relays it to the nodes below the child instead.
+     * The message is sent to every node, the sender of the message just does not display it again.
+     *
+     * @param message   The chat message.
+     * @param nodes     The nodes of the tree without the king in the breadth-first order.
+     * @param deadNodes The list to which the nodes which did not get the message are added.
+     */
+    private void relay(Message message, List<NodeInfo> nodes, List<NodeInfo> deadNodes)
+    {
+        long acknowledgementTimeout = node.getSettings().getAcknowledgementTimeout();
+        for (List<NodeInfo> subtree : RelayTree.split(nodes, node.getSettings().getRelayDegree()))
+        {
+            NodeInfo childInfo = subtree.get(0);
+            List<NodeInfo> below = new ArrayList<>(subtree.subList(1, subtree.size()));
+            CommunicationLink child = ring.get(childInfo.hashCode());
+            byte[] encoded = CommunicationLink.encode(message.copy(RELAY_CHAT, message.getOrder(), below));
+
+            if (child != null && encoded != null && child.sendSequenced(encoded) &&
+                    !child.isStalled(acknowledgementTimeout)) continue;
+
+            deadNodes.add(childInfo);
+            relay(message, below, deadNodes);
+        }
+    }
+
+    /**
+     * Gets whether all the nodes receive the chat messages through a send window. Only such nodes understand frames
+     * and can pass the chat messages on to other nodes. The nodes without a send window are counted as they join
+     * and leave, so the ring is not scanned for every message.
+     *
+     * @return true if the chat messages may be passed on by the nodes, otherwise false.
+     */
+    private boolean everyNodeHasSendWindow()
+    {
+        return ring.size() >= 2 && nodesWithoutWindow == 0;
+    }
+
     /**
      * Refreshes ui of the leader node so that it doesn't contain an information about dead node.
      * Also notifies other nodes to do so too.
@@ -348,24 +597,72 @@ public class KingLogic implements NodeLogic
      */
     void removeDeadNodeFromUi(String deadNodeName)
     {
-        try
-        {
-            logger.info("Node " + myInfo + "\n - " + deadNodeName + " logged off.\n");
-            UserStateChange userStateChange;
-            if (node.hasUi())
-            {
-                userStateChange = new UserStateChange(deadNodeName, offline, getTopologyInfo());
-                node.refreshUi(userStateChange);
-            } else userStateChange = new UserStateChange(deadNodeName, offline, null);
+        logger.info("Node " + myInfo + "\n - " + deadNodeName + " logged off.\n");
+        if (node.hasUi()) node.refreshUi(new UserStateChange(deadNodeName, offline, topology.getSnapshot()));
 
-            for (CommunicationLink node : getAllNodes())
-            {
-                node.sendMessage(new Message("off ".concat(deadNodeName), node.getInfo(), myInfo, ONLINE_USERS));
-                node.sendUserChange(userStateChange);
-            }
-        } catch (OperationException e)
+        UserStateChange userStateChange = getUserChange(deadNodeName, offline);
+        for (CommunicationLink node : getAllNodes())
         {
-            node.notifyUiAboutException(e.getMessage());
+            sendUserChange(node, "off ".concat(deadNodeName), userStateChange);
         }
     }
+
+    /**
+     * Gets the change of a user to be sent to the other nodes. It is only the change itself if it is the last change
+     * of the ring, otherwise it is the whole topology.
+     *
+     * @param userName        The name of the user.
+     * @param connectionState The connection state of the user.
+     * @return The change of the user with the current epoch.
+     */
+    UserStateChange getUserChange(String userName, ConnectionState connectionState)
+    {
+        return topology.getChange(userName, connectionState);
+    }
+
+    /**
+     * Gets the whole topology of the ring with the current epoch.
+     *
+     * @param userName        The name of the user whose change led to the current epoch, or null.
+     * @param connectionState The connection state of the user, or null.
+     * @return The whole topology of the ring with the current epoch.
+     */
+    UserStateChange getTopologyState(String userName, ConnectionState connectionState)
+    {
+        return topology.getState(userName, connectionState);
+    }
+
+    /**
+     * Sends a change of a user to a node, announced by an {@link MessageType#ONLINE_USERS} message. The node does not
+     * confirm the change, a node which missed a change asks for the whole topology when it sees the gap
+     * in the epochs. The nodes without frames might not know the epochs, so they always get the whole topology
+     * without the epoch.
+     *
+     * @param link            The node to send the change to.
+     * @param announcement    The content of the announcement, "on " or "off " followed by the name of the user.
+     * @param userStateChange The change of the user.
+     */
+    void sendUserChange(CommunicationLink link, String announcement, UserStateChange userStateChange)
+    {
+        if (!link.isFramed())
+            userStateChange = new UserStateChange(userStateChange.getUserName(), userStateChange.getConnectionState(),
+                    topology.getSnapshot());
+        link.sendUserChange(new Message(announcement, link.getInfo(), myInfo, ONLINE_USERS), userStateChange);
+    }
+
+    /**
+     * Tells a node without frames that a user came online. Such a node takes an {@link MessageType#ONLINE_USERS}
+     * message which does not announce a logoff for the list of the users, so it is greeted instead, it confirms
+     * the greeting and reads the whole topology after it. The greeting and the topology are written at once,
+     * so no chat message nor another greeting gets between them, the confirmation is read by the caller.
+     *
+     * @param link            The node to greet.
+     * @param userName        The name of the user who came online.
+     * @param connectionState The connection state of the user.
+     */
+    void greetUser(CommunicationLink link, String userName, ConnectionState connectionState)
+    {
+        link.sendUserChange(new Message(userName, link.getInfo(), myInfo, GREETINGS),
+                new UserStateChange(userName, connectionState, topology.getSnapshot()));
+    }
 }
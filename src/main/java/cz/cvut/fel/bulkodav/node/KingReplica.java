@@ -0,0 +1,76 @@
+package cz.cvut.fel.bulkodav.node;
+
+import cz.cvut.fel.bulkodav.communication.CommunicationLink;
+import cz.cvut.fel.bulkodav.communication.NodeInfo;
+
+import java.util.List;
+
+/**
+ * The {@link KingReplica} class holds the deputy's replica of the king's ring, so that the deputy can take over
+ * without walking the ring. The king sends its whole ring when it appoints the deputy and then every change
+ * of the ring with the epoch it leads to. If some change was missed, the whole ring has to be asked for.
+ * <p>
+ * The content of a {@link cz.cvut.fel.bulkodav.communication.MessageType#REPLICA} message is the epoch followed by
+ * {@link #ALL} and the ids of all the nodes in the order of the ring, by {@link #ADD} and the id of a node added to
+ * the end of the ring, or by {@link #REMOVE} and the id of a removed node.
+ */
+class KingReplica
+{
+    final static String ALL = "all";
+    final static String ADD = "+";
+    final static String REMOVE = "-";
+    /**
+     * The content of a {@link cz.cvut.fel.bulkodav.communication.MessageType#SUCCESSION} message,
+     * which says that the king logged off and handed the ring over to the deputy.
+     */
+    final static String HANDOFF = "handoff";
+
+    private final RingIndex<NodeInfo> ring = new RingIndex<>();
+    private long epoch;
+    private boolean complete;
+
+    /**
+     * Applies a change of the king's ring to the replica.
+     *
+     * @param content      The content of the replica message.
+     * @param deserializer The link which deserializes the ids of the nodes.
+     * @return true if the replica is up to date, false if some change was missed and the whole ring has to be asked for.
+     */
+    synchronized boolean apply(String content, CommunicationLink deserializer)
+    {
+        String[] parts = content.split(" ");
+        long changeEpoch = Long.parseLong(parts[0]);
+        if (parts[1].equals(ALL))
+        {
+            for (NodeInfo nodeInfo : ring.getValues()) ring.remove(nodeInfo.hashCode());
+            for (int i = 2; i < parts.length; i++)
+            {
+                NodeInfo nodeInfo = deserializer.deserializeId(parts[i]);
+                ring.add(nodeInfo.hashCode(), nodeInfo.getName(), nodeInfo);
+            }
+            epoch = changeEpoch;
+            complete = true;
+            return true;
+        }
+        // an older change is already contained in the replica
+        if (complete && changeEpoch <= epoch) return true;
+        if (!complete || changeEpoch != epoch + 1) return false;
+
+        NodeInfo nodeInfo = deserializer.deserializeId(parts[2]);
+        boolean applied = parts[1].equals(ADD) ? ring.add(nodeInfo.hashCode(), nodeInfo.getName(), nodeInfo)
+                : ring.remove(nodeInfo.hashCode()) != null;
+        if (!applied) return false;
+        epoch = changeEpoch;
+        return true;
+    }
+
+    /**
+     * Gets the nodes of the king's ring without the king, from the left node of the king to its right node.
+     *
+     * @return The nodes of the ring, or null if the whole ring was not replicated yet.
+     */
+    synchronized List<NodeInfo> getNodes()
+    {
+        return complete ? ring.getValues() : null;
+    }
+}
@@ -0,0 +1,349 @@
+package cz.cvut.fel.bulkodav.node;
+
+import cz.cvut.fel.bulkodav.communication.Message;
+import cz.cvut.fel.bulkodav.communication.NodeInfo;
+import cz.cvut.fel.bulkodav.exceptions.ConnectingException;
+import cz.cvut.fel.bulkodav.exceptions.OperationException;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link LoadGenerator} class measures a ring of real {@link Node}s under chat traffic. The nodes run
+ * in one JVM over the {@link TransportType#LOOPBACK} transport, the first one starts the network and the others
+ * connect to it as peasants, so the messages take the same code paths as in a real ring. The other settings
+ * are taken from the system properties.
+ * <p>
+ * The senders are spread evenly along the ring and together send the chat at the target rate. Every message
+ * carries the time it was due to be sent, so a sender which falls behind does not hide the delay. For every
+ * message delivered to a node other than its sender it reports the latency from that time, and it reports
+ * the delivered messages per second, the cpu time and the heap of the nodes and the bytes sent by the king.
+ * <p>
+ * Usage: {@code java -cp "target/DSV-1.0.jar:target/dependency/*" cz.cvut.fel.bulkodav.node.LoadGenerator [nodes]
+ * [senders] [rate] [seconds]}, after {@code mvn package dependency:copy-dependencies -DincludeScope=runtime}
+ */
+public class LoadGenerator
+{
+    private final static String ADDRESS = "127.0.0.1";
+    private final static int FIRST_PORT = 20000;
+    private final static String TOKEN = "load";
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<Recorder> recorders = new ArrayList<>();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final NodeSettings settings;
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.LoadGenerator} class.
+     *
+     * @param settings The settings of all the nodes.
+     */
+    private LoadGenerator(NodeSettings settings)
+    {
+        this.settings = settings;
+    }
+
+    /**
+     * Starts the king and connects the peasants to it one by one.
+     *
+     * @param size The number of the nodes, including the king.
+     * @throws ConnectingException if a node cannot join the ring.
+     */
+    private void startRing(int size) throws ConnectingException
+    {
+        NodeInfo kingsInfo = new NodeInfo(ADDRESS, FIRST_PORT, "node-0");
+        for (int i = 0; i < size; i++)
+        {
+            Node node = new Node(settings);
+            Recorder recorder = new Recorder("node-" + i);
+            node.setDeliveryListener(recorder::delivered);
+            NodeInfo myInfo = new NodeInfo(ADDRESS, FIRST_PORT + i, "node-" + i);
+            if (i == 0) node.startNewNetwork(myInfo);
+            else node.connectToRemoteKing(kingsInfo, myInfo);
+            node.setDaemon(true);
+            node.start();
+            nodes.add(node);
+            recorders.add(recorder);
+        }
+    }
+
+    /**
+     * Sends the chat from the senders at the target rate for the given time.
+     *
+     * @param senders The number of the nodes which send the chat.
+     * @param rate    The number of the chat messages sent every second by all the senders together.
+     * @param seconds The time the chat is sent for.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    private void sendChat(int senders, double rate, int seconds) throws InterruptedException
+    {
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(senders, runnable ->
+        {
+            Thread thread = new Thread(runnable, "load-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = (long) (TimeUnit.SECONDS.toNanos(1) * senders / rate);
+        long start = System.nanoTime();
+        List<ScheduledFuture<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < senders; i++)
+        {
+            Node sender = nodes.get((int) ((long) i * nodes.size() / senders));
+            long offset = period * i / senders;
+            tasks.add(executor.scheduleAtFixedRate(new Runnable()
+            {
+                private long count;
+
+                @Override
+                public void run()
+                {
+                    // a late run is stamped with the time it was due, not the time it got to run
+                    long due = start + offset + period * count++;
+                    try
+                    {
+                        sender.sendMessage(TOKEN + " " + due);
+                        sent.incrementAndGet();
+                    } catch (OperationException | RuntimeException e)
+                    {
+                        failed.incrementAndGet();
+                    }
+                }
+            }, offset, period, TimeUnit.NANOSECONDS));
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        for (ScheduledFuture<?> task : tasks) task.cancel(false);
+        executor.shutdown();
+        executor.awaitTermination(settings.getRequestTimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits until every node got every sent message, or until the request timeout passes.
+     *
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    private void awaitDeliveries() throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + settings.getRequestTimeout();
+        while (getDeliveries() < sent.get() * (nodes.size() - 1) && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Gets the number of the messages delivered to the nodes other than their senders.
+     *
+     * @return The number of the deliveries.
+     */
+    private long getDeliveries()
+    {
+        long deliveries = 0;
+        for (Recorder recorder : recorders) deliveries += recorder.size();
+        return deliveries;
+    }
+
+    /**
+     * Gets the cpu time of every node, spent by its thread which accepts the connections and by the shared threads
+     * of the loopback network while they handled the received messages of the node.
+     *
+     * @return The cpu times in nanoseconds, in the order of the nodes.
+     */
+    private long[] getCpuTimes()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        long[] cpuTimes = new long[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++)
+        {
+            Node node = nodes.get(i);
+            long nodeThread = bean.isThreadCpuTimeSupported() ? Math.max(0, bean.getThreadCpuTime(node.getId())) : 0;
+            cpuTimes[i] = nodeThread + node.getTransport().getCpuTime();
+        }
+        return cpuTimes;
+    }
+
+    /**
+     * Gets the cpu time of all the threads of the JVM.
+     *
+     * @return The cpu time in nanoseconds, or 0 if the JVM does not measure it.
+     */
+    private static long getTotalCpuTime()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!bean.isThreadCpuTimeSupported()) return 0;
+        long cpuTime = 0;
+        for (long id : bean.getAllThreadIds()) cpuTime += Math.max(0, bean.getThreadCpuTime(id));
+        return cpuTime;
+    }
+
+    /**
+     * Gets the used heap after a garbage collection.
+     *
+     * @return The used heap in bytes.
+     */
+    private static long getUsedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Gets a percentile of sorted values.
+     *
+     * @param sorted     The sorted values.
+     * @param percentile The percentile between 0 and 100.
+     * @return The value, or 0 if there are no values.
+     */
+    private static long percentile(long[] sorted, double percentile)
+    {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @param args The number of the nodes, the number of the senders, the number of the chat messages every second
+     *             and the time in seconds, 50 5 100 30 by default.
+     * @throws Exception if the ring cannot be started or the test is interrupted.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        Logger.getRootLogger().setLevel(Level.WARN);
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int senders = Math.min(size, args.length > 1 ? Integer.parseInt(args[1]) : 5);
+        double rate = args.length > 2 ? Double.parseDouble(args[2]) : 100;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+
+        NodeSettings settings = new NodeSettings();
+        settings.setTransport(TransportType.LOOPBACK);
+        LoadGenerator generator = new LoadGenerator(settings);
+        long heapBefore = getUsedHeap();
+        long joinStart = System.nanoTime();
+        generator.startRing(size);
+        long joinTime = System.nanoTime() - joinStart;
+        long heapOfRing = getUsedHeap() - heapBefore;
+        int threadsOfRing = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        Node king = generator.nodes.get(0);
+        long[] cpuBefore = generator.getCpuTimes();
+        long totalCpuBefore = getTotalCpuTime();
+        long kingBytesBefore = king.getTransport().getSentBytes();
+        long start = System.nanoTime();
+        generator.sendChat(senders, rate, seconds);
+        generator.awaitDeliveries();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long kingBytes = king.getTransport().getSentBytes() - kingBytesBefore;
+        long totalCpu = getTotalCpuTime() - totalCpuBefore;
+        long[] cpuAfter = generator.getCpuTimes();
+        long heapAfter = getUsedHeap() - heapBefore;
+
+        long[] peasantCpu = new long[size - 1];
+        for (int i = 1; i < size; i++) peasantCpu[i - 1] = cpuAfter[i] - cpuBefore[i];
+        Arrays.sort(peasantCpu);
+        List<Long> allLatencies = new ArrayList<>();
+        for (Recorder recorder : generator.recorders) recorder.addLatencies(allLatencies);
+        Collections.sort(allLatencies);
+        long[] latencies = allLatencies.stream().mapToLong(Long::longValue).toArray();
+        long sent = generator.sent.get();
+        long deliveries = latencies.length;
+
+        System.out.printf("%-28s %d, %d sending %.1f msg/s for %d s, %s dissemination%n", "nodes", size, senders,
+                rate, seconds, settings.getDissemination().name().toLowerCase());
+        System.out.printf("%-28s %.1f ms%n", "ring joined in", joinTime / 1e6);
+        System.out.printf("%-28s %d after joining, %d after the chat%n", "jvm threads", threadsOfRing,
+                ManagementFactory.getThreadMXBean().getThreadCount());
+        System.out.printf("%-28s %d sent, %d failed, %.1f msg/s%n", "chat messages", sent, generator.failed.get(),
+                sent / elapsed);
+        System.out.printf("%-28s %d of %d, %.1f msg/s%n", "deliveries", deliveries, sent * (size - 1),
+                deliveries / elapsed);
+        System.out.printf("%-28s p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n", "delivery latency ms",
+                percentile(latencies, 50) / 1e6, percentile(latencies, 90) / 1e6, percentile(latencies, 99) / 1e6,
+                percentile(latencies, 99.9) / 1e6, percentile(latencies, 100) / 1e6);
+        System.out.printf("%-28s %.1f ms, %.1f %% of a core%n", "king cpu", (cpuAfter[0] - cpuBefore[0]) / 1e6,
+                (cpuAfter[0] - cpuBefore[0]) / 1e7 / elapsed);
+        System.out.printf("%-28s p50 %.1f ms  max %.1f ms%n", "peasant cpu", percentile(peasantCpu, 50) / 1e6,
+                percentile(peasantCpu, 100) / 1e6);
+        System.out.printf("%-28s %.1f ms, %.1f cores%n", "jvm cpu", totalCpu / 1e6, totalCpu / 1e9 / elapsed);
+        System.out.printf("%-28s %.1f KiB after joining, %.1f KiB after the chat%n", "heap per node",
+                heapOfRing / 1024.0 / size, heapAfter / 1024.0 / size);
+        System.out.printf("%-28s %d bytes, %.1f KiB/s, %.1f bytes per message%n", "king egress", kingBytes,
+                kingBytes / 1024.0 / elapsed, sent == 0 ? 0 : (double) kingBytes / sent);
+        // a node is promoted only when the king fails under the load
+        for (Node node : generator.nodes)
+        {
+            PromotionTimes promotion = node.getPromotionTimes();
+            if (promotion != null) System.out.printf("%-28s %s%n", node.getNodeName() + " promoted", promotion);
+        }
+    }
+
+    /**
+     * The {@link Recorder} class records the latencies of the chat messages delivered to one node.
+     */
+    private static class Recorder
+    {
+        private final String name;
+        private final List<Long> latencies = new ArrayList<>();
+
+        private Recorder(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Records the latency of a delivered chat message of the load test, unless the node sent it itself.
+         *
+         * @param message The delivered chat message.
+         */
+        private void delivered(Message message)
+        {
+            long now = System.nanoTime();
+            String content = message.getContent();
+            if (!content.startsWith(TOKEN + " ") || message.getSenderName().equals(name)) return;
+            long due = Long.parseLong(content.substring(TOKEN.length() + 1));
+            synchronized (latencies)
+            {
+                latencies.add(now - due);
+            }
+        }
+
+        /**
+         * Gets the number of the recorded latencies.
+         *
+         * @return The number of the recorded latencies.
+         */
+        private int size()
+        {
+            synchronized (latencies)
+            {
+                return latencies.size();
+            }
+        }
+
+        /**
+         * Adds the recorded latencies to a list.
+         *
+         * @param all The list.
+         */
+        private void addLatencies(List<Long> all)
+        {
+            synchronized (latencies)
+            {
+                all.addAll(latencies);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package cz.cvut.fel.bulkodav.node;
+
+import cz.cvut.fel.bulkodav.communication.TopologyInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link MembershipView} class holds a peasant's view of the ring, which is built from the changes of users
+ * sent by the king. The king sends only the change of one user, the view applies it if it follows the epoch
+ * of the view. If some change was missed, the view has to be replaced by the whole topology.
+ */
+class MembershipView
+{
+    private String kingName;
+    private final List<String> names = new ArrayList<>();
+    private long epoch;
+    private boolean framed;
+
+    /**
+     * Applies a change of a user to the view.
+     *
+     * @param change The change sent by the king.
+     * @return true if the view is up to date, false if some change was missed and the view has to be replaced.
+     */
+    synchronized boolean apply(UserStateChange change)
+    {
+        List<TopologyInfo> infos = change.getCurrentTopologyInfos();
+        if (infos != null)
+        {
+            replace(infos, change.getEpoch(), change.isFramed());
+            return true;
+        }
+        if (change.getEpoch() == 0)
+        {
+            framed = false;
+            return true;
+        }
+        // an older change is already contained in the view
+        if (change.getEpoch() <= epoch) return true;
+        if (change.getEpoch() != epoch + 1 || kingName == null) return false;
+
+        String userName = change.getUserName();
+        if (change.getConnectionState() == ConnectionState.offline)
+        {
+            if (!names.remove(userName)) return false;
+        } else
+        {
+            if (names.contains(userName)) return false;
+            // the right node of a node is the one before it, the king is before the first node
+            String rightName = change.getRightName();
+            int index = rightName.equals(kingName) ? 0 : names.indexOf(rightName) + 1;
+            if (index == 0 && !rightName.equals(kingName)) return false;
+            names.add(index, userName);
+        }
+        epoch++;
+        framed = change.isFramed();
+        return true;
+    }
+
+    /**
+     * Replaces the view by the whole topology.
+     *
+     * @param infos  The topology info of every node in the ring, the king's info first.
+     * @param epoch  The epoch of the topology, or 0 if the king does not know the epochs.
+     * @param framed Whether every node of the ring uses frames.
+     */
+    synchronized void replace(List<TopologyInfo> infos, long epoch, boolean framed)
+    {
+        this.epoch = epoch;
+        this.framed = framed;
+        names.clear();
+        if (infos.isEmpty())
+        {
+            kingName = null;
+            return;
+        }
+        kingName = infos.get(0).getNodeName();
+        Map<String, TopologyInfo> byName = new HashMap<>();
+        for (TopologyInfo info : infos) byName.put(info.getNodeName(), info);
+
+        String name = infos.get(0).getLeftName();
+        while (name != null && !name.equals(kingName) && byName.containsKey(name) && names.size() < infos.size())
+        {
+            names.add(name);
+            name = byName.get(name).getLeftName();
+        }
+        if (names.size() != infos.size() - 1)
+        {
+            // the ring is broken, e.g. while a node is joining, so the order of the infos is kept
+            names.clear();
+            for (int i = 1; i < infos.size(); i++) names.add(infos.get(i).getNodeName());
+        }
+    }
+
+    /**
+     * Gets the topology info of every node in the view.
+     *
+     * @return The topology info of every node, the king's info first, or an empty list if the view is empty.
+     */
+    synchronized List<TopologyInfo> getTopologyInfo()
+    {
+        if (kingName == null) return new ArrayList<>();
+        return TopologyTable.toTopologyInfos(kingName, names);
+    }
+
+    /**
+     * Gets the epoch of the view.
+     *
+     * @return The epoch of the last applied change.
+     */
+    synchronized long getEpoch()
+    {
+        return epoch;
+    }
+
+    /**
+     * Gets whether every node of the ring uses frames, as the king told with the last applied change.
+     *
+     * @return true if every node uses frames.
+     */
+    synchronized boolean isFramed()
+    {
+        return framed;
+    }
+}
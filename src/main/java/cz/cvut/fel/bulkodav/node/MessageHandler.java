@@ -26,6 +26,30 @@ public interface MessageHandler
      */
     void handleChatMessage(Message message, CommunicationLink messageSender);
 
+    /**
+     * Handles a chat message which is passed around the ring.
+     *
+     * @param message       The {@link cz.cvut.fel.bulkodav.communication.MessageType#RING_CHAT} message.
+     * @param messageSender The sender of the message.
+     */
+    void handleRingChatMessage(Message message, CommunicationLink messageSender);
+
+    /**
+     * Handles a chat message which is relayed down the relay tree.
+     *
+     * @param message       The {@link cz.cvut.fel.bulkodav.communication.MessageType#RELAY_CHAT} message.
+     * @param messageSender The sender of the message.
+     */
+    void handleRelayChatMessage(Message message, CommunicationLink messageSender);
+
+    /**
+     * Handles a request for the chat messages which did not arrive.
+     *
+     * @param message       The {@link cz.cvut.fel.bulkodav.communication.MessageType#RETRANSMIT} message.
+     * @param messageSender The sender of the message.
+     */
+    void handleRetransmitMessage(Message message, CommunicationLink messageSender);
+
     /**
      * Handles a particular message sent when a topology is being mapped.
      *
@@ -73,4 +97,36 @@ public interface MessageHandler
      * @param messageSender The sender of the message.
      */
     void handleNameMessage(Message message, CommunicationLink messageSender);
+
+    /**
+     * Handles a particular message sent when the king appoints or dismisses its deputy.
+     *
+     * @param message       The {@link cz.cvut.fel.bulkodav.communication.MessageType#DEPUTY} message.
+     * @param messageSender The sender of the message.
+     */
+    void handleDeputyMessage(Message message, CommunicationLink messageSender);
+
+    /**
+     * Handles a particular message sent to replicate the state of the king to its deputy.
+     *
+     * @param message       The {@link cz.cvut.fel.bulkodav.communication.MessageType#REPLICA} message.
+     * @param messageSender The sender of the message.
+     */
+    void handleReplicaMessage(Message message, CommunicationLink messageSender);
+
+    /**
+     * Handles a particular message sent when the deputy takes over after the death of the king.
+     *
+     * @param message       The {@link cz.cvut.fel.bulkodav.communication.MessageType#SUCCESSION} message.
+     * @param messageSender The sender of the message.
+     */
+    void handleSuccessionMessage(Message message, CommunicationLink messageSender);
+
+    /**
+     * Handles a particular message sent when the king which logs off hands the ring over to its deputy.
+     *
+     * @param message       The {@link cz.cvut.fel.bulkodav.communication.MessageType#HANDOFF} message.
+     * @param messageSender The sender of the message.
+     */
+    void handleHandoffMessage(Message message, CommunicationLink messageSender);
 }
@@ -2,8 +2,12 @@ package cz.cvut.fel.bulkodav.node;
 
 import cz.cvut.fel.bulkodav.communication.CommunicationLink;
 import cz.cvut.fel.bulkodav.communication.Message;
+import cz.cvut.fel.bulkodav.communication.NetworkEmulator;
+import cz.cvut.fel.bulkodav.communication.NetworkScenario;
 import cz.cvut.fel.bulkodav.communication.NodeInfo;
 import cz.cvut.fel.bulkodav.communication.TopologyInfo;
+import cz.cvut.fel.bulkodav.communication.Transport;
+import cz.cvut.fel.bulkodav.communication.TransportServer;
 import cz.cvut.fel.bulkodav.exceptions.ConnectingException;
 import cz.cvut.fel.bulkodav.exceptions.OperationException;
 import cz.cvut.fel.bulkodav.view.ChatController;
@@ -12,13 +16,19 @@ import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.net.BindException;
-import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import static cz.cvut.fel.bulkodav.communication.MessageType.*;
 import static cz.cvut.fel.bulkodav.node.Direction.LEFT;
@@ -33,11 +43,39 @@ public class Node extends Thread
     private PeasantLogic peasantLogic;
     private KingLogic kingLogic;
     private volatile boolean isLoggedIn;
-    private ServerSocket server;
-    private List<SocketListener> threadPool = new ArrayList<>();
+    private TransportServer server;
+    private Transport transport;
+    private final NodeSettings settings;
+    private List<SocketListener> listeners = new CopyOnWriteArrayList<>();
     private final static Logger logger = Logger.getLogger(Node.class);
     private ChatController chatController;
-    private PriorityBlockingQueue<Message> messageQueue = new PriorityBlockingQueue<>();
+    private final ReorderBuffer chat;
+    private final MembershipView membership;
+    private final KingReplica replica;
+    private volatile ShardBridge bridge;
+    private volatile Consumer<Message> deliveryListener;
+    private volatile PromotionTimes promotionTimes;
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.Node} class. Uses the settings from the system properties.
+     */
+    public Node()
+    {
+        this(new NodeSettings());
+    }
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.Node} class.
+     *
+     * @param settings The tunable parameters of the node.
+     */
+    public Node(NodeSettings settings)
+    {
+        this.settings = settings;
+        this.chat = new ReorderBuffer(settings.getChatHistory(), this::deliver, this::requestRetransmission);
+        this.membership = new MembershipView();
+        this.replica = new KingReplica();
+    }
 
     /**
      * Tries to start a new network as a leader.
@@ -50,17 +88,20 @@ public class Node extends Thread
         this.myInfo = myInfo;
         try
         {
-            server = new ServerSocket();
-            server.bind(new InetSocketAddress(myInfo.getAddress(), myInfo.getPort()));
+            transport = createTransport(myInfo);
+            server = transport.bind(myInfo);
             kingLogic = new KingLogic(this);
             isLoggedIn = true;
+            openShardBridge();
             if (hasUi()) refreshUi(userChanged(null, null));
         } catch (BindException e)
         {
+            if (transport != null) transport.shutdown();
             throw new ConnectingException("Cannot connect with these parameters. " +
                     "Other node or service might already be running using them.");
         } catch (IOException e)
         {
+            if (transport != null) transport.shutdown();
             throw new ConnectingException("Unknown exception while starting new network.");
         } catch (OperationException e)
         {
@@ -77,27 +118,53 @@ public class Node extends Thread
      */
     public void connectToRemoteKing(NodeInfo kingsInfo, NodeInfo myInfo) throws ConnectingException
     {
+        connectToShard(kingsInfo, myInfo, new HashSet<>());
+    }
+
+    /**
+     * Tries to connect to the king of a shard, or to the only king if the ring is not split into shards.
+     * If the shard is full, the other shards the king knows about are tried.
+     *
+     * @param kingsInfo     The info about the king.
+     * @param myInfo        The info about this node.
+     * @param visitedShards The addresses of the kings which were already tried.
+     * @throws ConnectingException if the connection was unsuccessful.
+     */
+    private void connectToShard(NodeInfo kingsInfo, NodeInfo myInfo, Set<String> visitedShards)
+            throws ConnectingException
+    {
+        visitedShards.add(kingsInfo.getAddress() + ":" + kingsInfo.getPort());
+        String otherShards = null;
         String errorText = "Unknown error while establishing connection. " +
                 "You might want to check the connection parameters of the existing node.";
         CommunicationLink kingsPigeon = null;
         try
         {
             this.myInfo = myInfo;
-            kingsPigeon = new CommunicationLink(kingsInfo);
-            server = new ServerSocket();
-            server.bind(new InetSocketAddress(myInfo.getAddress(), myInfo.getPort()));
-            kingsPigeon.sendMessage(new Message(kingsPigeon.serializeId(myInfo), kingsInfo, myInfo, GREETINGS));
+            transport = createTransport(myInfo);
+            kingsPigeon = new CommunicationLink(kingsInfo, transport);
+            server = transport.bind(myInfo);
+            String greeting = kingsPigeon.serializeId(myInfo);
+            if (settings.isCapacityElection())
+                greeting += " " + NodeCapacity.TOKEN + NodeCapacity.measure(Collections.emptyList());
+            if (settings.isFraming()) greeting += " " + CommunicationLink.FRAMES_TOKEN;
+            kingsPigeon.sendMessage(new Message(greeting, kingsInfo, myInfo, GREETINGS));
             Message kingsResponse = kingsPigeon.readMessage();
             kingsPigeon.setName(kingsResponse.getSenderName());
 
             if (kingsResponse.getMessageType() == GREETINGS)
             {
                 NodeInfo idOfTheRightNode = kingsPigeon.deserializeId(kingsResponse.getContent());
+                boolean framed = settings.isFraming() &&
+                        kingsResponse.getContent().endsWith(" " + CommunicationLink.FRAMES_TOKEN);
+                kingsPigeon.setFramed(framed);
+                // the new node is put to the right of the king, the king's link serves as the left node too
+                CommunicationLink rightNode = idOfTheRightNode.hashCode() == kingsInfo.hashCode() ?
+                        kingsPigeon : connectTo(idOfTheRightNode);
 
-                peasantLogic = new PeasantLogic(this, kingsPigeon, new CommunicationLink(kingsPigeon.getInfo()),
-                        new CommunicationLink(idOfTheRightNode));
+                peasantLogic = new PeasantLogic(this, kingsPigeon, kingsPigeon, rightNode);
 
-                if (!peasantLogic.isNodeDead(peasantLogic.getRightNode()))
+                if (rightNode == kingsPigeon || !peasantLogic.isNodeDead(rightNode))
                 {
                     kingsPigeon.sendMessage(new Message("", kingsResponse.getSender(), myInfo, CONFIRM));
                     isLoggedIn = true;
@@ -108,36 +175,95 @@ public class Node extends Thread
             }
             if (kingsResponse.getContent().equals("name"))
                 errorText = "The name \"" + myInfo.getName() + "\" is already used. Aborting.\n";
+            if (kingsResponse.getMessageType() == REJECT && kingsResponse.getContent().startsWith(ShardBridge.FULL))
+                otherShards = kingsResponse.getContent().substring(ShardBridge.FULL.length()).trim();
             throw new IOException();
         } catch (BindException e)
         {
             if (kingsPigeon != null) kingsPigeon.close();
+            if (transport != null) transport.shutdown();
             throw new ConnectingException("Cannot connect, the local address with the port you have provided " +
                     "might be incorrect, or already in use.");
         } catch (IOException e)
         {
             if (kingsPigeon != null) kingsPigeon.close();
             die();
-            throw new ConnectingException(errorText);
+            if (otherShards == null) throw new ConnectingException(errorText);
+            joinOtherShard(otherShards, myInfo, visitedShards);
         }
     }
 
     /**
-     * Node runs and accepts incoming connections which will then be handled.
+     * Joins another shard after the shard of the asked king turned out to be full. The shards are tried one by one,
+     * if all of them are full, this node starts a new shard as its king.
+     *
+     * @param otherShards   The addresses of the kings of the other shards separated by spaces.
+     * @param myInfo        The info about this node.
+     * @param visitedShards The addresses of the kings which were already tried.
+     * @throws ConnectingException if no shard can be joined and no new shard can be started.
+     */
+    private void joinOtherShard(String otherShards, NodeInfo myInfo, Set<String> visitedShards)
+            throws ConnectingException
+    {
+        for (String address : otherShards.split(" "))
+        {
+            NodeInfo shardKing = ShardBridge.parseAddress(address, "");
+            if (shardKing == null || visitedShards.contains(address)) continue;
+            logger.info("Node " + myInfo + "\n - the shard is full, trying the shard of " + address + ".\n");
+            try
+            {
+                connectToShard(shardKing, myInfo, visitedShards);
+                return;
+            } catch (ConnectingException e)
+            {
+                logger.info("Node " + myInfo + "\n - cannot join the shard of " + address + ".\n");
+            }
+        }
+        if (settings.getFederation().isEmpty())
+            throw new ConnectingException("All the shards are full. Aborting.");
+        logger.info("Node " + myInfo + "\n - all the shards are full, starting a new shard.\n");
+        startNewNetwork(myInfo);
+    }
+
+    /**
+     * Creates the transport of this node. If the node has a network scenario, its connections are emulated.
+     *
+     * @param myInfo The info about this node.
+     * @return The transport of this node.
+     * @throws IOException if the transport cannot be started or the scenario cannot be read.
+     */
+    private Transport createTransport(NodeInfo myInfo) throws IOException
+    {
+        NetworkScenario scenario = null;
+        if (!settings.getNetworkScenario().isEmpty())
+        {
+            try
+            {
+                scenario = NetworkScenario.load(settings.getNetworkScenario());
+            } catch (IOException e)
+            {
+                logger.error("Node " + myInfo + "\n - " + e.getMessage());
+                throw e;
+            }
+        }
+        Transport transport = settings.getTransport().create(settings, myInfo.getAddress());
+        transport.setAcceptor(this::accepted);
+        if (scenario != null) transport.setEmulator(new NetworkEmulator(scenario, myInfo.getName()));
+        return transport;
+    }
+
+    /**
+     * Node runs and accepts incoming connections which will then be handled by the event loops of the transport.
      */
     @Override
     public void run()
     {
+        new HeartbeatMonitor(this).start();
         while (isLoggedIn)
         {
             try
             {
-                Socket socket = server.accept();
-                SocketListener thread = new SocketListener(socket, this,
-                        socket.getInetAddress().getHostAddress());
-                thread.setDaemon(true);
-                thread.start();
-                threadPool.add(thread);
+                accepted(server.accept());
             } catch (IOException ignored)
             {
             }
@@ -145,39 +271,220 @@ public class Node extends Thread
     }
 
     /**
-     * Promotes the peasant node to a king node.
+     * Promotes the peasant node to a king node. The durations of the phases are kept, see {@link #getPromotionTimes()}.
      */
     void promoteToKing()
     {
         assert kingLogic == null;
         logger.info("Node " + myInfo + "\n - " + "promoting.\n");
+        long start = System.currentTimeMillis();
         kingLogic = new KingLogic(this);
-        getNewPeasants();
+        long mapped = getNewPeasants();
+        long joined = System.currentTimeMillis();
         logger.info("Node " + myInfo + " - " + " added all peasants, closing redundant connections.\n");
         String deadKingName = peasantLogic.getKingsName();
         peasantLogic.closeCommunicationWithNodes();
         peasantLogic = null;
-        try
-        {
-            Thread.sleep(2000);
-        } catch (InterruptedException e)
+        openShardBridge();
+        long closed = System.currentTimeMillis();
+        // the peasants switched to the new king before they answered the walk, so they can be told at once
+        kingLogic.removeDeadNodeFromUi(deadKingName);
+        long end = System.currentTimeMillis();
+        promotionTimes = new PromotionTimes(kingLogic.getAllNodes().size(), mapped - start, joined - mapped,
+                closed - joined, end - closed);
+        logger.info("Node " + myInfo + "\n - promoted with " + promotionTimes + ".\n");
+    }
+
+    /**
+     * Gets how long the phases of the last promotion of this node to the king took.
+     *
+     * @return The durations of the phases, or null if the node was not promoted.
+     */
+    PromotionTimes getPromotionTimes()
+    {
+        return promotionTimes;
+    }
+
+    /**
+     * Makes the deputy the king after the death of the king. The deputy knows the ring from its replica,
+     * so it connects to the other nodes at once instead of walking the ring and asking every node for its neighbours.
+     * The neighbours of the dead king become the neighbours of each other and all the nodes are told that
+     * the deputy took over.
+     *
+     * @param deadKingInfo The info about the dead king.
+     * @return true if the deputy took over, false if its replica is not complete and a new king has to be elected.
+     */
+    boolean succeedKing(NodeInfo deadKingInfo)
+    {
+        return takeOver(deadKingInfo, null, null);
+    }
+
+    /**
+     * Makes the deputy the king when the king logs off and hands the ring over. The deputy takes over
+     * the same way as after the death of the king, but it goes on with the numbering of the chat messages,
+     * so the other nodes keep the order of the chat. The king is answered once all the nodes were told
+     * that the deputy took over.
+     *
+     * @param handoff The handoff request of the king, with the order of the last chat message the king numbered.
+     * @param king    The link to the king.
+     * @return true if the deputy took over, false if its replica is not complete.
+     */
+    boolean acceptHandoff(Message handoff, CommunicationLink king)
+    {
+        return takeOver(handoff.getSender(), handoff, king);
+    }
+
+    /**
+     * Makes the deputy the king from its replica of the ring.
+     *
+     * @param oldKingInfo The info about the king which died or logs off.
+     * @param handoff     The handoff request of the king which logs off, or null if the king is dead.
+     * @param oldKing     The link to the king which logs off, or null if the king is dead.
+     * @return true if the deputy took over, false if its replica is not complete.
+     */
+    private boolean takeOver(NodeInfo oldKingInfo, Message handoff, CommunicationLink oldKing)
+    {
+        synchronized (replica)
         {
-            e.printStackTrace();
+            PeasantLogic peasantLogic = this.peasantLogic;
+            if (kingLogic != null || peasantLogic == null) return true;
+            List<NodeInfo> nodes = replica.getNodes();
+            int index = -1;
+            for (int i = 0; nodes != null && i < nodes.size(); i++)
+            {
+                if (nodes.get(i).hashCode() == myInfo.hashCode()) index = i;
+            }
+            if (index < 0) return false;
+
+            long start = System.currentTimeMillis();
+            logger.info("Node " + myInfo + "\n - " + oldKingInfo.getName() + (handoff == null ?
+                    " is dead, taking over as their deputy.\n" : " logs off, taking over as their deputy.\n"));
+            kingLogic = new KingLogic(this);
+            if (handoff != null) kingLogic.continueOrder(Long.parseLong(handoff.getContent()));
+            // the ring goes on to the left of the deputy, around the place of the old king, back to the deputy
+            List<NodeInfo> order = new ArrayList<>(nodes.subList(index + 1, nodes.size()));
+            order.addAll(nodes.subList(0, index));
+            int sendWindow = settings.getSendWindow();
+            for (NodeInfo nodeInfo : order)
+            {
+                try
+                {
+                    // the replicated ring consists of the nodes which understand frames only
+                    CommunicationLink link = connectTo(nodeInfo);
+                    link.setFramed(true);
+                    link.openSendWindow(sendWindow, 8 * sendWindow);
+                    kingLogic.addNode(link);
+                } catch (IOException e)
+                {
+                    logger.info("Node " + myInfo + "\n - " + "error connecting to " + nodeInfo.getName() + "\n");
+                }
+            }
+
+            joinNeighboursOfKing(oldKingInfo, nodes.get(0), nodes.get(nodes.size() - 1));
+            joinNeighboursOfKing(oldKingInfo, nodes.get(nodes.size() - 1), nodes.get(0));
+
+            long timeout = settings.getRequestTimeout();
+            String content = handoff == null ? "" : KingReplica.HANDOFF;
+            List<CompletableFuture<Message>> confirmations = new ArrayList<>();
+            List<CommunicationLink> links = kingLogic.getAllNodes();
+            for (CommunicationLink link : links)
+            {
+                confirmations.add(link.request(new Message(content, link.getInfo(), myInfo, SUCCESSION), timeout));
+            }
+            for (int i = 0; i < links.size(); i++)
+            {
+                try
+                {
+                    confirmations.get(i).get();
+                } catch (ExecutionException e)
+                {
+                    kingLogic.handleNodeDeath(links.get(i).getInfo());
+                } catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            if (handoff != null) oldKing.reply(handoff, new Message("", oldKingInfo, myInfo, CONFIRM));
+            peasantLogic.closeCommunicationWithNodes();
+            this.peasantLogic = null;
+            openShardBridge();
+            kingLogic.removeDeadNodeFromUi(oldKingInfo.getName());
+            logger.info("Node " + myInfo + "\n - took over " + links.size() + " nodes in " +
+                    (System.currentTimeMillis() - start) + " ms.\n");
+            return true;
         }
-        kingLogic.removeDeadNodeFromUi(deadKingName);
     }
 
     /**
-     * Collects data about all the nodes in the ring for the king. The nodes also correct their
+     * Tells a neighbour of the old king who its new neighbour is, instead of the old king.
+     *
+     * @param oldKingInfo    The info about the king which died or logs off.
+     * @param neighbourInfo  The info about the neighbour of the old king.
+     * @param substituteInfo The info about the neighbour of the old king from the other side.
+     */
+    private void joinNeighboursOfKing(NodeInfo oldKingInfo, NodeInfo neighbourInfo, NodeInfo substituteInfo)
+    {
+        if (neighbourInfo.hashCode() == myInfo.hashCode()) return;
+        CommunicationLink neighbour = kingLogic.getNodeByName(neighbourInfo.getName());
+        if (neighbour == null) return;
+        String content = neighbour.serializeId(oldKingInfo) + " " + neighbour.serializeId(substituteInfo);
+        neighbour.sendMessage(new Message(content, neighbourInfo, myInfo, TOPOLOGY_CHANGED));
+    }
+
+    /**
+     * Collects data about all the nodes in the ring for the king. Both sides of the ring are walked at once
+     * and the links to the nodes of both sides are opened in parallel. The nodes also correct their
+     * neighbours, the last nodes of both sides become the neighbours of each other.
+     *
+     * @return The time when all the nodes were mapped and connected to, before the ends of the ring were joined.
      */
-    private void getNewPeasants()
+    private long getNewPeasants()
     {
         logger.info("Node " + myInfo + "\n - " + "getting new peasants.\n");
+        long start = System.currentTimeMillis();
         CommunicationLink left = peasantLogic.getLeftNode();
         CommunicationLink right = peasantLogic.getRightNode();
 
-        CommunicationLink leftMost = mapTopologyOneWay(left, LEFT);
-        CommunicationLink rightMost = mapTopologyOneWay(right, RIGHT);
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService connector = Executors.newFixedThreadPool(Math.max(1, settings.getPromotionConnections()),
+                runnable ->
+                {
+                    Thread thread = new Thread(runnable, "promotion-connector-" + threadCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        List<CommunicationLink> leftNodes;
+        List<CommunicationLink> rightNodes;
+        try
+        {
+            CompletableFuture<List<CommunicationLink>> rightWalk = CompletableFuture.supplyAsync(
+                    () -> mapTopologyOneWay(right, RIGHT, connector), runnable ->
+                    {
+                        Thread thread = new Thread(runnable, "promotion-" + RIGHT);
+                        thread.setDaemon(true);
+                        thread.start();
+                    });
+            leftNodes = mapTopologyOneWay(left, LEFT, connector);
+            rightNodes = rightWalk.join();
+        } finally
+        {
+            connector.shutdown();
+        }
+
+        // the ring goes from the left node of the king to its right node
+        List<CommunicationLink> ring = new ArrayList<>(leftNodes);
+        List<CommunicationLink> reversedRight = new ArrayList<>(rightNodes);
+        Collections.reverse(reversedRight);
+        ring.addAll(reversedRight);
+        for (CommunicationLink node : ring)
+        {
+            kingLogic.addNode(node);
+        }
+        long mapped = System.currentTimeMillis();
+
+        CommunicationLink leftMost = leftNodes.isEmpty() ? null : leftNodes.get(leftNodes.size() - 1);
+        CommunicationLink rightMost = rightNodes.isEmpty() ? null : rightNodes.get(rightNodes.size() - 1);
         NodeInfo oldKingInfo = peasantLogic.getKing().getInfo();
 
         if (leftMost != null)
@@ -193,66 +500,128 @@ public class Node extends Thread
             rightMost.sendMessage(new Message(rightMost.serializeId(oldKingInfo) + " " +
                     rightMost.serializeId(leftInfo), rightMost.getInfo(), myInfo, TOPOLOGY_CHANGED));
         }
+        logger.info("Node " + myInfo + "\n - got " + ring.size() + " peasants: mapping and connecting " +
+                (mapped - start) + " ms, joining the ends " + (System.currentTimeMillis() - mapped) + " ms.\n");
+        return mapped;
     }
 
     /**
-     * Maps the topology one way from the starting node up to the end where there used to be the old king.
+     * Maps the topology one way from the starting node up to the end where there used to be the old king,
+     * then opens the links to the mapped nodes in parallel.
      *
      * @param startingNode The first node that starts forwarding the mapping message to other nodes.
      * @param direction    The direction of the mapping process in the ring.
+     * @param connector    The threads which open the links.
+     * @return The links to the nodes from the starting node to the end, empty if there is no node in the direction.
      */
-    private CommunicationLink mapTopologyOneWay(CommunicationLink startingNode, Direction direction)
+    private List<CommunicationLink> mapTopologyOneWay(CommunicationLink startingNode, Direction direction,
+                                                      ExecutorService connector)
     {
         try
         {
+            long start = System.currentTimeMillis();
             if (startingNode.getName().equals(peasantLogic.getKingsName())) throw new IOException();
             startingNode.sendMessage(new Message("", startingNode.getInfo(), myInfo, LONG_LIVE_THE_KING));
             logger.info("Node " + myInfo + "\n - " + "sending " + direction + " " + startingNode.getPort() + "\n");
 
             String messageContent = startingNode.readMessage().getContent();
-            List<CommunicationLink> nodes = addNodesFromString(messageContent.split(" "), startingNode);
-            CommunicationLink lastNode = nodes.get(nodes.size() - 1);
-            if (direction.equals(RIGHT)) Collections.reverse(nodes);
-            for (CommunicationLink node : nodes)
-            {
-                kingLogic.addNode(node);
-            }
+            long walked = System.currentTimeMillis();
+            List<CommunicationLink> nodes = addNodesFromString(messageContent.split(" "), startingNode, connector);
 
-            logger.info("Node " + myInfo + "\n - " + "got " + direction + "\n");
-            return lastNode;
+            logger.info("Node " + myInfo + "\n - " + "got " + direction + ": " + nodes.size() + " nodes, walking " +
+                    (walked - start) + " ms, connecting " + (System.currentTimeMillis() - walked) + " ms.\n");
+            return nodes;
         } catch (IOException e)
         {
             // there is no left so my rightest right is my left
             logger.info("Node " + myInfo + "\n - " + "no " + direction + "\n");
             startingNode.close();
-            return null;
+            return Collections.emptyList();
         }
     }
 
     /**
-     * Deserializes the ids of the nodes from string and adds them into the king's collection of all known nodes.
+     * Deserializes the ids of the nodes from string and connects to them in parallel.
      *
      * @param stringIds    The array of ids serialized in string.
      * @param deserializer The object which handles deserialization.
+     * @param connector    The threads which open the links.
+     * @return The links to the nodes in the order of the ids, without the nodes which could not be connected to.
      */
-    private List<CommunicationLink> addNodesFromString(String[] stringIds, CommunicationLink deserializer)
+    private List<CommunicationLink> addNodesFromString(String[] stringIds, CommunicationLink deserializer,
+                                                       ExecutorService connector)
     {
-        List<CommunicationLink> nodes = new ArrayList<>();
+        List<Future<CommunicationLink>> connections = new ArrayList<>();
+        List<NodeInfo> nodeIds = new ArrayList<>();
         for (String str : stringIds)
         {
             NodeInfo nodeId = deserializer.deserializeId(str);
+            nodeIds.add(nodeId);
+            connections.add(connector.submit(() -> connectTo(nodeId)));
+        }
+        List<CommunicationLink> nodes = new ArrayList<>();
+        for (int i = 0; i < connections.size(); i++)
+        {
             try
             {
-                nodes.add(new CommunicationLink(nodeId));
-            } catch (IOException e)
+                nodes.add(connections.get(i).get());
+            } catch (ExecutionException e)
             {
                 // we ignore the wrong ids
-                logger.info("Node " + myInfo + "\n - " + "error creating new peasant with id: " + nodeId.getPort() + "\n");
+                logger.info("Node " + myInfo + "\n - " + "error creating new peasant with id: " +
+                        nodeIds.get(i).getPort() + "\n");
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
             }
         }
         return nodes;
     }
 
+    /**
+     * Gets a link to the node. The link shares the connection the node opened to this node if there is one
+     * which can carry it, otherwise a new connection is opened.
+     *
+     * @param nodeInfo The info about the node.
+     * @return The link to the node.
+     * @throws IOException if the connection fails.
+     */
+    CommunicationLink connectTo(NodeInfo nodeInfo) throws IOException
+    {
+        for (SocketListener listener : listeners)
+        {
+            CommunicationLink link = listener.openReverseLink(nodeInfo);
+            if (link != null) return link;
+        }
+        return new CommunicationLink(nodeInfo, transport);
+    }
+
+    /**
+     * Starts listening to the requests another node sends through the link.
+     *
+     * @param link The link through which the requests come.
+     */
+    private void accepted(CommunicationLink link)
+    {
+        listeners.add(new SocketListener(link, this));
+    }
+
+    /**
+     * Gets the links to the nodes whose death this node has to discover. The king watches all the other nodes,
+     * a peasant watches the king.
+     *
+     * @return The links to the watched nodes.
+     */
+    List<CommunicationLink> getWatchedLinks()
+    {
+        KingLogic kingLogic = this.kingLogic;
+        if (kingLogic != null) return kingLogic.getAllNodes();
+        PeasantLogic peasantLogic = this.peasantLogic;
+        if (peasantLogic != null) return Collections.singletonList(peasantLogic.getKing());
+        return Collections.emptyList();
+    }
+
     /**
      * Handles a death of a node.
      *
@@ -272,18 +641,21 @@ public class Node extends Thread
     }
 
     /**
-     * Kills the node and closes all the connections with other nodes.
+     * Kills the node and closes all the connections with other nodes. A king which has a deputy hands the ring
+     * over to it first, otherwise the next king is elected.
      */
     public void die()
     {
         try
         {
             isLoggedIn = false;
-            if (server != null && !server.isClosed()) server.close();
+            if (server != null && server.isOpen()) server.close();
+            // the deputy takes over while the nodes can still reach this king
+            boolean handedOff = kingLogic != null && kingLogic.handOff();
             endAllListeners();
             if (kingLogic != null)
             {
-                kingLogic.tryToFindNextKing();
+                if (!handedOff) kingLogic.tryToFindNextKing();
                 kingLogic.closeCommunicationWithNodes();
             } else if (peasantLogic != null)
             {
@@ -291,6 +663,10 @@ public class Node extends Thread
                 peasantLogic.closeCommunicationWithNodes();
                 peasantLogic = null;
             }
+            if (transport != null) transport.shutdown();
+            ShardBridge bridge = this.bridge;
+            this.bridge = null;
+            if (bridge != null) bridge.close(this);
         } catch (IOException e)
         {
             logger.error(e);
@@ -298,6 +674,15 @@ public class Node extends Thread
         }
     }
 
+    /**
+     * Joins this king to the top-level ring of the kings of the shards, if the node is configured to be part
+     * of a federation of shards and is not already bridged.
+     */
+    private void openShardBridge()
+    {
+        if (bridge == null && !settings.getFederation().isEmpty()) bridge = ShardBridge.open(this);
+    }
+
     /**
      * Gets a value which says whether the node is logged in.
      *
@@ -313,10 +698,11 @@ public class Node extends Thread
      */
     private void endAllListeners()
     {
-        for (SocketListener thread : threadPool)
+        for (SocketListener listener : listeners)
         {
-            thread.end();
+            listener.end();
         }
+        listeners.clear();
     }
 
     /**
@@ -343,16 +729,27 @@ public class Node extends Thread
      */
     void shutDownListenerByName(String nodeName)
     {
-        for (SocketListener thread : threadPool)
+        for (SocketListener listener : listeners)
         {
-            if (thread.getListenedName().equals(nodeName))
+            if (listener.getListenedName().equals(nodeName))
             {
-                thread.end();
+                listener.end();
+                listeners.remove(listener);
                 return;
             }
         }
     }
 
+    /**
+     * Forgets the listener whose communication has ended.
+     *
+     * @param listener The listener which stopped listening.
+     */
+    void listenerEnded(SocketListener listener)
+    {
+        listeners.remove(listener);
+    }
+
     /**
      * Gets the topology info of every connected node.
      *
@@ -380,7 +777,7 @@ public class Node extends Thread
     {
         if (isKing())
         {
-            return kingLogic.getOnlineUsers(myInfo.getName());
+            return kingLogic.getOnlineUsers();
         } else
         {
             return peasantLogic.getOnlineUsers();
@@ -437,15 +834,48 @@ public class Node extends Thread
     }
 
     /**
-     * Receives all the chat messages held in the queue.
+     * Displays a chat message delivered in order, unless this node is the one who wrote it and displayed it already.
+     *
+     * @param message The chat message.
      */
-    void receiveAllMessages()
+    private void deliver(Message message)
     {
-        for (int i = 0; i < messageQueue.size(); i++)
-        {
-            Message message = messageQueue.poll();
-            if (message != null) displayNewChatMessage(message.getSenderName(), message.getContent());
-        }
+        if (message.getSender().hashCode() != myInfo.hashCode())
+            displayNewChatMessage(message.getSenderName(), message.getContent());
+        ShardBridge bridge = this.bridge;
+        if (bridge != null) bridge.delivered(this, message);
+        Consumer<Message> deliveryListener = this.deliveryListener;
+        if (deliveryListener != null) deliveryListener.accept(message);
+    }
+
+    /**
+     * Requests the missing chat messages from the king.
+     *
+     * @param from The order of the first missing message.
+     * @param to   The order of the last missing message.
+     */
+    private void requestRetransmission(long from, long to)
+    {
+        PeasantLogic peasantLogic = this.peasantLogic;
+        if (peasantLogic != null) peasantLogic.requestRetransmission(from, to);
+    }
+
+    /**
+     * Forgets the numbering of the chat messages of the previous king.
+     */
+    void resetChatOrder()
+    {
+        chat.reset();
+    }
+
+    /**
+     * Gets the order of the last displayed chat message.
+     *
+     * @return The order of the last displayed chat message, or 0 if there was none.
+     */
+    long getLastChatOrder()
+    {
+        return chat.getLastOrder();
     }
 
     /**
@@ -459,6 +889,50 @@ public class Node extends Thread
             Platform.runLater(() -> chatController.refreshData(userStateChange));
     }
 
+    /**
+     * Applies a change of a user sent by the king to the view of the ring and refreshes the UI.
+     * If some change was missed, the whole topology is requested from the king.
+     *
+     * @param userStateChange a change of a state of a user.
+     */
+    void applyUserChange(UserStateChange userStateChange)
+    {
+        PeasantLogic peasantLogic = this.peasantLogic;
+        if (userStateChange == null || peasantLogic == null) return;
+        if (!membership.apply(userStateChange))
+        {
+            logger.debug("Node " + myInfo + "\n - missed a change of users at epoch " + membership.getEpoch() +
+                    ", requesting the topology.");
+            try
+            {
+                UserStateChange state = peasantLogic.getTopologyState();
+                membership.replace(state.getCurrentTopologyInfos(), state.getEpoch(), state.isFramed());
+            } catch (OperationException e)
+            {
+                logger.error("Node " + myInfo + " - " + e.getMessage());
+                return;
+            }
+        }
+        if (hasUi())
+        {
+            // the node does not tell its own user that they joined
+            String userName = userStateChange.getUserName();
+            List<TopologyInfo> infos = membership.getTopologyInfo();
+            refreshUi(myInfo.getName().equals(userName) ? new UserStateChange(null, null, infos)
+                    : new UserStateChange(userName, userStateChange.getConnectionState(), infos));
+        }
+    }
+
+    /**
+     * Gets whether every node of the ring uses frames, as the king told with the last change of the users.
+     *
+     * @return true if every node uses frames.
+     */
+    boolean isEveryNodeFramed()
+    {
+        return membership.isFramed();
+    }
+
     /**
      * Creates a user state change class from given parameters and collected topology info.
      * @param name The name of the user which changed a state.
@@ -511,6 +985,26 @@ public class Node extends Thread
         return myInfo;
     }
 
+    /**
+     * Gets the transport which serves the connections of this node.
+     *
+     * @return The transport which serves the connections of this node.
+     */
+    Transport getTransport()
+    {
+        return transport;
+    }
+
+    /**
+     * Gets the tunable parameters of this node.
+     *
+     * @return The tunable parameters of this node.
+     */
+    NodeSettings getSettings()
+    {
+        return settings;
+    }
+
     /**
      * Gets the server port of this node.
      *
@@ -541,6 +1035,16 @@ public class Node extends Thread
         return peasantLogic;
     }
 
+    /**
+     * Gets the replica of the king's ring, which is kept when this node is the deputy of the king.
+     *
+     * @return The replica of the king's ring.
+     */
+    KingReplica getReplica()
+    {
+        return replica;
+    }
+
     /**
      * Gets the logic of the leader node. Null if the node is a basic node.
      *
@@ -551,6 +1055,36 @@ public class Node extends Thread
         return kingLogic;
     }
 
+    /**
+     * Gets the bridge between the shard and the top-level ring, if the node is part of a federation of shards.
+     *
+     * @return the bridge, or null if the node is not bridged.
+     */
+    ShardBridge getBridge()
+    {
+        return bridge;
+    }
+
+    /**
+     * Sets the bridge of a node of the top-level ring to the shard whose king runs it.
+     *
+     * @param bridge the bridge.
+     */
+    void setBridge(ShardBridge bridge)
+    {
+        this.bridge = bridge;
+    }
+
+    /**
+     * Sets the listener which gets every chat message delivered in order, including the messages of this node.
+     *
+     * @param deliveryListener the listener, or null to remove it.
+     */
+    void setDeliveryListener(Consumer<Message> deliveryListener)
+    {
+        this.deliveryListener = deliveryListener;
+    }
+
     /**
      * Sets a controller of the ui.
      *
@@ -562,12 +1096,12 @@ public class Node extends Thread
     }
 
     /**
-     * Adds a new chat message to the queue.
+     * Adds a new chat message to the chat. The messages are displayed in the order the king numbered them.
      *
      * @param message the chat message to be added.
      */
     void addNewMessage(Message message)
     {
-        messageQueue.add(message);
+        chat.add(message);
     }
 }
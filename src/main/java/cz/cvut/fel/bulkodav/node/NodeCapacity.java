@@ -0,0 +1,82 @@
+package cz.cvut.fel.bulkodav.node;
+
+import cz.cvut.fel.bulkodav.communication.CommunicationLink;
+
+import java.util.Collection;
+
+/**
+ * The {@link NodeCapacity} class scores how well a node can carry the load of the king, which sends every chat
+ * message to the other nodes. The score is 100 for every processor core, 1 for every 16 MiB of free heap, up to 1024,
+ * and minus 10 for every millisecond of the mean round trip time to the neighbours.
+ * <p>
+ * A node advertises its score in its {@link cz.cvut.fel.bulkodav.communication.MessageType#GREETINGS} message
+ * as {@link #TOKEN} followed by the score, before the frames token. The elections compare the election keys,
+ * which order the nodes by the score and then by the id, so the most capable node becomes the king and nodes
+ * with the same score are still ordered the same way by all the nodes.
+ * <p>
+ * The key does not fit into an int, while a node without frames reads the election messages as ints. So the nodes
+ * compete by the score only if the score is turned on and the king told them that every node of the ring uses
+ * frames, otherwise the key is the plain id of the node, as it was before the score.
+ */
+class NodeCapacity
+{
+    final static String TOKEN = "capacity:";
+
+    /**
+     * Measures the score of this node.
+     *
+     * @param neighbours The links to the neighbours whose round trip times count.
+     * @return The score of this node, at least 0.
+     */
+    static int measure(Collection<CommunicationLink> neighbours)
+    {
+        Runtime runtime = Runtime.getRuntime();
+        long freeHeap = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        double roundTripTime = 0;
+        int measured = 0;
+        for (CommunicationLink neighbour : neighbours)
+        {
+            double time = neighbour == null ? -1 : neighbour.getRoundTripTime();
+            if (time < 0) continue;
+            roundTripTime += time;
+            measured++;
+        }
+        if (measured > 0) roundTripTime /= measured;
+        long score = 100L * runtime.availableProcessors() + Math.min(1024, freeHeap >> 24) - Math.round(10 * roundTripTime);
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, score));
+    }
+
+    /**
+     * Finds the advertised score in the content of a greetings message.
+     *
+     * @param content The content of the message.
+     * @return The advertised score, or 0 if the node did not advertise any.
+     */
+    static int parse(String content)
+    {
+        for (String part : content.split(" "))
+        {
+            if (!part.startsWith(TOKEN)) continue;
+            try
+            {
+                return Math.max(0, Integer.parseInt(part.substring(TOKEN.length())));
+            } catch (NumberFormatException e)
+            {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Creates the key by which a node competes in an election.
+     *
+     * @param capacity The score of the node.
+     * @param id       The id of the node.
+     * @return The key which orders the nodes by the score and then by the id.
+     */
+    static long electionKey(int capacity, int id)
+    {
+        return ((long) capacity << 32) | ((long) id - Integer.MIN_VALUE);
+    }
+}
@@ -0,0 +1,491 @@
+package cz.cvut.fel.bulkodav.node;
+
+/**
+ * The {@link NodeSettings} class holds the tunable parameters of a node.
+ * The defaults can be overridden by system properties prefixed with "ringchat.".
+ */
+public class NodeSettings
+{
+    private int eventLoopThreads;
+    private int dispatchThreads;
+    private TransportType transport;
+    private String networkScenario;
+    private boolean framing;
+    private int sendWindow;
+    private int acknowledgementBatch;
+    private long acknowledgementTimeout;
+    private Dissemination dissemination;
+    private int relayDegree;
+    private int chatHistory;
+    private long requestTimeout;
+    private long heartbeatInterval;
+    private double suspicionThreshold;
+    private boolean deputy;
+    private Election election;
+    private boolean capacityElection;
+    private int promotionConnections;
+    private String federation;
+    private int federationPortOffset;
+    private int shardSize;
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.NodeSettings} class.
+     * Reads the values from the system properties, or uses the defaults if they are not set.
+     */
+    public NodeSettings()
+    {
+        eventLoopThreads = Integer.getInteger("ringchat.eventLoopThreads", 2);
+        dispatchThreads = Integer.getInteger("ringchat.dispatchThreads",
+                Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+        transport = TransportType.valueOf(System.getProperty("ringchat.transport", "tcp").toUpperCase());
+        networkScenario = System.getProperty("ringchat.networkScenario", "");
+        framing = Boolean.parseBoolean(System.getProperty("ringchat.framing", "true"));
+        sendWindow = Integer.getInteger("ringchat.sendWindow", 128);
+        acknowledgementBatch = Integer.getInteger("ringchat.acknowledgementBatch", 16);
+        acknowledgementTimeout = Long.getLong("ringchat.acknowledgementTimeout", 5000);
+        dissemination = Dissemination.valueOf(System.getProperty("ringchat.dissemination", "star").toUpperCase());
+        relayDegree = Integer.getInteger("ringchat.relayDegree", 4);
+        chatHistory = Integer.getInteger("ringchat.chatHistory", 1024);
+        requestTimeout = Long.getLong("ringchat.requestTimeout", 10000);
+        heartbeatInterval = Long.getLong("ringchat.heartbeatInterval", 1000);
+        suspicionThreshold = Double.parseDouble(System.getProperty("ringchat.suspicionThreshold", "8"));
+        deputy = Boolean.parseBoolean(System.getProperty("ringchat.deputy", "true"));
+        election = Election.valueOf(System.getProperty("ringchat.election", "chang-roberts")
+                .toUpperCase().replace('-', '_'));
+        capacityElection = Boolean.parseBoolean(System.getProperty("ringchat.capacityElection", "true"));
+        promotionConnections = Integer.getInteger("ringchat.promotionConnections", 16);
+        federation = System.getProperty("ringchat.federation", "");
+        federationPortOffset = Integer.getInteger("ringchat.federationPortOffset", 1000);
+        shardSize = Integer.getInteger("ringchat.shardSize", 0);
+    }
+
+    /**
+     * Gets the number of threads which read from and write to the sockets of the node.
+     *
+     * @return the number of event loop threads.
+     */
+    public int getEventLoopThreads()
+    {
+        return eventLoopThreads;
+    }
+
+    /**
+     * Sets the number of threads which read from and write to the sockets of the node.
+     *
+     * @param eventLoopThreads the number of event loop threads.
+     */
+    public void setEventLoopThreads(int eventLoopThreads)
+    {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    /**
+     * Gets the number of threads which handle the received messages.
+     *
+     * @return the number of dispatch threads.
+     */
+    public int getDispatchThreads()
+    {
+        return dispatchThreads;
+    }
+
+    /**
+     * Sets the number of threads which handle the received messages.
+     *
+     * @param dispatchThreads the number of dispatch threads.
+     */
+    public void setDispatchThreads(int dispatchThreads)
+    {
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    /**
+     * Gets the way the bytes get to the other nodes.
+     *
+     * @return the transport of the node.
+     */
+    public TransportType getTransport()
+    {
+        return transport;
+    }
+
+    /**
+     * Sets the way the bytes get to the other nodes.
+     *
+     * @param transport the transport of the node.
+     */
+    public void setTransport(TransportType transport)
+    {
+        this.transport = transport;
+    }
+
+    /**
+     * Gets the path to the scenario file whose links the connections of the node emulate.
+     * Empty if the connections are not emulated.
+     *
+     * @return the path to the network scenario.
+     */
+    public String getNetworkScenario()
+    {
+        return networkScenario;
+    }
+
+    /**
+     * Sets the path to the scenario file whose links the connections of the node emulate.
+     * Empty if the connections are not emulated.
+     *
+     * @param networkScenario the path to the network scenario.
+     */
+    public void setNetworkScenario(String networkScenario)
+    {
+        this.networkScenario = networkScenario;
+    }
+
+    /**
+     * Gets whether the node offers and accepts length prefixed frames instead of json lines.
+     *
+     * @return true if the node uses frames with the nodes which understand them.
+     */
+    public boolean isFraming()
+    {
+        return framing;
+    }
+
+    /**
+     * Sets whether the node offers and accepts length prefixed frames instead of json lines.
+     *
+     * @param framing true if the node should use frames with the nodes which understand them.
+     */
+    public void setFraming(boolean framing)
+    {
+        this.framing = framing;
+    }
+
+    /**
+     * Gets the number of chat messages the king sends to a node without waiting for their acknowledgement.
+     *
+     * @return the size of the send window.
+     */
+    public int getSendWindow()
+    {
+        return sendWindow;
+    }
+
+    /**
+     * Sets the number of chat messages the king sends to a node without waiting for their acknowledgement.
+     *
+     * @param sendWindow the size of the send window.
+     */
+    public void setSendWindow(int sendWindow)
+    {
+        this.sendWindow = sendWindow;
+    }
+
+    /**
+     * Gets the number of received chat messages which may be acknowledged at once.
+     *
+     * @return the size of the acknowledgement batch.
+     */
+    public int getAcknowledgementBatch()
+    {
+        return acknowledgementBatch;
+    }
+
+    /**
+     * Sets the number of received chat messages which may be acknowledged at once.
+     *
+     * @param acknowledgementBatch the size of the acknowledgement batch.
+     */
+    public void setAcknowledgementBatch(int acknowledgementBatch)
+    {
+        this.acknowledgementBatch = acknowledgementBatch;
+    }
+
+    /**
+     * Gets the time in milliseconds after which a node which does not acknowledge the chat messages is considered dead.
+     *
+     * @return the acknowledgement timeout in milliseconds.
+     */
+    public long getAcknowledgementTimeout()
+    {
+        return acknowledgementTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds after which a node which does not acknowledge the chat messages is considered dead.
+     *
+     * @param acknowledgementTimeout the acknowledgement timeout in milliseconds.
+     */
+    public void setAcknowledgementTimeout(long acknowledgementTimeout)
+    {
+        this.acknowledgementTimeout = acknowledgementTimeout;
+    }
+
+    /**
+     * Gets the way the king spreads chat messages to the other nodes.
+     *
+     * @return the way of spreading chat messages.
+     */
+    public Dissemination getDissemination()
+    {
+        return dissemination;
+    }
+
+    /**
+     * Sets the way the king spreads chat messages to the other nodes.
+     *
+     * @param dissemination the way of spreading chat messages.
+     */
+    public void setDissemination(Dissemination dissemination)
+    {
+        this.dissemination = dissemination;
+    }
+
+    /**
+     * Gets the number of nodes every node relays a chat message to, when the messages go down a tree.
+     *
+     * @return the number of children of a node in the relay tree.
+     */
+    public int getRelayDegree()
+    {
+        return relayDegree;
+    }
+
+    /**
+     * Sets the number of nodes every node relays a chat message to, when the messages go down a tree.
+     *
+     * @param relayDegree the number of children of a node in the relay tree.
+     */
+    public void setRelayDegree(int relayDegree)
+    {
+        this.relayDegree = relayDegree;
+    }
+
+    /**
+     * Gets the number of the last chat messages the king keeps to send them once more to the nodes which missed them.
+     * It is also the number of chat messages a node lets wait for a missing one.
+     *
+     * @return the number of kept chat messages.
+     */
+    public int getChatHistory()
+    {
+        return chatHistory;
+    }
+
+    /**
+     * Sets the number of the last chat messages the king keeps to send them once more to the nodes which missed them.
+     * It is also the number of chat messages a node lets wait for a missing one.
+     *
+     * @param chatHistory the number of kept chat messages.
+     */
+    public void setChatHistory(int chatHistory)
+    {
+        this.chatHistory = chatHistory;
+    }
+
+    /**
+     * Gets the time in milliseconds a node waits for the response to its request.
+     *
+     * @return the request timeout in milliseconds.
+     */
+    public long getRequestTimeout()
+    {
+        return requestTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds a node waits for the response to its request.
+     *
+     * @param requestTimeout the request timeout in milliseconds.
+     */
+    public void setRequestTimeout(long requestTimeout)
+    {
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Gets the interval in milliseconds in which a node asks the nodes it watches for a heartbeat.
+     * 0 turns the heartbeats off.
+     *
+     * @return the heartbeat interval in milliseconds.
+     */
+    public long getHeartbeatInterval()
+    {
+        return heartbeatInterval;
+    }
+
+    /**
+     * Sets the interval in milliseconds in which a node asks the nodes it watches for a heartbeat.
+     * 0 turns the heartbeats off.
+     *
+     * @param heartbeatInterval the heartbeat interval in milliseconds.
+     */
+    public void setHeartbeatInterval(long heartbeatInterval)
+    {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    /**
+     * Gets the phi accrual suspicion level above which a watched node is considered dead.
+     *
+     * @return the suspicion threshold.
+     */
+    public double getSuspicionThreshold()
+    {
+        return suspicionThreshold;
+    }
+
+    /**
+     * Sets the phi accrual suspicion level above which a watched node is considered dead.
+     *
+     * @param suspicionThreshold the suspicion threshold.
+     */
+    public void setSuspicionThreshold(double suspicionThreshold)
+    {
+        this.suspicionThreshold = suspicionThreshold;
+    }
+
+    /**
+     * Gets whether the king appoints a deputy, which takes over right after the death of the king.
+     *
+     * @return true if the king appoints a deputy.
+     */
+    public boolean isDeputy()
+    {
+        return deputy;
+    }
+
+    /**
+     * Sets whether the king appoints a deputy, which takes over right after the death of the king.
+     *
+     * @param deputy true if the king should appoint a deputy.
+     */
+    public void setDeputy(boolean deputy)
+    {
+        this.deputy = deputy;
+    }
+
+    /**
+     * Gets the algorithm by which the nodes elect a new king.
+     *
+     * @return the algorithm of the election.
+     */
+    public Election getElection()
+    {
+        return election;
+    }
+
+    /**
+     * Sets the algorithm by which the nodes elect a new king.
+     *
+     * @param election the algorithm of the election.
+     */
+    public void setElection(Election election)
+    {
+        this.election = election;
+    }
+
+    /**
+     * Gets whether the nodes compete in the elections by their capacity, and by their ids only when it is the same.
+     *
+     * @return true if the most capable node is elected, false if the node with the biggest id is elected.
+     */
+    public boolean isCapacityElection()
+    {
+        return capacityElection;
+    }
+
+    /**
+     * Sets whether the nodes compete in the elections by their capacity, and by their ids only when it is the same.
+     *
+     * @param capacityElection true if the most capable node should be elected.
+     */
+    public void setCapacityElection(boolean capacityElection)
+    {
+        this.capacityElection = capacityElection;
+    }
+
+    /**
+     * Gets the number of connections a newly elected king opens to the nodes of the ring at once.
+     *
+     * @return the number of connections opened at once.
+     */
+    public int getPromotionConnections()
+    {
+        return promotionConnections;
+    }
+
+    /**
+     * Sets the number of connections a newly elected king opens to the nodes of the ring at once.
+     *
+     * @param promotionConnections the number of connections opened at once.
+     */
+    public void setPromotionConnections(int promotionConnections)
+    {
+        this.promotionConnections = promotionConnections;
+    }
+
+    /**
+     * Gets the addresses of the kings of the top-level ring, through which the king of a shard joins it.
+     * Empty if the ring is not split into shards.
+     *
+     * @return the ip addresses and the ports separated by a ":", separated by commas.
+     */
+    public String getFederation()
+    {
+        return federation;
+    }
+
+    /**
+     * Sets the addresses of the kings of the top-level ring, through which the king of a shard joins it.
+     * Empty if the ring is not split into shards.
+     *
+     * @param federation the ip addresses and the ports separated by a ":", separated by commas.
+     */
+    public void setFederation(String federation)
+    {
+        this.federation = federation;
+    }
+
+    /**
+     * Gets the number added to the port of the king of a shard to get the port of its node in the top-level ring.
+     *
+     * @return the federation port offset.
+     */
+    public int getFederationPortOffset()
+    {
+        return federationPortOffset;
+    }
+
+    /**
+     * Sets the number added to the port of the king of a shard to get the port of its node in the top-level ring.
+     *
+     * @param federationPortOffset the federation port offset.
+     */
+    public void setFederationPortOffset(int federationPortOffset)
+    {
+        this.federationPortOffset = federationPortOffset;
+    }
+
+    /**
+     * Gets the number of nodes in a shard, including its king, above which new nodes are sent to other shards.
+     * 0 does not limit the shards.
+     *
+     * @return the maximal number of nodes in a shard.
+     */
+    public int getShardSize()
+    {
+        return shardSize;
+    }
+
+    /**
+     * Sets the number of nodes in a shard, including its king, above which new nodes are sent to other shards.
+     * 0 does not limit the shards.
+     *
+     * @param shardSize the maximal number of nodes in a shard.
+     */
+    public void setShardSize(int shardSize)
+    {
+        this.shardSize = shardSize;
+    }
+}
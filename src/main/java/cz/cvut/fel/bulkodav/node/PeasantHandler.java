@@ -40,13 +40,7 @@ public class PeasantHandler implements MessageHandler
         messageSender.sendMessage(new Message("", messageSenderInfo, myInfo, CONFIRM));
         try
         {
-            UserStateChange userStateChange = messageSender.readUserChange();
-            if (node.hasUi())
-            {
-                if (userStateChange.getUserName().equals(myInfo.getName()))
-                    userStateChange = new UserStateChange(null, null, userStateChange.getCurrentTopologyInfos());
-                node.refreshUi(userStateChange);
-            }
+            node.applyUserChange(messageSender.readUserChange());
         } catch (CommunicationException e)
         {
             node.handleNodeDeath(messageSenderInfo);
@@ -60,7 +54,54 @@ public class PeasantHandler implements MessageHandler
     public void handleChatMessage(Message message, CommunicationLink messageSender)
     {
         node.addNewMessage(message);
-        messageSender.sendMessage(new Message("", messageSender.getInfo(), myInfo, CONFIRM));
+        if (message.getSequence() != 0)
+        {
+            messageSender.acknowledge(message.getSequence());
+        } else
+        {
+            messageSender.sendMessage(new Message("", messageSender.getInfo(), myInfo, CONFIRM));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The message is passed on to the left node, even if this node is the one who wrote it.
+     */
+    @Override
+    public void handleRingChatMessage(Message message, CommunicationLink messageSender)
+    {
+        PeasantLogic peasantLogic = node.getPeasantLogic();
+        if (peasantLogic != null)
+        {
+            node.addNewMessage(message);
+            peasantLogic.passAroundRing(message);
+        }
+        messageSender.acknowledge(message.getSequence());
+    }
+
+    /**
+     * {@inheritDoc}
+     * The message is relayed to the nodes below this one in the relay tree, even if this node is the one who wrote it.
+     */
+    @Override
+    public void handleRelayChatMessage(Message message, CommunicationLink messageSender)
+    {
+        PeasantLogic peasantLogic = node.getPeasantLogic();
+        if (peasantLogic != null)
+        {
+            node.addNewMessage(message);
+            peasantLogic.relay(message);
+        }
+        messageSender.acknowledge(message.getSequence());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleRetransmitMessage(Message message, CommunicationLink messageSender)
+    {
+        //ignored
     }
 
     /**
@@ -102,13 +143,15 @@ public class PeasantHandler implements MessageHandler
     {
         String messageContent = message.getContent();
         boolean hasUi = node.hasUi();
-        if (messageContent.contains("off "))
+        boolean online = messageContent.startsWith("on ");
+        if (online || messageContent.contains("off "))
         {
             try
             {
                 UserStateChange userStateChange = messageSender.readUserChange();
-                logger.info("Node " + myInfo + " - " + userStateChange.getUserName() + " logged off.\n");
-                if (hasUi) node.refreshUi(userStateChange);
+                logger.info("Node " + myInfo + " - " + userStateChange.getUserName() +
+                        (online ? " is online.\n" : " logged off.\n"));
+                node.applyUserChange(userStateChange);
             } catch (CommunicationException e)
             {
                 NodeInfo king = node.getPeasantLogic().getKing().getInfo();
@@ -132,7 +175,7 @@ public class PeasantHandler implements MessageHandler
             logger.info("Node " + myInfo + "\n - " + kingName + " disconnected unexpectedly.\n");
         }
         String senderName = message.getSenderName();
-        peasantLogic.handleElection(Integer.parseInt(message.getContent()), senderName, senderName.equals(kingName));
+        peasantLogic.handleElection(message.getContent(), senderName, senderName.equals(kingName));
     }
 
     /**
@@ -151,6 +194,7 @@ public class PeasantHandler implements MessageHandler
         boolean success = peasantLogic.createNewNodeInDirection(Direction.KING, newKingInfo);
         if (!success) node.shutDownListenerByName(newKingInfo.getName());
         peasantLogic.electionIsOver();
+        node.resetChatOrder();
 
         if (!nextHop.getName().equals(deadKingName) && !senderName.equals(nextHop.getName()))
         {
@@ -163,7 +207,7 @@ public class PeasantHandler implements MessageHandler
                 logger.error("Node " + myInfo + " error getting neighbours of " + nextHop.getName(), e);
             }
         }
-        messageSender.sendMessage(new Message(messageContent.trim(), message.getSender(), myInfo, CONFIRM));
+        messageSender.reply(message, new Message(messageContent.trim(), message.getSender(), myInfo, CONFIRM));
     }
 
     /**
@@ -172,6 +216,69 @@ public class PeasantHandler implements MessageHandler
     @Override
     public void handleNameMessage(Message message, CommunicationLink messageSender)
     {
-        messageSender.sendMessage(new Message(myInfo.getName(), message.getSender(), myInfo, NAME));
+        messageSender.reply(message, new Message(myInfo.getName(), message.getSender(), myInfo, NAME));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleDeputyMessage(Message message, CommunicationLink messageSender)
+    {
+        String content = message.getContent();
+        NodeInfo deputy = content.isEmpty() ? null : messageSender.deserializeId(content);
+        node.getPeasantLogic().setDeputy(deputy);
+    }
+
+    /**
+     * {@inheritDoc}
+     * If some change of the ring was missed, the whole ring is asked for.
+     */
+    @Override
+    public void handleReplicaMessage(Message message, CommunicationLink messageSender)
+    {
+        KingReplica replica = node.getReplica();
+        if (replica.apply(message.getContent(), messageSender)) return;
+        try
+        {
+            replica.apply(node.getPeasantLogic().requestReplica(), messageSender);
+        } catch (CommunicationException e)
+        {
+            logger.error("Node " + myInfo + "\n - could not get the replica of the ring from the king.");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * The deputy of the old king becomes the king of this node. After a handoff the deputy goes on
+     * with the numbering of the chat messages, so the order of the chat is kept.
+     */
+    @Override
+    public void handleSuccessionMessage(Message message, CommunicationLink messageSender)
+    {
+        PeasantLogic peasantLogic = node.getPeasantLogic();
+        NodeInfo newKingInfo = message.getSender();
+        boolean handoff = message.getContent().equals(KingReplica.HANDOFF);
+        logger.info("Node " + myInfo + "\n - " + peasantLogic.getKingsName() +
+                (handoff ? " logged off, " : " disconnected unexpectedly, ") +
+                newKingInfo.getName() + " took over as their deputy.\n");
+        node.shutDownListenerByName(peasantLogic.getKingsName());
+
+        boolean success = peasantLogic.createNewNodeInDirection(Direction.KING, newKingInfo);
+        if (!success) node.shutDownListenerByName(newKingInfo.getName());
+        peasantLogic.electionIsOver();
+        if (!handoff) node.resetChatOrder();
+        messageSender.reply(message, new Message("", newKingInfo, myInfo, CONFIRM));
+    }
+
+    /**
+     * {@inheritDoc}
+     * The deputy takes over from the king which logs off.
+     */
+    @Override
+    public void handleHandoffMessage(Message message, CommunicationLink messageSender)
+    {
+        if (!node.acceptHandoff(message, messageSender))
+            messageSender.reply(message, new Message("", messageSender.getInfo(), myInfo, REJECT));
     }
 }
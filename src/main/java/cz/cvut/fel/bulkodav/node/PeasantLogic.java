@@ -4,12 +4,20 @@ import cz.cvut.fel.bulkodav.communication.CommunicationLink;
 import cz.cvut.fel.bulkodav.communication.Message;
 import cz.cvut.fel.bulkodav.communication.NodeInfo;
 import cz.cvut.fel.bulkodav.communication.TopologyInfo;
+import cz.cvut.fel.bulkodav.exceptions.CommunicationException;
 import cz.cvut.fel.bulkodav.exceptions.OperationException;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 import static cz.cvut.fel.bulkodav.communication.MessageType.*;
 import static cz.cvut.fel.bulkodav.node.Direction.LEFT;
@@ -23,7 +31,11 @@ class PeasantLogic implements NodeLogic
     private CommunicationLink king;
     private CommunicationLink leftNode;
     private CommunicationLink rightNode;
-    private boolean isElectionParticipant;
+    private final Map<Integer, CommunicationLink> relayLinks = new HashMap<>();
+    private final ElectionStrategy election;
+    private Long electionKey;
+    private volatile NodeInfo deputy;
+    private volatile int awaitedKingId;
     private final static Logger logger = Logger.getLogger(PeasantLogic.class);
     private NodeInfo myInfo;
     private Node node;
@@ -42,6 +54,7 @@ class PeasantLogic implements NodeLogic
         this.king = king;
         this.leftNode = leftNode;
         this.rightNode = rightNode;
+        this.election = node.getSettings().getElection().create(new Ring());
     }
 
     /**
@@ -51,11 +64,10 @@ class PeasantLogic implements NodeLogic
      */
     String getOnlineUsers() throws OperationException
     {
-        king.sendMessage(new Message("Show me online users.", king.getInfo(), myInfo, ONLINE_USERS));
         String errorText = "The leader node: " + king.getName() + " might have disconnected. Try the operation again after the topology is corrected.";
         try
         {
-            Message response = king.readMessage();
+            Message response = request(king, new Message("Show me online users.", king.getInfo(), myInfo, ONLINE_USERS));
             if (response.getMessageType() == ONLINE_USERS)
             {
                 return response.getContent();
@@ -83,13 +95,50 @@ class PeasantLogic implements NodeLogic
         if (deadNodeId != kingId)
         {
             king.sendMessage(new Message(deadNodeName, king.getInfo(), myInfo, TOPOLOGY_CHANGED));
-        } else
+        } else if (!awaitDeputy(kingInfo))
         {
-            handleElection(myInfo.hashCode(), getNextHop(king.getName()).getName(), true);
+            startElection();
         }
         return deadNodeName;
     }
 
+    /**
+     * Lets the deputy take over after the death of the king. The deputy takes over at once, the other nodes wait
+     * for it and start an election only if it does not take over in time.
+     *
+     * @param deadKingInfo The info about the dead king.
+     * @return true if the deputy takes over, false if there is no deputy and a new king has to be elected.
+     */
+    private boolean awaitDeputy(NodeInfo deadKingInfo)
+    {
+        NodeInfo deputy = this.deputy;
+        int deadKingId = deadKingInfo.hashCode();
+        if (deputy == null || deputy.hashCode() == deadKingId) return false;
+        if (deputy.hashCode() == myInfo.hashCode()) return node.succeedKing(deadKingInfo);
+        if (awaitedKingId == deadKingId) return true;
+        awaitedKingId = deadKingId;
+
+        logger.info("Node " + myInfo + "\n - " + deadKingInfo.getName() + " disconnected unexpectedly, waiting for " +
+                "their deputy " + deputy.getName() + ".\n");
+        Thread thread = new Thread(() ->
+        {
+            try
+            {
+                Thread.sleep(node.getSettings().getRequestTimeout());
+            } catch (InterruptedException e)
+            {
+                return;
+            }
+            if (node.getPeasantLogic() != this || king.getInfo().hashCode() != deadKingId) return;
+            logger.info("Node " + myInfo + "\n - the deputy " + deputy.getName() + " did not take over.\n");
+            this.deputy = null;
+            startElection();
+        }, "awaiting-" + deputy.getName());
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -99,6 +148,11 @@ class PeasantLogic implements NodeLogic
         king.close();
         leftNode.close();
         rightNode.close();
+        synchronized (relayLinks)
+        {
+            relayLinks.values().forEach(CommunicationLink::close);
+            relayLinks.clear();
+        }
     }
 
     /**
@@ -123,21 +177,38 @@ class PeasantLogic implements NodeLogic
     @Override
     public List<TopologyInfo> getTopologyInfo() throws OperationException
     {
-        king.sendMessage(new Message("", king.getInfo(), myInfo, MAP_TOPOLOGY));
+        return getTopologyState().getCurrentTopologyInfos();
+    }
+
+    /**
+     * Gets the whole topology of the ring from the king, together with the epoch of the king's membership.
+     *
+     * @return The whole topology of the ring, with the epoch 0 if the king does not know the epochs.
+     * @throws OperationException if the king does not answer.
+     */
+    UserStateChange getTopologyState() throws OperationException
+    {
         try
         {
-            Message response = king.readMessage();
+            Message response = request(king,
+                    new Message(UserStateChange.EPOCH_TOKEN, king.getInfo(), myInfo, MAP_TOPOLOGY));
             if (response.getMessageType() != CONFIRM)
                 throw new OperationException("Error while getting topology info. " +
                         "Some node might have disconnected unexpectedly. Try again later.");
             String string = response.getContent();
             List<TopologyInfo> infos = new ArrayList<>();
+            long epoch = 0;
+            boolean framed = false;
 //            infos.add(new TopologyInfo(myInfo.getName(), leftNode.getName(), rightNode.getName()));
             for (String str : string.split(" "))
             {
-                infos.add(king.deserializeTopologyInfo(str));
+                // a king which knows the epochs puts the epoch before the infos, followed by the frames token
+                // if every node of the ring uses frames
+                if (str.equals(CommunicationLink.FRAMES_TOKEN)) framed = true;
+                else if (infos.isEmpty() && !str.startsWith("{")) epoch = Long.parseLong(str);
+                else infos.add(king.deserializeTopologyInfo(str));
             }
-            return infos;
+            return new UserStateChange(null, null, infos, epoch, framed);
         } catch (IOException e)
         {
             handleNodeDeath(king.getInfo());
@@ -151,12 +222,36 @@ class PeasantLogic implements NodeLogic
      */
     @Override
     public void sendMessage(String text) throws OperationException
+    {
+        sendChat(new Message(text, null, node.getNodeInfo(), CHAT));
+    }
+
+    /**
+     * Sends a chat message written by another node to the king, so that the king spreads it in the ring.
+     *
+     * @param message The chat message with its original sender.
+     * @throws OperationException if the king does not take the message.
+     */
+    void relayMessage(Message message) throws OperationException
+    {
+        sendChat(new Message(message.getContent(), null, message.getSender(), CHAT));
+    }
+
+    /**
+     * Sends a chat message to the king.
+     *
+     * @param message The chat message.
+     * @throws OperationException if the king does not take the message.
+     */
+    private void sendChat(Message message) throws OperationException
     {
         String errorText = "Unknown error while sending a message.";
-        king.sendMessage(new Message(text, king.getInfo(), node.getNodeInfo(), CHAT));
         try
         {
-            Message response = king.readMessage();
+            Message response = request(king, message);
+            if (response.getMessageType() == REJECT)
+                throw new OperationException("The leader node: " + king.getName() + " is handing over to " +
+                        "their deputy. Try again later.");
             if (response.getMessageType() != CONFIRM)
                 throw new OperationException(errorText);
         } catch (IOException e)
@@ -166,6 +261,132 @@ class PeasantLogic implements NodeLogic
         }
     }
 
+    /**
+     * Asks the king to send the chat messages which did not arrive once more.
+     *
+     * @param from The order of the first missing message.
+     * @param to   The order of the last missing message.
+     */
+    void requestRetransmission(long from, long to)
+    {
+        king.sendMessage(new Message(from + " " + to, king.getInfo(), myInfo, RETRANSMIT));
+    }
+
+    /**
+     * Passes a chat message which goes around the ring to the left node. The message is not passed to the king,
+     * because the king is the one who sent it around the ring.
+     * All the nodes understand frames when the king uses the ring, so the left node gets the message through
+     * a send window.
+     *
+     * @param message The received chat message.
+     */
+    void passAroundRing(Message message)
+    {
+        CommunicationLink leftNode = this.leftNode;
+        if (leftNode.getInfo().hashCode() == king.getInfo().hashCode()) return;
+
+        NodeSettings settings = node.getSettings();
+        if (!leftNode.hasSendWindow())
+        {
+            leftNode.setFramed(true);
+            leftNode.openSendWindow(settings.getSendWindow(), 8 * settings.getSendWindow());
+        }
+        if (!leftNode.sendSequenced(message.getEncoded(), message.getOrder()) ||
+                leftNode.isStalled(settings.getAcknowledgementTimeout()))
+        {
+            logger.error("Node " + myInfo + "\n - Failed to pass message to: " +
+                    leftNode.getName() + ", they disconnected unexpectedly.");
+            node.handleNodeDeath(leftNode.getInfo());
+        }
+    }
+
+    /**
+     * Relays a chat message to the children of this node in the relay tree. The message lists the nodes below
+     * this node, every child gets the message with the list of the nodes below the child.
+     * If a child does not get the message, this node relays it to the nodes below the child instead.
+     * The links to the nodes which are no longer children of this node are closed.
+     *
+     * @param message The received chat message.
+     */
+    void relay(Message message)
+    {
+        List<NodeInfo> nodes = message.getRelay();
+        if (nodes == null) return;
+        synchronized (relayLinks)
+        {
+            Set<Integer> children = new HashSet<>();
+            relay(message, nodes, children);
+
+            Iterator<Map.Entry<Integer, CommunicationLink>> iterator = relayLinks.entrySet().iterator();
+            while (iterator.hasNext())
+            {
+                Map.Entry<Integer, CommunicationLink> entry = iterator.next();
+                if (children.contains(entry.getKey())) continue;
+                entry.getValue().close();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Relays a chat message to the children of this node in the tree of the given nodes.
+     *
+     * @param message  The chat message.
+     * @param nodes    The nodes below this node in the breadth-first order.
+     * @param children The set to which the ids of the children which got the message are added.
+     */
+    private void relay(Message message, List<NodeInfo> nodes, Set<Integer> children)
+    {
+        NodeSettings settings = node.getSettings();
+        for (List<NodeInfo> subtree : RelayTree.split(nodes, settings.getRelayDegree()))
+        {
+            NodeInfo childInfo = subtree.get(0);
+            List<NodeInfo> below = new ArrayList<>(subtree.subList(1, subtree.size()));
+            CommunicationLink child = getRelayLink(childInfo);
+            byte[] encoded = CommunicationLink.encode(
+                    new Message(message.getContent(), null, message.getSender(), RELAY_CHAT, message.getOrder(), below));
+
+            if (child != null && encoded != null && child.sendSequenced(encoded) &&
+                    !child.isStalled(settings.getAcknowledgementTimeout()))
+            {
+                children.add(childInfo.hashCode());
+                continue;
+            }
+
+            logger.error("Node " + myInfo + "\n - Failed to relay message to: " +
+                    childInfo.getName() + ", they disconnected unexpectedly.");
+            if (child != null) relayLinks.remove(childInfo.hashCode()).close();
+            handleNodeDeath(childInfo);
+            relay(message, below, children);
+        }
+    }
+
+    /**
+     * Gets the link through which the chat messages are relayed to the node. Connects to the node if there is
+     * no such link yet. All the nodes understand frames when the king uses the relay tree, so the messages are sent
+     * through a send window.
+     *
+     * @param nodeInfo The info about the node.
+     * @return The link to the node, or null if the node cannot be connected.
+     */
+    private CommunicationLink getRelayLink(NodeInfo nodeInfo)
+    {
+        CommunicationLink link = relayLinks.get(nodeInfo.hashCode());
+        if (link != null) return link;
+        try
+        {
+            NodeSettings settings = node.getSettings();
+            link = node.connectTo(nodeInfo);
+            link.setFramed(true);
+            link.openSendWindow(settings.getSendWindow(), 8 * settings.getSendWindow());
+            relayLinks.put(nodeInfo.hashCode(), link);
+            return link;
+        } catch (IOException e)
+        {
+            return null;
+        }
+    }
+
     /**
      * Calls the {@link PeasantLogic#setLeftNode(CommunicationLink)}, {@link PeasantLogic#setRightNode(CommunicationLink)}
      * or {@link PeasantLogic#setRightNode(CommunicationLink)} depending on the provided direction.
@@ -179,7 +400,7 @@ class PeasantLogic implements NodeLogic
         String stringDirection = direction.toString();
         try
         {
-            CommunicationLink communicationLink = new CommunicationLink(newNodeInfo);
+            CommunicationLink communicationLink = node.connectTo(newNodeInfo);
             logger.info("Node " + myInfo + "\n - new " + stringDirection + " is: " + name + "\n");
             if (direction == LEFT)
             {
@@ -202,38 +423,33 @@ class PeasantLogic implements NodeLogic
     }
 
     /**
-     * Handles the election of a new node.
-     *
-     * @param electionId The election message.
-     * @param senderName The sender of the election message.
+     * Starts the election of a new king after this node found out that the king is dead.
      */
-    void handleElection(int electionId, String senderName, boolean startedLocally)
+    void startElection()
     {
-        int myId = myInfo.hashCode();
         node.shutDownListenerByName(king.getName());
-        int kingId = king.getInfo().hashCode();
-
-        CommunicationLink nextHop = getNextHop(senderName);
-        if (nextHop.getInfo().hashCode() == kingId) nextHop = getNextHop(nextHop.getName());
+        election.startElection();
+    }
 
-        String messageContent;
-        if (electionId > myId)
-        {
-            messageContent = Integer.toString(electionId);
-        } else if (electionId == myId && (!startedLocally || nextHop.getInfo().hashCode() == kingId))
-        {
-            logger.info("Node " + myInfo + "\n - " + "I am the new king!\n");
-            node.promoteToKing();
-            return;
-        } else
+    /**
+     * Handles a message of the election of a new king. The message is handed to the {@link ElectionStrategy}
+     * of the node, unless the deputy takes over instead.
+     *
+     * @param content    The content of the election message.
+     * @param senderName The sender of the election message.
+     * @param sentByKing Whether the message was sent by the king which logs off.
+     */
+    void handleElection(String content, String senderName, boolean sentByKing)
+    {
+        // the deputy takes over instead, the nodes which did not know about it learn about it then
+        NodeInfo deputy = this.deputy;
+        if (!sentByKing && deputy != null)
         {
-            if (isElectionParticipant()) return;
-            messageContent = Integer.toString(myId);
+            if (deputy.hashCode() != myInfo.hashCode() || node.succeedKing(king.getInfo())) return;
+            this.deputy = null;
         }
-        isElectionParticipant = true;
-
-        logger.info("Node " + myInfo + "\n - " + "sending : " + messageContent + " to " + nextHop.getName() + "\n");
-        nextHop.sendMessage(new Message(messageContent, nextHop.getInfo(), myInfo, KING_IS_DEAD));
+        node.shutDownListenerByName(king.getName());
+        election.handleElectionMessage(content, senderName, sentByKing);
     }
 
     /**
@@ -269,7 +485,7 @@ class PeasantLogic implements NodeLogic
      */
     boolean isElectionParticipant()
     {
-        return isElectionParticipant;
+        return election.isParticipant();
     }
 
     /**
@@ -281,10 +497,9 @@ class PeasantLogic implements NodeLogic
      */
     boolean isNodeDead(CommunicationLink node)
     {
-        node.sendMessage(new Message("Are you online?", node.getInfo(), myInfo, NAME));
         try
         {
-            node.readMessage();
+            request(node, new Message("Are you online?", node.getInfo(), myInfo, NAME));
             return false;
         } catch (IOException e)
         {
@@ -292,6 +507,31 @@ class PeasantLogic implements NodeLogic
         }
     }
 
+    /**
+     * Sends the request to the node and waits for the response. Other requests may be sent through the same link
+     * while this one waits.
+     *
+     * @param link    The link to the node.
+     * @param message The request.
+     * @return The response.
+     * @throws CommunicationException if the response did not come in time, or the link ended before it came.
+     */
+    private Message request(CommunicationLink link, Message message) throws CommunicationException
+    {
+        try
+        {
+            return link.request(message, node.getSettings().getRequestTimeout()).get();
+        } catch (ExecutionException e)
+        {
+            logger.debug("Node " + myInfo + "\n - request to " + link.getName() + " failed.", e.getCause());
+            throw new CommunicationException(link.getInfo().hashCode());
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CommunicationException(link.getInfo().hashCode());
+        }
+    }
+
     /**
      * Gets the communicator with the next node by it's name. If the previous name was the one of the left node,
      * the next hop is the right node and vice versa.
@@ -326,8 +566,9 @@ class PeasantLogic implements NodeLogic
 
     private void setKing(CommunicationLink communicationLink)
     {
-        king.close();
+        CommunicationLink previous = king;
         king = communicationLink;
+        closeUnlessUsed(previous);
     }
 
     /**
@@ -337,8 +578,9 @@ class PeasantLogic implements NodeLogic
      */
     private void setLeftNode(CommunicationLink leftNode)
     {
-        this.leftNode.close();
+        CommunicationLink previous = this.leftNode;
         this.leftNode = leftNode;
+        closeUnlessUsed(previous);
     }
 
     /**
@@ -348,17 +590,136 @@ class PeasantLogic implements NodeLogic
      */
     private void setRightNode(CommunicationLink rightNode)
     {
-        if (this.rightNode.getPort() != rightNode.getPort())
-            this.rightNode.close();
-
+        CommunicationLink previous = this.rightNode;
         this.rightNode = rightNode;
+        if (previous.getPort() != rightNode.getPort())
+            closeUnlessUsed(previous);
+    }
+
+    /**
+     * Closes the link unless it still communicates with the king or a neighbour, a node which is both
+     * the king and a neighbour is communicated with through one link.
+     *
+     * @param link The link to be closed.
+     */
+    private void closeUnlessUsed(CommunicationLink link)
+    {
+        if (link != king && link != leftNode && link != rightNode) link.close();
     }
 
     /**
-     * Sets {@link PeasantLogic#isElectionParticipant} to false.
+     * Sets the deputy of the king, which takes over after the death of the king.
+     *
+     * @param deputy The info about the deputy, or null if the king has no deputy.
+     */
+    void setDeputy(NodeInfo deputy)
+    {
+        this.deputy = deputy;
+    }
+
+    /**
+     * Asks the king for its whole ring, when this node is the deputy and missed a change of the ring.
+     *
+     * @return The content of the replica message with the whole ring.
+     * @throws CommunicationException if the king does not answer.
+     */
+    String requestReplica() throws CommunicationException
+    {
+        return request(king, new Message("", king.getInfo(), myInfo, REPLICA)).getContent();
+    }
+
+    /**
+     * Ends the participation of this node in the election.
      */
     void electionIsOver()
     {
-        isElectionParticipant = false;
+        election.electionIsOver();
+        synchronized (this)
+        {
+            electionKey = null;
+        }
+    }
+
+    /**
+     * The {@link Ring} class shows the neighbours of this node to its {@link ElectionStrategy}.
+     */
+    private class Ring implements ElectionRing
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public NodeInfo getMyInfo()
+        {
+            return myInfo;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getMyKey()
+        {
+            synchronized (PeasantLogic.this)
+            {
+                if (electionKey == null && node.getSettings().isCapacityElection() && node.isEveryNodeFramed())
+                {
+                    int capacity = NodeCapacity.measure(Arrays.asList(leftNode, rightNode));
+                    electionKey = NodeCapacity.electionKey(capacity, myInfo.hashCode());
+                    logger.info("Node " + myInfo + "\n - competing with the capacity " + capacity + ".\n");
+                } else if (electionKey == null)
+                {
+                    // a node without frames reads the key as an int, so the key is the plain id
+                    electionKey = (long) myInfo.hashCode();
+                }
+                return electionKey;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getKingsName()
+        {
+            return king.getName();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getLeftName()
+        {
+            return leftNode.getName();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getNextHop(String previousHopName)
+        {
+            return PeasantLogic.this.getNextHop(previousHopName).getName();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void send(String hopName, String content)
+        {
+            CommunicationLink hop = hopName.equals(leftNode.getName()) ? leftNode : rightNode;
+            hop.sendMessage(new Message(content, hop.getInfo(), myInfo, KING_IS_DEAD));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void win()
+        {
+            node.promoteToKing();
+        }
     }
 }
@@ -0,0 +1,103 @@
+package cz.cvut.fel.bulkodav.node;
+
+/**
+ * The {@link PromotionTimes} class holds how long the phases of the promotion of a new king took,
+ * see {@link Node#promoteToKing()}. The phases follow each other, so they add up to the whole promotion.
+ */
+class PromotionTimes
+{
+    private final int nodes;
+    private final double mapping;
+    private final double joining;
+    private final double closing;
+    private final double announcing;
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.PromotionTimes} class.
+     *
+     * @param nodes      The number of the nodes the new king got.
+     * @param mapping    The milliseconds of walking both sides of the ring and connecting to the nodes.
+     * @param joining    The milliseconds of joining the ends of the ring.
+     * @param closing    The milliseconds of closing the links of the peasant.
+     * @param announcing The milliseconds of telling the nodes that the old king is gone.
+     */
+    PromotionTimes(int nodes, double mapping, double joining, double closing, double announcing)
+    {
+        this.nodes = nodes;
+        this.mapping = mapping;
+        this.joining = joining;
+        this.closing = closing;
+        this.announcing = announcing;
+    }
+
+    /**
+     * Gets the number of the nodes the new king got.
+     *
+     * @return The number of the nodes.
+     */
+    int getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * Gets how long it took to walk both sides of the ring and connect to the nodes.
+     *
+     * @return The milliseconds of the mapping.
+     */
+    double getMapping()
+    {
+        return mapping;
+    }
+
+    /**
+     * Gets how long it took to join the ends of the ring.
+     *
+     * @return The milliseconds of the joining.
+     */
+    double getJoining()
+    {
+        return joining;
+    }
+
+    /**
+     * Gets how long it took to close the links of the peasant.
+     *
+     * @return The milliseconds of the closing.
+     */
+    double getClosing()
+    {
+        return closing;
+    }
+
+    /**
+     * Gets how long it took to tell the nodes that the old king is gone.
+     *
+     * @return The milliseconds of the announcing.
+     */
+    double getAnnouncing()
+    {
+        return announcing;
+    }
+
+    /**
+     * Gets how long the whole promotion took.
+     *
+     * @return The milliseconds of all the phases.
+     */
+    double getTotal()
+    {
+        return mapping + joining + closing + announcing;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("%d nodes in %.0f ms: mapping and connecting %.0f ms, joining the ends %.0f ms, " +
+                "closing the old links %.0f ms, announcing %.0f ms", nodes, getTotal(), mapping, joining, closing,
+                announcing);
+    }
+}
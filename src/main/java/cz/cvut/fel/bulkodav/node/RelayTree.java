@@ -0,0 +1,45 @@
+package cz.cvut.fel.bulkodav.node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@link RelayTree} class splits the nodes below a node of the relay tree into the subtrees of its children.
+ * The nodes of a tree are listed in the breadth-first order without the root, so the children of the node at position
+ * i are at positions degree * i + 1 up to degree * i + degree, where the root is at position 0.
+ * The nodes of every subtree are listed the same way, so each node can split its own list further.
+ */
+class RelayTree
+{
+    /**
+     * Splits the nodes below the root into the subtrees of the root's children.
+     *
+     * @param nodes  The nodes below the root in the breadth-first order.
+     * @param degree The maximal number of children of a node.
+     * @param <T>    The type of the nodes.
+     * @return The subtrees of the children, each starting with the child itself followed by the nodes below it.
+     */
+    static <T> List<List<T>> split(List<T> nodes, int degree)
+    {
+        degree = Math.max(1, degree);
+        int size = nodes.size();
+        List<List<T>> subtrees = new ArrayList<>();
+        for (int child = 1; child <= Math.min(degree, size); child++)
+        {
+            List<T> subtree = new ArrayList<>();
+            long first = child;
+            long last = child;
+            while (first <= size)
+            {
+                for (long position = first; position <= Math.min(last, size); position++)
+                {
+                    subtree.add(nodes.get((int) position - 1));
+                }
+                first = degree * first + 1;
+                last = degree * last + degree;
+            }
+            subtrees.add(subtree);
+        }
+        return subtrees;
+    }
+}
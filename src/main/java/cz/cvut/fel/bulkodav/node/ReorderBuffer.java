@@ -0,0 +1,127 @@
+package cz.cvut.fel.bulkodav.node;
+
+import cz.cvut.fel.bulkodav.communication.Message;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The {@link ReorderBuffer} class delivers the chat messages in the order the king numbered them.
+ * A message which comes before the ones preceding it waits in the buffer and the missing messages are requested
+ * from the king. When too many messages wait, the missing ones are given up.
+ */
+class ReorderBuffer
+{
+    /**
+     * Requests the missing chat messages from the king.
+     */
+    interface Retransmission
+    {
+        /**
+         * Requests the chat messages in the range.
+         *
+         * @param from The order of the first missing message.
+         * @param to   The order of the last missing message.
+         */
+        void request(long from, long to);
+    }
+
+    private final int capacity;
+    private final Consumer<Message> delivery;
+    private final Retransmission retransmission;
+    private final Map<Long, Message> waiting = new HashMap<>();
+    private long nextOrder;
+    private long requestedOrder;
+    private final static Logger logger = Logger.getLogger(ReorderBuffer.class);
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.ReorderBuffer} class.
+     *
+     * @param capacity       The number of messages which may wait for the missing ones.
+     * @param delivery       Delivers the messages in order.
+     * @param retransmission Requests the missing messages.
+     */
+    ReorderBuffer(int capacity, Consumer<Message> delivery, Retransmission retransmission)
+    {
+        this.capacity = Math.max(1, capacity);
+        this.delivery = delivery;
+        this.retransmission = retransmission;
+    }
+
+    /**
+     * Delivers the message if it is the next one, together with the messages which waited for it.
+     * A message which was not numbered by the king is delivered right away, a message which was already delivered
+     * is dropped.
+     *
+     * @param message The received chat message.
+     */
+    synchronized void add(Message message)
+    {
+        long order = message.getOrder();
+        if (order == 0)
+        {
+            delivery.accept(message);
+            return;
+        }
+        if (nextOrder == 0) nextOrder = order;
+        if (order < nextOrder || waiting.containsKey(order)) return;
+
+        if (order > nextOrder)
+        {
+            waiting.put(order, message);
+            if (order - 1 > requestedOrder)
+            {
+                retransmission.request(Math.max(nextOrder, requestedOrder + 1), order - 1);
+                requestedOrder = order - 1;
+            }
+            if (waiting.size() <= capacity) return;
+
+            long firstWaiting = Collections.min(waiting.keySet());
+            logger.warn("Chat messages " + nextOrder + " to " + (firstWaiting - 1) + " did not arrive, skipping them.");
+            nextOrder = firstWaiting;
+        } else
+        {
+            delivery.accept(message);
+            nextOrder++;
+        }
+
+        Message next;
+        while ((next = waiting.remove(nextOrder)) != null)
+        {
+            delivery.accept(next);
+            nextOrder++;
+        }
+    }
+
+    /**
+     * Delivers all the waiting messages in order and forgets the numbering, so that the numbering of a new king
+     * is accepted.
+     */
+    synchronized void reset()
+    {
+        List<Long> orders = new ArrayList<>(waiting.keySet());
+        Collections.sort(orders);
+        for (Long order : orders)
+        {
+            delivery.accept(waiting.get(order));
+        }
+        waiting.clear();
+        nextOrder = 0;
+        requestedOrder = 0;
+    }
+
+    /**
+     * Gets the order of the last delivered message.
+     *
+     * @return The order of the last delivered message, or 0 if there was none.
+     */
+    synchronized long getLastOrder()
+    {
+        return nextOrder == 0 ? 0 : nextOrder - 1;
+    }
+}
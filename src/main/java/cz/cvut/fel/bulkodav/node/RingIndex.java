@@ -0,0 +1,374 @@
+package cz.cvut.fel.bulkodav.node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link RingIndex} class holds the king's members in the order of the ring. The first member is the left node
+ * of the king and the last member is its right node. The members are kept in slots linked to their neighbours,
+ * the slots are found by the ids of the members in an open addressing table with primitive int keys,
+ * so a member is added, removed and its neighbours are found in a constant time. The names of the members
+ * are indexed too. The index also keeps the order of the members in the relay tree, in which a removed member
+ * is replaced by the last one.
+ *
+ * @param <V> The type of the members.
+ */
+class RingIndex<V>
+{
+    private final static int NONE = -1;
+    private int[] ids;
+    private String[] names;
+    private Object[] values;
+    private int[] previous;
+    private int[] next;
+    private int[] relayPositions;
+    private int[] relayOrder;
+    private int[] table;
+    private final Map<String, Integer> slotsByName = new HashMap<>();
+    private int first = NONE;
+    private int last = NONE;
+    private int freeSlot = NONE;
+    private int used;
+    private int size;
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.RingIndex} class.
+     */
+    RingIndex()
+    {
+        allocate(16);
+        table = new int[32];
+    }
+
+    /**
+     * Adds a member to the end of the ring, so it becomes the right node of the king,
+     * and to the end of the relay order.
+     *
+     * @param id    The id of the member.
+     * @param name  The name of the member.
+     * @param value The member.
+     * @return true if the member was added, false if there already is a member with the id.
+     */
+    synchronized boolean add(int id, String name, V value)
+    {
+        if (find(id) != NONE) return false;
+        int slot = newSlot();
+        ids[slot] = id;
+        names[slot] = name;
+        values[slot] = value;
+        previous[slot] = last;
+        next[slot] = NONE;
+        if (last == NONE) first = slot;
+        else next[last] = slot;
+        last = slot;
+        relayPositions[slot] = size;
+        relayOrder[size] = slot;
+        size++;
+        slotsByName.put(name, slot);
+        if (2 * size > table.length) rehash(2 * table.length);
+        else insert(slot);
+        return true;
+    }
+
+    /**
+     * Removes a member. Its neighbours become the neighbours of each other and its place in the relay order
+     * is taken by the last member of the relay order.
+     *
+     * @param id The id of the member.
+     * @return The removed member, or null if there is no member with the id.
+     */
+    synchronized V remove(int id)
+    {
+        int position = position(id);
+        if (position == NONE) return null;
+        int slot = table[position] - 1;
+        delete(position);
+
+        if (previous[slot] == NONE) first = next[slot];
+        else next[previous[slot]] = next[slot];
+        if (next[slot] == NONE) last = previous[slot];
+        else previous[next[slot]] = previous[slot];
+
+        size--;
+        int lastInRelay = relayOrder[size];
+        relayOrder[relayPositions[slot]] = lastInRelay;
+        relayPositions[lastInRelay] = relayPositions[slot];
+
+        slotsByName.remove(names[slot], slot);
+        V value = value(slot);
+        names[slot] = null;
+        values[slot] = null;
+        next[slot] = freeSlot;
+        freeSlot = slot;
+        return value;
+    }
+
+    /**
+     * Gets a member by its id.
+     *
+     * @param id The id of the member.
+     * @return The member, or null if there is no member with the id.
+     */
+    synchronized V get(int id)
+    {
+        return value(find(id));
+    }
+
+    /**
+     * Gets a member by its name.
+     *
+     * @param name The name of the member.
+     * @return The member, or null if there is no member with the name.
+     */
+    synchronized V getByName(String name)
+    {
+        Integer slot = slotsByName.get(name);
+        return slot == null ? null : value(slot);
+    }
+
+    /**
+     * Gets whether there is a member with the id.
+     *
+     * @param id The id of the member.
+     * @return true if there is a member with the id, otherwise false.
+     */
+    synchronized boolean contains(int id)
+    {
+        return find(id) != NONE;
+    }
+
+    /**
+     * Gets whether there is a member with the name.
+     *
+     * @param name The name of the member.
+     * @return true if there is a member with the name, otherwise false.
+     */
+    synchronized boolean containsName(String name)
+    {
+        return slotsByName.containsKey(name);
+    }
+
+    /**
+     * Gets the first member of the ring, which is the left node of the king.
+     *
+     * @return The first member, or null if the ring is empty.
+     */
+    synchronized V getFirst()
+    {
+        return value(first);
+    }
+
+    /**
+     * Gets the last member of the ring, which is the right node of the king.
+     *
+     * @return The last member, or null if the ring is empty.
+     */
+    synchronized V getLast()
+    {
+        return value(last);
+    }
+
+    /**
+     * Gets the member before a member, which is the right node of the member.
+     *
+     * @param id The id of the member.
+     * @return The member before, or null if the member is the first one or there is no member with the id.
+     */
+    synchronized V getBefore(int id)
+    {
+        int slot = find(id);
+        return slot == NONE ? null : value(previous[slot]);
+    }
+
+    /**
+     * Gets the member after a member, which is the left node of the member.
+     *
+     * @param id The id of the member.
+     * @return The member after, or null if the member is the last one or there is no member with the id.
+     */
+    synchronized V getAfter(int id)
+    {
+        int slot = find(id);
+        return slot == NONE ? null : value(next[slot]);
+    }
+
+    /**
+     * Gets all the members in the order of the ring.
+     *
+     * @return The list of the members.
+     */
+    synchronized List<V> getValues()
+    {
+        List<V> list = new ArrayList<>(size);
+        for (int slot = first; slot != NONE; slot = next[slot]) list.add(value(slot));
+        return list;
+    }
+
+    /**
+     * Gets the names of all the members in the order of the ring.
+     *
+     * @return The list of the names.
+     */
+    synchronized List<String> getNames()
+    {
+        List<String> list = new ArrayList<>(size);
+        for (int slot = first; slot != NONE; slot = next[slot]) list.add(names[slot]);
+        return list;
+    }
+
+    /**
+     * Gets all the members in the relay order.
+     *
+     * @return The list of the members.
+     */
+    synchronized List<V> getRelayOrder()
+    {
+        List<V> list = new ArrayList<>(size);
+        for (int position = 0; position < size; position++) list.add(value(relayOrder[position]));
+        return list;
+    }
+
+    /**
+     * Gets the number of the members.
+     *
+     * @return The number of the members.
+     */
+    synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * Gets the member in a slot.
+     *
+     * @param slot The slot.
+     * @return The member, or null if the slot is {@link #NONE}.
+     */
+    @SuppressWarnings("unchecked")
+    private V value(int slot)
+    {
+        return slot == NONE ? null : (V) values[slot];
+    }
+
+    /**
+     * Takes a free slot, or a new one if there is no free slot.
+     *
+     * @return The slot.
+     */
+    private int newSlot()
+    {
+        if (freeSlot != NONE)
+        {
+            int slot = freeSlot;
+            freeSlot = next[slot];
+            return slot;
+        }
+        if (used == ids.length) allocate(2 * ids.length);
+        return used++;
+    }
+
+    /**
+     * Resizes the arrays of the slots.
+     *
+     * @param capacity The new number of the slots.
+     */
+    private void allocate(int capacity)
+    {
+        ids = ids == null ? new int[capacity] : Arrays.copyOf(ids, capacity);
+        names = names == null ? new String[capacity] : Arrays.copyOf(names, capacity);
+        values = values == null ? new Object[capacity] : Arrays.copyOf(values, capacity);
+        previous = previous == null ? new int[capacity] : Arrays.copyOf(previous, capacity);
+        next = next == null ? new int[capacity] : Arrays.copyOf(next, capacity);
+        relayPositions = relayPositions == null ? new int[capacity] : Arrays.copyOf(relayPositions, capacity);
+        relayOrder = relayOrder == null ? new int[capacity] : Arrays.copyOf(relayOrder, capacity);
+    }
+
+    /**
+     * Finds the slot of a member.
+     *
+     * @param id The id of the member.
+     * @return The slot, or {@link #NONE} if there is no member with the id.
+     */
+    private int find(int id)
+    {
+        int position = position(id);
+        return position == NONE ? NONE : table[position] - 1;
+    }
+
+    /**
+     * Finds the position of a member in the table. The table holds the slots increased by one, 0 is an empty position.
+     *
+     * @param id The id of the member.
+     * @return The position, or {@link #NONE} if there is no member with the id.
+     */
+    private int position(int id)
+    {
+        int mask = table.length - 1;
+        for (int position = hash(id) & mask; table[position] != 0; position = (position + 1) & mask)
+        {
+            if (ids[table[position] - 1] == id) return position;
+        }
+        return NONE;
+    }
+
+    /**
+     * Puts a slot to the table.
+     *
+     * @param slot The slot.
+     */
+    private void insert(int slot)
+    {
+        int mask = table.length - 1;
+        int position = hash(ids[slot]) & mask;
+        while (table[position] != 0) position = (position + 1) & mask;
+        table[position] = slot + 1;
+    }
+
+    /**
+     * Takes a slot out of the table. The following slots which were moved away from their positions
+     * are shifted back, so the table needs no tombstones.
+     *
+     * @param position The position of the slot in the table.
+     */
+    private void delete(int position)
+    {
+        int mask = table.length - 1;
+        int hole = position;
+        for (int i = (hole + 1) & mask; table[i] != 0; i = (i + 1) & mask)
+        {
+            int home = hash(ids[table[i] - 1]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask))
+            {
+                table[hole] = table[i];
+                hole = i;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    /**
+     * Creates a new table and puts all the members to it.
+     *
+     * @param capacity The size of the new table, a power of two.
+     */
+    private void rehash(int capacity)
+    {
+        table = new int[capacity];
+        for (int slot = first; slot != NONE; slot = next[slot]) insert(slot);
+    }
+
+    /**
+     * Spreads the bits of an id, so the ids which differ only in the upper bits do not collide.
+     *
+     * @param id The id.
+     * @return The hash of the id.
+     */
+    private static int hash(int id)
+    {
+        int hash = id * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,272 @@
+package cz.cvut.fel.bulkodav.node;
+
+import cz.cvut.fel.bulkodav.communication.CommunicationLink;
+import cz.cvut.fel.bulkodav.communication.Message;
+import cz.cvut.fel.bulkodav.communication.NodeInfo;
+import cz.cvut.fel.bulkodav.communication.TopologyInfo;
+import cz.cvut.fel.bulkodav.exceptions.ConnectingException;
+import cz.cvut.fel.bulkodav.exceptions.OperationException;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static cz.cvut.fel.bulkodav.communication.MessageType.CHAT;
+
+/**
+ * The {@link ShardBridge} class joins the king of a shard to the top-level ring, whose members are the kings of all
+ * the shards. The king of a shard runs a second node in the top-level ring, named after the king and the address
+ * of the shard, e.g. "alice@10.0.0.1:5000", on the port of the shard moved by the federation port offset.
+ * The top-level ring elects its own king and spreads the chat the same way as a shard does.
+ * <p>
+ * A chat message written in the shard goes up to the top-level ring, a chat message which comes from the top-level
+ * ring goes down to the shard unless it was written in the shard. So no king sends a message to more nodes than
+ * there are in its own ring. Every shard numbers its chat on its own, the messages of different shards may be
+ * displayed in different orders in different shards.
+ */
+class ShardBridge
+{
+    /**
+     * The content of a {@link cz.cvut.fel.bulkodav.communication.MessageType#REJECT} message of a full shard,
+     * followed by the addresses of the other shards.
+     */
+    final static String FULL = "full";
+    private final static char SHARD_SEPARATOR = '@';
+
+    private final Node shard;
+    private final Node federation;
+    private final ExecutorService up;
+    private final ExecutorService down;
+    private final static Logger logger = Logger.getLogger(ShardBridge.class);
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.ShardBridge} class.
+     *
+     * @param shard      The king of the shard.
+     * @param federation The node of the king in the top-level ring.
+     */
+    private ShardBridge(Node shard, Node federation)
+    {
+        this.shard = shard;
+        this.federation = federation;
+        String name = shard.getNodeName();
+        // one thread for every direction keeps the order of the messages of every shard
+        up = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "shard-up-" + name));
+        down = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "shard-down-" + name));
+    }
+
+    /**
+     * Joins the king of a shard to the top-level ring. The node of the king in the top-level ring connects
+     * to the first reachable king of the top-level ring from the federation addresses, or starts the top-level ring
+     * if none of them is reachable.
+     *
+     * @param shard The king of the shard.
+     * @return The bridge, or null if the node in the top-level ring cannot be started.
+     */
+    static ShardBridge open(Node shard)
+    {
+        NodeSettings settings = shard.getSettings();
+        NodeInfo shardInfo = shard.getNodeInfo();
+        NodeInfo federationInfo = new NodeInfo(shardInfo.getAddress(),
+                shardInfo.getPort() + settings.getFederationPortOffset(),
+                shardInfo.getName() + SHARD_SEPARATOR + shardInfo.getAddress() + ":" + shardInfo.getPort());
+        Node federation = new Node(settings);
+        ShardBridge bridge = new ShardBridge(shard, federation);
+        federation.setBridge(bridge);
+        try
+        {
+            boolean joined = false;
+            for (String address : settings.getFederation().split(","))
+            {
+                NodeInfo seed = parseAddress(address.trim(), "");
+                if (seed == null || (seed.getAddress().equals(federationInfo.getAddress()) &&
+                        seed.getPort() == federationInfo.getPort())) continue;
+                try
+                {
+                    federation.connectToRemoteKing(seed, federationInfo);
+                    joined = true;
+                    break;
+                } catch (ConnectingException e)
+                {
+                    logger.info("Node " + shardInfo + "\n - cannot join the top-level ring through " + address +
+                            ": " + e.getMessage() + "\n");
+                }
+            }
+            if (!joined)
+            {
+                logger.info("Node " + shardInfo + "\n - starting the top-level ring.\n");
+                federation.startNewNetwork(federationInfo);
+            }
+        } catch (ConnectingException e)
+        {
+            logger.error("Node " + shardInfo + "\n - cannot join the top-level ring: " + e.getMessage());
+            bridge.up.shutdown();
+            bridge.down.shutdown();
+            return null;
+        }
+        federation.setDaemon(true);
+        federation.start();
+        logger.info("Node " + shardInfo + "\n - the shard is bridged to the top-level ring as " +
+                federationInfo.getName() + ".\n");
+        return bridge;
+    }
+
+    /**
+     * Passes a chat message delivered by one of the bridged nodes to the other one. A message delivered
+     * in the shard goes up if it was written in the shard, a message delivered in the top-level ring goes down
+     * if it was not.
+     *
+     * @param node    The node which delivered the message.
+     * @param message The chat message.
+     */
+    void delivered(Node node, Message message)
+    {
+        boolean writtenInShard = isShardMember(message.getSender());
+        Message chat = new Message(message.getContent(), null, message.getSender(), CHAT);
+        if (node == shard && writtenInShard)
+        {
+            up.execute(() -> sendUp(chat));
+        } else if (node == federation && !writtenInShard)
+        {
+            down.execute(() ->
+            {
+                KingLogic kingLogic = shard.getKingLogic();
+                if (kingLogic != null) kingLogic.forwardToAll(chat);
+            });
+        }
+    }
+
+    /**
+     * Sends a chat message written in the shard to the top-level ring.
+     *
+     * @param chat The chat message.
+     */
+    private void sendUp(Message chat)
+    {
+        KingLogic kingLogic = federation.getKingLogic();
+        PeasantLogic peasantLogic = federation.getPeasantLogic();
+        try
+        {
+            if (kingLogic != null) kingLogic.forwardToAll(chat);
+            else if (peasantLogic != null) peasantLogic.relayMessage(chat);
+        } catch (OperationException e)
+        {
+            logger.error("Node " + shard.getNodeInfo() + "\n - a chat message of " + chat.getSenderName() +
+                    " did not get to the other shards: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets whether the node is a member of the shard, or its king.
+     *
+     * @param nodeInfo The info about the node.
+     * @return true if the node is in the shard, otherwise false.
+     */
+    private boolean isShardMember(NodeInfo nodeInfo)
+    {
+        if (sameNode(nodeInfo, shard.getNodeInfo())) return true;
+        KingLogic kingLogic = shard.getKingLogic();
+        CommunicationLink member = kingLogic == null ? null : kingLogic.getNodeByName(nodeInfo.getName());
+        return member != null && sameNode(nodeInfo, member.getInfo());
+    }
+
+    /**
+     * Gets whether two infos belong to the same node. The names are unique only inside one shard.
+     *
+     * @param first  The info about the first node.
+     * @param second The info about the second node.
+     * @return true if the infos belong to the same node, otherwise false.
+     */
+    private static boolean sameNode(NodeInfo first, NodeInfo second)
+    {
+        return first.getName().equals(second.getName()) && first.getPort() == second.getPort() &&
+                first.getAddress().equals(second.getAddress());
+    }
+
+    /**
+     * Gets whether the shard of the king has as many nodes as a shard may have, so a new node has to join
+     * another shard.
+     *
+     * @param node The king which is asked to take a new node.
+     * @return true if the node is the king of the shard and the shard is full, otherwise false.
+     */
+    boolean isFull(Node node)
+    {
+        int shardSize = shard.getSettings().getShardSize();
+        KingLogic kingLogic = shard.getKingLogic();
+        return node == shard && shardSize > 0 && kingLogic != null && kingLogic.getAllNodes().size() + 1 >= shardSize;
+    }
+
+    /**
+     * Gets the addresses of the kings of the other shards, from the names of the nodes of the top-level ring.
+     *
+     * @return The addresses of the kings of the other shards separated by spaces.
+     */
+    String getOtherShards()
+    {
+        StringBuilder builder = new StringBuilder();
+        try
+        {
+            for (TopologyInfo info : federation.getTopologyInfo())
+            {
+                String name = info.getNodeName();
+                int separator = name.lastIndexOf(SHARD_SEPARATOR);
+                if (separator < 0 || name.equals(federation.getNodeName())) continue;
+                if (builder.indexOf(" " + name.substring(separator + 1)) >= 0) continue;
+                builder.append(' ').append(name.substring(separator + 1));
+            }
+        } catch (OperationException e)
+        {
+            logger.info("Node " + shard.getNodeInfo() + "\n - the other shards are not known: " + e.getMessage() + "\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Parses an address of a node.
+     *
+     * @param address The ip address and the port separated by a ":".
+     * @param name    The name of the node.
+     * @return The info about the node, or null if the address is not valid.
+     */
+    static NodeInfo parseAddress(String address, String name)
+    {
+        int separator = address.lastIndexOf(':');
+        if (separator <= 0) return null;
+        try
+        {
+            return new NodeInfo(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)),
+                    name);
+        } catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Takes the king of the shard out of the top-level ring, when it dies.
+     *
+     * @param node The node which dies. Nothing is done when the node in the top-level ring dies.
+     */
+    void close(Node node)
+    {
+        if (node != shard) return;
+        up.shutdown();
+        down.shutdown();
+        if (federation.isLoggedIn()) federation.die();
+    }
+
+    /**
+     * Creates a daemon thread.
+     *
+     * @param runnable The task of the thread.
+     * @param name     The name of the thread.
+     * @return The thread.
+     */
+    private static Thread daemon(Runnable runnable, String name)
+    {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -1,82 +1,79 @@
 package cz.cvut.fel.bulkodav.node;
 
-import cz.cvut.fel.bulkodav.exceptions.CommunicationException;
 import cz.cvut.fel.bulkodav.communication.CommunicationLink;
 import cz.cvut.fel.bulkodav.communication.Message;
+import cz.cvut.fel.bulkodav.communication.MessageListener;
+import cz.cvut.fel.bulkodav.communication.MessageType;
+import cz.cvut.fel.bulkodav.communication.NodeInfo;
 import org.apache.log4j.Logger;
 
-import java.io.IOException;
-import java.net.Socket;
+import static cz.cvut.fel.bulkodav.communication.MessageType.RELAY_CHAT;
+import static cz.cvut.fel.bulkodav.communication.MessageType.RING_CHAT;
 
 /**
  * The {@link SocketListener} class represents a listener which delegates an incoming messages
  * from one specific node to a concrete handler based on the type of receiving node.
+ * The messages are read by the node's {@link cz.cvut.fel.bulkodav.communication.Transport},
+ * so the listener does not need a thread of its own.
  */
-public class SocketListener extends Thread
+public class SocketListener implements MessageListener
 {
     private final Node node;
-    private CommunicationLink messageSender;
     private final MessageHandler messageHandler;
+    private final CommunicationLink messageSender;
     private final static Logger logger = Logger.getLogger(SocketListener.class);
     private volatile boolean finished;
 
     /**
      * The constructor for {@link cz.cvut.fel.bulkodav.node.SocketListener} class.
      *
-     * @param messageSender The socket to which we listen.
+     * @param messageSender The link to which we listen.
      * @param node          The node which build this socket listener.
      */
-    SocketListener(Socket messageSender, Node node, String address)
+    SocketListener(CommunicationLink messageSender, Node node)
     {
-        this.messageSender = new CommunicationLink(messageSender, address);
         this.node = node;
         messageHandler = node.isKing() ? new KingHandler(node) : new PeasantHandler(node);
+        this.messageSender = messageSender;
+        messageSender.setAcknowledgementBatch(node.getSettings().getAcknowledgementBatch());
+        messageSender.setListener(this);
     }
 
     /**
-     * Starts running and listening to incoming messages from one particular sender which this SocketListener thread is dedicated to.
+     * Handles one incoming message from the particular sender which this SocketListener is dedicated to.
+     *
+     * @param message       The received message.
+     * @param messageSender The link to the sender of the message.
      */
     @Override
-    public void run()
+    public void messageReceived(Message message, CommunicationLink messageSender)
     {
-        while (!finished)
+        if (finished) return;
+        // a ring or relayed chat message carries its author, not the node which passed it on
+        MessageType messageType = message.getMessageType();
+        if (messageSender.getPort() == 0 && messageType != RING_CHAT && messageType != RELAY_CHAT)
         {
-            try
-            {
-                if (messageSender.readyToRead())
-                {
-                    Message message;
-                    try
-                    {
-                        message = messageSender.readMessage();
-                        if (messageSender.getPort() == 0)
-                        {
-                            messageSender.setName(message.getSenderName());
-                            messageSender.setPort(message.getSender().getPort());
-                        }
-                    } catch (CommunicationException e)
-                    {
-                        int sender = messageSender.getPort();
-                        logger.error("Node + " + node.getPort() + "\n - failed to receive message from" +
-                                (sender == 0 ? "unknown sender" : sender), e);
-                        node.handleNodeDeath(messageSender.getInfo());
-                        break;
-                    }
-                    handleReceivedMessage(message, messageSender);
-                }
-            } catch (IOException e)
-            {
-                if (!node.isLoggedIn())
-                {
-                    String sender = messageSender.getName();
-                    logger.error("Node " + node.getNodeName() + "\n - failed to receive message from " +
-                            (sender.equals("") ? "unknown sender" : sender) + ".");
-                }
-                finished = true;
-            }
-            node.receiveAllMessages();
+            messageSender.setName(message.getSenderName());
+            messageSender.setPort(message.getSender().getPort());
         }
-        messageSender.close();
+        handleReceivedMessage(message, messageSender);
+    }
+
+    /**
+     * Stops listening after the sender closed the socket. A closed socket alone is not a proof of the sender's death,
+     * the death is discovered when a request sent to the node fails.
+     *
+     * @param messageSender The link to the sender which was closed.
+     */
+    @Override
+    public void connectionClosed(CommunicationLink messageSender)
+    {
+        if (finished) return;
+        finished = true;
+        node.listenerEnded(this);
+        String sender = messageSender.getName();
+        logger.debug("Node " + node.getNodeName() + "\n - stopped listening to " +
+                (sender.equals("") ? "unknown sender" : sender) + ".");
     }
 
     /**
@@ -96,6 +93,15 @@ public class SocketListener extends Thread
             case CHAT:
                 messageHandler.handleChatMessage(message, messageSender);
                 break;
+            case RING_CHAT:
+                messageHandler.handleRingChatMessage(message, messageSender);
+                break;
+            case RELAY_CHAT:
+                messageHandler.handleRelayChatMessage(message, messageSender);
+                break;
+            case RETRANSMIT:
+                messageHandler.handleRetransmitMessage(message, messageSender);
+                break;
             case TOPOLOGY_CHANGED:
                 messageHandler.handleTopologyChangedMessage(message, messageSender);
                 break;
@@ -114,6 +120,18 @@ public class SocketListener extends Thread
             case NAME:
                 messageHandler.handleNameMessage(message, messageSender);
                 break;
+            case DEPUTY:
+                messageHandler.handleDeputyMessage(message, messageSender);
+                break;
+            case REPLICA:
+                messageHandler.handleReplicaMessage(message, messageSender);
+                break;
+            case SUCCESSION:
+                messageHandler.handleSuccessionMessage(message, messageSender);
+                break;
+            case HANDOFF:
+                messageHandler.handleHandoffMessage(message, messageSender);
+                break;
         }
     }
 
@@ -128,10 +146,23 @@ public class SocketListener extends Thread
     }
 
     /**
-     * Stops listening to the messages from the socket.
+     * Opens a link to the listened node through the connection the node opened to this node.
+     *
+     * @param nodeInfo The info about the node to be connected.
+     * @return The new link, or null if this listener does not listen to the node or its connection cannot be shared.
+     */
+    CommunicationLink openReverseLink(NodeInfo nodeInfo)
+    {
+        if (finished || messageSender.getInfo().hashCode() != nodeInfo.hashCode()) return null;
+        return messageSender.openReverseLink(nodeInfo);
+    }
+
+    /**
+     * Stops listening to the messages from the socket and closes it.
      */
     void end()
     {
         this.finished = true;
+        messageSender.close();
     }
 }
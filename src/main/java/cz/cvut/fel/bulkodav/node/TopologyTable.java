@@ -0,0 +1,167 @@
+package cz.cvut.fel.bulkodav.node;
+
+import cz.cvut.fel.bulkodav.communication.TopologyInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The {@link TopologyTable} class holds the king's view of the ring, so that the topology and the roster of online
+ * users can be read without asking every node. The dead nodes are taken out of the table as soon as their death
+ * is discovered, by the heartbeats or by a failed message. The king is the first node of the ring, its left node
+ * is the first of the other nodes and its right node is the last of them. Every change of the ring creates a new
+ * version of the table, the readers get an immutable snapshot of the current version. The version is the epoch
+ * of the membership, a change of one user is remembered so that only the change can be sent to the other nodes.
+ */
+class TopologyTable
+{
+    private volatile List<TopologyInfo> snapshot;
+    private volatile String roster;
+    private volatile long version;
+    private boolean framed;
+    private List<String> names;
+    private UserStateChange lastChange;
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.TopologyTable} class.
+     *
+     * @param kingName The name of the king, who is alone in the ring.
+     */
+    TopologyTable(String kingName)
+    {
+        update(kingName, Collections.emptyList(), true);
+    }
+
+    /**
+     * Creates a new version of the table from the order of the nodes in the ring.
+     *
+     * @param kingName The name of the king.
+     * @param names    The names of the other nodes, from the left node of the king to its right node.
+     * @param framed   Whether every node of the ring uses frames.
+     */
+    synchronized void update(String kingName, List<String> names, boolean framed)
+    {
+        this.framed = framed;
+        List<TopologyInfo> infos = toTopologyInfos(kingName, names);
+        List<String> users = new ArrayList<>(names.size() + 1);
+        users.add(kingName);
+        users.addAll(names);
+        snapshot = Collections.unmodifiableList(infos);
+        roster = String.join(", ", users);
+        version++;
+        lastChange = findChange(this.names, names, infos);
+        this.names = new ArrayList<>(names);
+    }
+
+    /**
+     * Finds the one user who joined or left between two orders of the nodes in the ring.
+     *
+     * @param oldNames The previous order of the nodes, or null if there was none.
+     * @param newNames The new order of the nodes.
+     * @param infos    The topology info of the new order.
+     * @return The change of the user with the current version, or null if the orders differ in more than one user.
+     */
+    private UserStateChange findChange(List<String> oldNames, List<String> newNames, List<TopologyInfo> infos)
+    {
+        if (oldNames == null || Math.abs(oldNames.size() - newNames.size()) != 1) return null;
+        boolean joined = newNames.size() > oldNames.size();
+        List<String> longer = joined ? newNames : oldNames;
+        List<String> shorter = joined ? oldNames : newNames;
+        int index = 0;
+        while (index < shorter.size() && shorter.get(index).equals(longer.get(index))) index++;
+        if (!shorter.subList(index, shorter.size()).equals(longer.subList(index + 1, longer.size()))) return null;
+
+        String userName = longer.get(index);
+        if (!joined) return new UserStateChange(userName, ConnectionState.offline, null, null, version, framed);
+        // the king's info is the first one
+        TopologyInfo info = infos.get(index + 1);
+        return new UserStateChange(userName, ConnectionState.online, info.getLeftName(), info.getRightName(), version,
+                framed);
+    }
+
+    /**
+     * Creates the topology info of every node in the ring from the order of the nodes.
+     *
+     * @param kingName The name of the king.
+     * @param names    The names of the other nodes, from the left node of the king to its right node.
+     * @return The topology info of every node in the ring, the king's info first.
+     */
+    static List<TopologyInfo> toTopologyInfos(String kingName, List<String> names)
+    {
+        int size = names.size();
+        List<TopologyInfo> infos = new ArrayList<>(size + 1);
+        if (size == 0)
+        {
+            infos.add(new TopologyInfo(kingName, kingName, kingName));
+        } else
+        {
+            infos.add(new TopologyInfo(kingName, names.get(0), names.get(size - 1)));
+            for (int i = 0; i < size; i++)
+            {
+                String leftName = i == size - 1 ? kingName : names.get(i + 1);
+                String rightName = i == 0 ? kingName : names.get(i - 1);
+                infos.add(new TopologyInfo(names.get(i), leftName, rightName));
+            }
+        }
+        return infos;
+    }
+
+    /**
+     * Gets the change of a user to be sent to the other nodes. If the user's change is not the last change
+     * of the table, the whole topology of the current version is sent instead.
+     *
+     * @param userName        The name of the user.
+     * @param connectionState The connection state of the user.
+     * @return The change of the user which leads to the current version of the table.
+     */
+    synchronized UserStateChange getChange(String userName, ConnectionState connectionState)
+    {
+        if (lastChange != null && lastChange.getUserName().equals(userName)
+                && lastChange.getConnectionState() == connectionState)
+            return lastChange;
+        return getState(userName, connectionState);
+    }
+
+    /**
+     * Gets the whole topology of the current version of the table.
+     *
+     * @param userName        The name of the user whose change led to the current version, or null.
+     * @param connectionState The connection state of the user, or null.
+     * @return The topology of the current version of the table with the version as its epoch.
+     */
+    synchronized UserStateChange getState(String userName, ConnectionState connectionState)
+    {
+        return new UserStateChange(userName, connectionState, snapshot, version, framed);
+    }
+
+    /**
+     * Gets the topology info of every node in the ring, the king's info first.
+     *
+     * @return The immutable snapshot of the current version of the table.
+     */
+    List<TopologyInfo> getSnapshot()
+    {
+        return snapshot;
+    }
+
+    /**
+     * Gets the names of the online users separated by a comma and a space, the king's name first.
+     *
+     * @return The roster of the current version of the table.
+     */
+    String getRoster()
+    {
+        return roster;
+    }
+
+    /**
+     * Gets the version of the table, which grows with every change of the ring.
+     *
+     * @return The version of the table.
+     */
+    long getVersion()
+    {
+        return version;
+    }
+}
@@ -0,0 +1,39 @@
+package cz.cvut.fel.bulkodav.node;
+
+import cz.cvut.fel.bulkodav.communication.LoopbackNetwork;
+import cz.cvut.fel.bulkodav.communication.LoopbackTransport;
+import cz.cvut.fel.bulkodav.communication.SelectorTransport;
+import cz.cvut.fel.bulkodav.communication.Transport;
+
+import java.io.IOException;
+
+/**
+ * The {@link TransportType} enum represents the way the bytes get to the other nodes.
+ */
+public enum TransportType
+{
+    /**
+     * TCP sockets served by event loops. Every node binds its own port.
+     */
+    TCP,
+    /**
+     * Wires in memory to the other nodes in the same JVM. No port of the system is used and the received messages
+     * of all the nodes are handled by the threads of the {@link LoopbackNetwork}.
+     */
+    LOOPBACK;
+
+    /**
+     * Creates the transport of one node.
+     *
+     * @param settings The settings of the node.
+     * @param address  The address of the node.
+     * @return The transport.
+     * @throws IOException if the transport cannot be started.
+     */
+    Transport create(NodeSettings settings, String address) throws IOException
+    {
+        if (this == LOOPBACK)
+            return new LoopbackTransport(LoopbackNetwork.getDefault(), address);
+        return new SelectorTransport(settings.getEventLoopThreads(), settings.getDispatchThreads());
+    }
+}
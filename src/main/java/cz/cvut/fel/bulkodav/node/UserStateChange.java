@@ -1,17 +1,37 @@
 package cz.cvut.fel.bulkodav.node;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import cz.cvut.fel.bulkodav.communication.TopologyInfo;
 
 import java.util.List;
 
 /**
  * The {@link UserStateChange} class represents a changes of state of a user.
+ * A change sent by the king carries the epoch of the membership it leads to. It either carries the topology
+ * of the whole ring, or only the change itself: the names of the neighbours of a user who joined,
+ * or nothing more for a user who left. A change without an epoch comes from a node which does not know the epochs
+ * and always carries the whole topology. A change with an epoch also tells whether every node of the ring uses frames,
+ * see {@link NodeCapacity}.
  */
 public class UserStateChange
 {
+    /**
+     * The content of a request for the topology, which asks the king to add the epoch to its response.
+     */
+    final static String EPOCH_TOKEN = "epoch";
+
     private String userName;
     private ConnectionState connectionState;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private List<TopologyInfo> currentTopologyInfos;
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private long epoch;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String leftName;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String rightName;
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private boolean framed;
 
     @Deprecated
     public UserStateChange()
@@ -32,6 +52,43 @@ public class UserStateChange
         this.currentTopologyInfos = currentTopologyInfos;
     }
 
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.UserStateChange} class,
+     * which carries the whole topology of the given epoch.
+     *
+     * @param userName             The name of the user.
+     * @param connectionState      The connection state of the user.
+     * @param currentTopologyInfos The info about the current topology of every node after the change of user state.
+     * @param epoch                The epoch of the membership after the change.
+     * @param framed               Whether every node of the ring uses frames.
+     */
+    UserStateChange(String userName, ConnectionState connectionState, List<TopologyInfo> currentTopologyInfos,
+                    long epoch, boolean framed)
+    {
+        this(userName, connectionState, currentTopologyInfos);
+        this.epoch = epoch;
+        this.framed = framed;
+    }
+
+    /**
+     * The constructor for {@link cz.cvut.fel.bulkodav.node.UserStateChange} class,
+     * which carries only the change of the previous epoch.
+     *
+     * @param userName        The name of the user.
+     * @param connectionState The connection state of the user.
+     * @param leftName        The name of the left node of a user who joined, or null if the user left.
+     * @param rightName       The name of the right node of a user who joined, or null if the user left.
+     * @param epoch           The epoch of the membership after the change.
+     * @param framed          Whether every node of the ring uses frames.
+     */
+    UserStateChange(String userName, ConnectionState connectionState, String leftName, String rightName, long epoch,
+                    boolean framed)
+    {
+        this(userName, connectionState, null, epoch, framed);
+        this.leftName = leftName;
+        this.rightName = rightName;
+    }
+
     /**
      * Gets the name of the user.
      *
@@ -55,10 +112,52 @@ public class UserStateChange
     /**
      * Gets the current topology info after the user change.
      *
-     * @return The list of topology information about every node in the network.
+     * @return The list of topology information about every node in the network,
+     * or null if the change carries only the change itself.
      */
     public List<TopologyInfo> getCurrentTopologyInfos()
     {
         return currentTopologyInfos;
     }
+
+    /**
+     * Gets the epoch of the membership after the change.
+     *
+     * @return The epoch, or 0 if the change comes from a node which does not know the epochs.
+     */
+    public long getEpoch()
+    {
+        return epoch;
+    }
+
+    /**
+     * Gets the name of the left node of a user who joined.
+     *
+     * @return The name of the left node, or null if the change does not carry it.
+     */
+    public String getLeftName()
+    {
+        return leftName;
+    }
+
+    /**
+     * Gets the name of the right node of a user who joined.
+     *
+     * @return The name of the right node, or null if the change does not carry it.
+     */
+    public String getRightName()
+    {
+        return rightName;
+    }
+
+    /**
+     * Gets whether every node of the ring uses frames after the change.
+     *
+     * @return true if every node uses frames, false if some does not or the change comes from a node
+     * which does not know the epochs.
+     */
+    public boolean isFramed()
+    {
+        return framed;
+    }
 }
@@ -0,0 +1,142 @@
+package cz.cvut.fel.bulkodav.node;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The {@link RingIndexTest} class checks the {@link RingIndex} against a reference model built of plain lists.
+ * Random members are added and removed, and after the steps the order of the ring, the relay order, the neighbours
+ * and the lookups by id and by name must agree with the model. The removals shift the following entries of the table
+ * back, so a wrong shift shows up as a member which can no longer be found. The ids are random, so the table sees
+ * the same collisions as with the hashes of real nodes.
+ */
+public class RingIndexTest
+{
+    private final static int STEPS = 20000;
+
+    private int[] ids;
+    private String[] names;
+
+    @Test
+    public void smallRingAgreesWithModel()
+    {
+        // the small ring is checked with the same number of steps, so it goes through many more removals
+        check(42, 100);
+    }
+
+    @Test
+    public void mediumRingAgreesWithModel()
+    {
+        check(42, 1000);
+    }
+
+    @Test
+    public void bigRingAgreesWithModel()
+    {
+        check(42, 10000);
+    }
+
+    /**
+     * Checks the index against the reference model.
+     *
+     * @param seed The seed of the ids and of the steps.
+     * @param size The number of the members the ring grows up to.
+     */
+    private void check(long seed, int size)
+    {
+        Random random = new Random(seed);
+        createMembers(random, size);
+        RingIndex<Integer> index = new RingIndex<>();
+        List<Integer> ring = new ArrayList<>();
+        List<Integer> relay = new ArrayList<>();
+        int interval = Math.max(1, size / 100);
+        for (int step = 0; step < STEPS; step++)
+        {
+            // the ring grows up to the size and then stays around it
+            boolean add = ring.isEmpty() || (ring.size() < size && random.nextInt(3) != 0);
+            if (add)
+            {
+                int member = random.nextInt(size);
+                assertEquals("step " + step + ": add of " + names[member], !ring.contains(member),
+                        index.add(ids[member], names[member], member));
+                if (!ring.contains(member))
+                {
+                    ring.add(member);
+                    relay.add(member);
+                }
+            } else
+            {
+                int member = ring.get(random.nextInt(ring.size()));
+                assertEquals("step " + step + ": remove of " + names[member], (Integer) member,
+                        index.remove(ids[member]));
+                ring.remove((Integer) member);
+                int position = relay.indexOf(member);
+                int lastInRelay = relay.remove(relay.size() - 1);
+                if (position < relay.size()) relay.set(position, lastInRelay);
+                assertNull("step " + step + ": " + names[member] + " is found after its removal",
+                        index.get(ids[member]));
+            }
+            // a full comparison costs a pass over the ring, so the big rings are compared less often
+            if (step % interval == 0 || step == STEPS - 1) compare(index, ring, relay, step);
+        }
+    }
+
+    /**
+     * Creates the members with random unique ids.
+     *
+     * @param random The source of the ids.
+     * @param size   The number of the members.
+     */
+    private void createMembers(Random random, int size)
+    {
+        ids = new int[size];
+        names = new String[size];
+        Set<Integer> used = new HashSet<>();
+        for (int i = 0; i < size; i++)
+        {
+            int id;
+            do id = random.nextInt(); while (!used.add(id));
+            ids[i] = id;
+            names[i] = "node-" + i;
+        }
+    }
+
+    /**
+     * Compares the index with the model.
+     *
+     * @param index The index.
+     * @param ring  The members in the order of the ring.
+     * @param relay The members in the relay order.
+     * @param step  The step of the check.
+     */
+    private void compare(RingIndex<Integer> index, List<Integer> ring, List<Integer> relay, int step)
+    {
+        String prefix = "step " + step + ": ";
+        assertEquals(prefix + "size", ring.size(), index.size());
+        assertEquals(prefix + "order of the ring", ring, index.getValues());
+        assertEquals(prefix + "relay order", relay, index.getRelayOrder());
+        if (!ring.isEmpty())
+        {
+            assertEquals(prefix + "first member", ring.get(0), index.getFirst());
+            assertEquals(prefix + "last member", ring.get(ring.size() - 1), index.getLast());
+        }
+        for (int position = 0; position < ring.size(); position++)
+        {
+            int member = ring.get(position);
+            Integer before = position == 0 ? null : ring.get(position - 1);
+            Integer after = position == ring.size() - 1 ? null : ring.get(position + 1);
+            assertEquals(prefix + names[member] + " by id", (Integer) member, index.get(ids[member]));
+            assertEquals(prefix + names[member] + " by name", (Integer) member, index.getByName(names[member]));
+            assertEquals(prefix + "member before " + names[member], before, index.getBefore(ids[member]));
+            assertEquals(prefix + "member after " + names[member], after, index.getAfter(ids[member]));
+        }
+    }
+}